@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.EvaluationContext;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of a single expression shared by several threads, each evaluating with its own context. Run with
+ * -t to change the number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+public class ConcurrentEvaluateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({Shapes.SHORT, Shapes.FUNCTIONS})
+        public String shape;
+
+        Expression expression;
+
+        @Setup
+        public void setup() {
+            expression = new ExpressionBuilder(Shapes.expression(shape))
+                    .variables(Shapes.variables(shape))
+                    .build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+
+        EvaluationContext context;
+
+        int x;
+
+        int y;
+
+        final double[] inputs = new double[1024];
+
+        int row;
+
+        @Setup
+        public void setup(Shared shared) {
+            context = shared.expression.newContext();
+            x = shared.expression.slotOf("x");
+            y = shared.expression.slotOf("y");
+            final Random rnd = new Random();
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = 0.5d + rnd.nextDouble();
+            }
+        }
+    }
+
+    @Benchmark
+    public double evaluate(Shared shared, PerThread state) {
+        state.row = (state.row + 1) & (state.inputs.length - 1);
+        state.context.setVariable(state.x, state.inputs[state.row]);
+        state.context.setVariable(state.y, state.inputs[state.inputs.length - 1 - state.row]);
+        return shared.expression.evaluate(state.context);
+    }
+}
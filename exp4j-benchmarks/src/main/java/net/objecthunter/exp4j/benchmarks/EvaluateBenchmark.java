@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for evaluating a built expression. The variable values cycle through a set of random inputs so the
+ * JIT can not treat them as constants.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EvaluateBenchmark {
+
+    static final int ROWS = 1024;
+
+    @Param({Shapes.SHORT, Shapes.LONG, Shapes.VARIABLES, Shapes.FUNCTIONS, Shapes.NESTED})
+    public String shape;
+
+    private Expression interpreted;
+
+    private Expression compiled;
+
+    private int[] slots;
+
+    /* the inputs indexed by slot, then row */
+    private double[][] columns;
+
+    private double[] out;
+
+    private int row;
+
+    @Setup
+    public void setup() {
+        final String expression = Shapes.expression(shape);
+        final Set<String> variables = Shapes.variables(shape);
+        interpreted = new ExpressionBuilder(expression)
+                .variables(variables)
+                .build();
+        compiled = new ExpressionBuilder(expression)
+                .variables(variables)
+                .compile();
+        final Random rnd = new Random(42);
+        slots = new int[variables.size()];
+        int maxSlot = 0;
+        int i = 0;
+        for (String variable : variables) {
+            slots[i] = interpreted.slotOf(variable);
+            maxSlot = Math.max(maxSlot, slots[i]);
+            i++;
+        }
+        columns = new double[maxSlot + 1][];
+        for (int slot : slots) {
+            columns[slot] = new double[ROWS];
+            for (int j = 0; j < ROWS; j++) {
+                columns[slot][j] = 0.5d + rnd.nextDouble();
+            }
+        }
+        out = new double[ROWS];
+    }
+
+    private int nextRow() {
+        row = (row + 1) & (ROWS - 1);
+        return row;
+    }
+
+    @Benchmark
+    public double interpreted() {
+        final int r = nextRow();
+        for (int slot : slots) {
+            interpreted.setVariable(slot, columns[slot][r]);
+        }
+        return interpreted.evaluate();
+    }
+
+    @Benchmark
+    public double compiled() {
+        final int r = nextRow();
+        for (int slot : slots) {
+            compiled.setVariable(slot, columns[slot][r]);
+        }
+        return compiled.evaluate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] batch() {
+        interpreted.evaluate(columns, out);
+        return out;
+    }
+}
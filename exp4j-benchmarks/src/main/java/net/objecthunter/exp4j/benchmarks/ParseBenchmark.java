@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.constant.Constants;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for turning an expression string into tokens: tokenizing, the shunting yard and the whole build
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    @Param({Shapes.SHORT, Shapes.LONG, Shapes.VARIABLES, Shapes.FUNCTIONS, Shapes.NESTED})
+    public String shape;
+
+    private String expression;
+
+    /* the variables and the builtin constants, as passed to the tokenizer by the builder */
+    private Set<String> variables;
+
+    private Map<String, Function> functions;
+
+    private Map<String, Operator> operators;
+
+    @Setup
+    public void setup() {
+        expression = Shapes.expression(shape);
+        variables = new HashSet<String>(Shapes.variables(shape));
+        variables.addAll(Constants.getBuiltinConstants().keySet());
+        functions = Collections.emptyMap();
+        operators = Collections.emptyMap();
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole bh) {
+        final Tokenizer tokenizer = new Tokenizer(expression, functions, operators, variables);
+        while (tokenizer.hasNext()) {
+            bh.consume(tokenizer.nextToken());
+        }
+    }
+
+    @Benchmark
+    public Token[] convertToRPN() {
+        return ShuntingYard.convertToRPN(expression, functions, operators, variables);
+    }
+
+    @Benchmark
+    public Expression build() {
+        return new ExpressionBuilder(expression)
+                .variables(Shapes.variables(shape))
+                .build();
+    }
+
+    @Benchmark
+    public Expression compile() {
+        return new ExpressionBuilder(expression)
+                .variables(Shapes.variables(shape))
+                .compile();
+    }
+}
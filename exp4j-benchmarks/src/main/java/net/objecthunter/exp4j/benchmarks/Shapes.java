@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The expression shapes used by the benchmarks
+ */
+final class Shapes {
+
+    static final String SHORT = "short";
+    static final String LONG = "long";
+    static final String VARIABLES = "variables";
+    static final String FUNCTIONS = "functions";
+    static final String NESTED = "nested";
+
+    private Shapes() {
+    }
+
+    /**
+     * @param shape the name of the shape
+     * @return the expression string for the shape
+     */
+    static String expression(String shape) {
+        final StringBuilder expression = new StringBuilder();
+        if (shape.equals(SHORT)) {
+            expression.append("x * y + 2");
+        } else if (shape.equals(LONG)) {
+            /* a long chain of cheap operations */
+            expression.append('x');
+            for (int i = 1; i <= 50; i++) {
+                expression.append(" + ").append(i).append(" * x - y / ").append(i + 1);
+            }
+        } else if (shape.equals(VARIABLES)) {
+            /* many distinct variables */
+            expression.append("v0");
+            for (int i = 1; i < 30; i++) {
+                expression.append(i % 2 == 0 ? " + " : " * ").append('v').append(i);
+            }
+        } else if (shape.equals(FUNCTIONS)) {
+            expression.append("sin(x) + cos(y) + log(x + 1) + sqrt(y) + exp(-x) + atan(y) + pow(x, 2) + abs(y)")
+                    .append(" + tanh(x) + cbrt(y) + log10(x + 1) + signum(x - y)");
+        } else if (shape.equals(NESTED)) {
+            /* deeply nested parentheses, this stresses the operand stack */
+            for (int i = 0; i < 40; i++) {
+                expression.append("(x + ");
+            }
+            expression.append('y');
+            for (int i = 0; i < 40; i++) {
+                expression.append(") * (y - ").append(i).append(')');
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown shape '" + shape + "'");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * @param shape the name of the shape
+     * @return the names of the variables used by the shape
+     */
+    static Set<String> variables(String shape) {
+        final Set<String> variables = new LinkedHashSet<String>();
+        if (shape.equals(VARIABLES)) {
+            for (int i = 0; i < 30; i++) {
+                variables.add("v" + i);
+            }
+        } else {
+            variables.add("x");
+            variables.add("y");
+        }
+        return variables;
+    }
+}
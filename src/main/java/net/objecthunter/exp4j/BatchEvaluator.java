@@ -0,0 +1,402 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+/**
+ * Evaluates an expression over columns of values. Instead of dispatching on every token for every row, each token is
+ * executed once per block of rows, so the builtin operators and functions run as tight loops over arrays.
+ */
+final class BatchEvaluator {
+
+    /* the number of rows processed per token dispatch, small enough to keep the blocks in the cache */
+    static final int BLOCK_SIZE = 512;
+
+    private final Token[] tokens;
+
+    /* the code of each operator and function token, Builtins.NONE for custom ones */
+    private final int[] codes;
+
+    private final int maxDepth;
+
+    private BatchEvaluator(Token[] tokens, int[] codes, int maxDepth) {
+        this.tokens = tokens;
+        this.codes = codes;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Prepare the tokens for batch evaluation. The tokens are checked and the depth of the stack is determined once,
+     * so that evaluating a batch only has to check the columns
+     * @param tokens the tokens in reverse polish notation
+     * @return the evaluator
+     * @throws IllegalArgumentException if the expression is not well-formed
+     */
+    static BatchEvaluator compile(final Token[] tokens) {
+        final int[] codes = new int[tokens.length];
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token t = tokens[i];
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                case Token.TOKEN_VARIABLE:
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) t).getOperator();
+                    if (depth < operator.getNumOperands()) {
+                        throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    }
+                    codes[i] = Builtins.code(operator);
+                    depth -= operator.getNumOperands() - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function function = ((FunctionToken) t).getFunction();
+                    if (depth < function.getNumArguments()) {
+                        throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                    }
+                    codes[i] = Builtins.code(function);
+                    depth -= function.getNumArguments() - 1;
+                    break;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        if (depth != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return new BatchEvaluator(tokens, codes, maxDepth);
+    }
+
+    /**
+     * @return the maximum number of values on the stack while evaluating the tokens
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Evaluate the tokens for a range of rows of the columns
+     * @param tokenSlots the variable slot for each token, -1 for tokens which are not variables
+     * @param values the scalar values of the variables, used for slots without a column
+     * @param assigned whether a scalar value has been set for a slot
+     * @param slotNames the variable names indexed by slot
+     * @param columns the columns of values indexed by slot, null entries fall back to the scalar values
+     * @param out the array the results are written to at the indices of the rows
+     * @param from the first row to evaluate
+     * @param to the row after the last row to evaluate
+     * @param context the context providing the stack of blocks and the argument arrays, it is not read otherwise
+     */
+    void evaluate(final int[] tokenSlots, final double[] values, final boolean[] assigned, final String[] slotNames,
+            final double[][] columns, final double[] out, final int from, final int to,
+            final EvaluationContext context) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].getType() != Token.TOKEN_VARIABLE) {
+                continue;
+            }
+            final double[] column = tokenSlots[i] < columns.length ? columns[tokenSlots[i]] : null;
+            if (column == null && !assigned[tokenSlots[i]]) {
+                throw new IllegalArgumentException("No value has been set for the setVariable '" + slotNames[tokenSlots[i]] + "'.");
+            }
+            if (column != null && column.length < to) {
+                throw new IllegalArgumentException("The column for the variable '" + slotNames[tokenSlots[i]] +
+                        "' has only " + column.length + " values but " + to + " are required");
+            }
+        }
+
+        final double[][] stack = context.getBlocks(maxDepth);
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            final int len = Math.min(BLOCK_SIZE, to - start);
+            int sp = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                final Token t = tokens[i];
+                switch (t.getType()) {
+                    case Token.TOKEN_NUMBER:
+                        Arrays.fill(stack[sp++], 0, len, ((NumberToken) t).getValue());
+                        break;
+                    case Token.TOKEN_VARIABLE:
+                        final int slot = tokenSlots[i];
+                        final double[] column = slot < columns.length ? columns[slot] : null;
+                        if (column != null) {
+                            System.arraycopy(column, start, stack[sp++], 0, len);
+                        } else {
+                            Arrays.fill(stack[sp++], 0, len, values[slot]);
+                        }
+                        break;
+                    case Token.TOKEN_OPERATOR:
+                        final Operator operator = ((OperatorToken) t).getOperator();
+                        final int numOperands = operator.getNumOperands();
+                        if (codes[i] == Builtins.NONE) {
+                            applyOperator(operator, stack, sp - numOperands, len, context.getArray(numOperands));
+                        } else if (numOperands == 2) {
+                            applyBinary(codes[i], stack[sp - 2], stack[sp - 1], len);
+                        } else {
+                            applyUnary(codes[i], stack[sp - 1], len);
+                        }
+                        sp -= numOperands - 1;
+                        break;
+                    case Token.TOKEN_FUNCTION:
+                        final Function function = ((FunctionToken) t).getFunction();
+                        final int numArguments = function.getNumArguments();
+                        if (codes[i] == Builtins.NONE) {
+                            applyFunction(function, stack, sp - numArguments, len, context.getArray(numArguments));
+                        } else if (numArguments == 2) {
+                            applyBinary(codes[i], stack[sp - 2], stack[sp - 1], len);
+                        } else {
+                            applyUnary(codes[i], stack[sp - 1], len);
+                        }
+                        sp -= numArguments - 1;
+                        break;
+                }
+            }
+            System.arraycopy(stack[0], 0, out, start, len);
+        }
+    }
+
+    /* the result is stored in the left operand's block */
+    private static void applyBinary(final int code, final double[] a, final double[] b, final int len) {
+        switch (code) {
+            case Builtins.ADD:
+                for (int j = 0; j < len; j++) {
+                    a[j] += b[j];
+                }
+                break;
+            case Builtins.SUBTRACT:
+                for (int j = 0; j < len; j++) {
+                    a[j] -= b[j];
+                }
+                break;
+            case Builtins.MULTIPLY:
+                for (int j = 0; j < len; j++) {
+                    a[j] *= b[j];
+                }
+                break;
+            case Builtins.DIVIDE:
+                checkDivisor(b, len);
+                for (int j = 0; j < len; j++) {
+                    a[j] /= b[j];
+                }
+                break;
+            case Builtins.MODULO:
+                checkDivisor(b, len);
+                for (int j = 0; j < len; j++) {
+                    a[j] %= b[j];
+                }
+                break;
+            case Builtins.POWER:
+            case Builtins.POW:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.pow(a[j], b[j]);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown binary operation " + code);
+        }
+    }
+
+    private static void checkDivisor(final double[] b, final int len) {
+        for (int j = 0; j < len; j++) {
+            if (b[j] == 0d) {
+                throw new ArithmeticException("Division by zero!");
+            }
+        }
+    }
+
+    private static void applyUnary(final int code, final double[] a, final int len) {
+        switch (code) {
+            case Builtins.PLUS:
+                break;
+            case Builtins.NEGATE:
+                for (int j = 0; j < len; j++) {
+                    a[j] = -a[j];
+                }
+                break;
+            case Builtins.SIN:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.sin(a[j]);
+                }
+                break;
+            case Builtins.COS:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.cos(a[j]);
+                }
+                break;
+            case Builtins.TAN:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.tan(a[j]);
+                }
+                break;
+            case Builtins.LOG:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.log(a[j]);
+                }
+                break;
+            case Builtins.LOG2:
+                final double log2 = Math.log(2d);
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.log(a[j]) / log2;
+                }
+                break;
+            case Builtins.LOG10:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.log10(a[j]);
+                }
+                break;
+            case Builtins.LOG1P:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.log1p(a[j]);
+                }
+                break;
+            case Builtins.ABS:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.abs(a[j]);
+                }
+                break;
+            case Builtins.ACOS:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.acos(a[j]);
+                }
+                break;
+            case Builtins.ASIN:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.asin(a[j]);
+                }
+                break;
+            case Builtins.ATAN:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.atan(a[j]);
+                }
+                break;
+            case Builtins.CBRT:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.cbrt(a[j]);
+                }
+                break;
+            case Builtins.CEIL:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.ceil(a[j]);
+                }
+                break;
+            case Builtins.FLOOR:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.floor(a[j]);
+                }
+                break;
+            case Builtins.SINH:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.sinh(a[j]);
+                }
+                break;
+            case Builtins.COSH:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.cosh(a[j]);
+                }
+                break;
+            case Builtins.TANH:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.tanh(a[j]);
+                }
+                break;
+            case Builtins.SQRT:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.sqrt(a[j]);
+                }
+                break;
+            case Builtins.EXP:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.exp(a[j]);
+                }
+                break;
+            case Builtins.EXPM1:
+                for (int j = 0; j < len; j++) {
+                    a[j] = Math.expm1(a[j]);
+                }
+                break;
+            case Builtins.SIGNUM:
+                for (int j = 0; j < len; j++) {
+                    a[j] = a[j] > 0 ? 1 : (a[j] < 0 ? -1 : 0);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown unary operation " + code);
+        }
+    }
+
+    /* custom operators and functions are applied row by row, the result is stored in the first operand's block */
+    private static void applyOperator(final Operator operator, final double[][] stack, final int first, final int len,
+            final double[] args) {
+        final double[] a = stack[first];
+        if (operator instanceof BinaryOperator) {
+            final BinaryOperator binary = (BinaryOperator) operator;
+            final double[] b = stack[first + 1];
+            for (int j = 0; j < len; j++) {
+                a[j] = binary.apply(a[j], b[j]);
+            }
+            return;
+        }
+        if (operator instanceof UnaryOperator) {
+            final UnaryOperator unary = (UnaryOperator) operator;
+            for (int j = 0; j < len; j++) {
+                a[j] = unary.apply(a[j]);
+            }
+            return;
+        }
+        for (int j = 0; j < len; j++) {
+            for (int k = 0; k < args.length; k++) {
+                args[k] = stack[first + k][j];
+            }
+            a[j] = operator.apply(args);
+        }
+    }
+
+    private static void applyFunction(final Function function, final double[][] stack, final int first, final int len,
+            final double[] args) {
+        final double[] a = stack[first];
+        if (function instanceof Function1) {
+            final Function1 f = (Function1) function;
+            for (int j = 0; j < len; j++) {
+                a[j] = f.apply(a[j]);
+            }
+            return;
+        }
+        if (function instanceof Function2) {
+            final Function2 f = (Function2) function;
+            final double[] b = stack[first + 1];
+            for (int j = 0; j < len; j++) {
+                a[j] = f.apply(a[j], b[j]);
+            }
+            return;
+        }
+        for (int j = 0; j < len; j++) {
+            for (int k = 0; k < args.length; k++) {
+                args[k] = stack[first + k][j];
+            }
+            a[j] = function.apply(args);
+        }
+    }
+}
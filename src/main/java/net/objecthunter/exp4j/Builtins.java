@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * The codes of the builtin operators and functions, the single table the evaluators and compilers dispatch on instead
+ * of comparing symbols or names. Operators are coded by their index in {@link Operators}, functions by their index in
+ * {@link Functions} following the operators. The codes from {@link #NUM_CODES} on are free for the instructions of
+ * the evaluators themselves.
+ */
+final class Builtins {
+
+    static final int NONE = -1;
+
+    static final int ADD = Operators.INDEX_ADDITION;
+    static final int SUBTRACT = Operators.INDEX_SUBTRACTION;
+    static final int MULTIPLY = Operators.INDEX_MULTIPLICATION;
+    static final int DIVIDE = Operators.INDEX_DIVISION;
+    static final int MODULO = Operators.INDEX_MODULO;
+    static final int POWER = Operators.INDEX_POWER;
+    static final int NEGATE = Operators.INDEX_UNARYMINUS;
+    static final int PLUS = Operators.INDEX_UNARYPLUS;
+
+    private static final int FUNCTIONS = Operators.NUM_BUILTIN_OPERATORS;
+
+    static final int SIN = FUNCTIONS + Functions.INDEX_SIN;
+    static final int COS = FUNCTIONS + Functions.INDEX_COS;
+    static final int TAN = FUNCTIONS + Functions.INDEX_TAN;
+    static final int LOG = FUNCTIONS + Functions.INDEX_LOG;
+    static final int LOG1P = FUNCTIONS + Functions.INDEX_LOG1P;
+    static final int ABS = FUNCTIONS + Functions.INDEX_ABS;
+    static final int ACOS = FUNCTIONS + Functions.INDEX_ACOS;
+    static final int ASIN = FUNCTIONS + Functions.INDEX_ASIN;
+    static final int ATAN = FUNCTIONS + Functions.INDEX_ATAN;
+    static final int CBRT = FUNCTIONS + Functions.INDEX_CBRT;
+    static final int CEIL = FUNCTIONS + Functions.INDEX_CEIL;
+    static final int FLOOR = FUNCTIONS + Functions.INDEX_FLOOR;
+    static final int SINH = FUNCTIONS + Functions.INDEX_SINH;
+    static final int SQRT = FUNCTIONS + Functions.INDEX_SQRT;
+    static final int TANH = FUNCTIONS + Functions.INDEX_TANH;
+    static final int COSH = FUNCTIONS + Functions.INDEX_COSH;
+    static final int POW = FUNCTIONS + Functions.INDEX_POW;
+    static final int EXP = FUNCTIONS + Functions.INDEX_EXP;
+    static final int EXPM1 = FUNCTIONS + Functions.INDEX_EXPM1;
+    static final int LOG10 = FUNCTIONS + Functions.INDEX_LOG10;
+    static final int LOG2 = FUNCTIONS + Functions.INDEX_LOG2;
+    static final int SIGNUM = FUNCTIONS + Functions.INDEX_SGN;
+
+    static final int NUM_CODES = FUNCTIONS + Functions.NUM_BUILTIN_FUNCTIONS;
+
+    private Builtins() {
+    }
+
+    /**
+     * @param operator the operator
+     * @return the code of a builtin operator, {@link #NONE} for custom operators
+     */
+    static int code(final Operator operator) {
+        return Operators.getBuiltinIndex(operator);
+    }
+
+    /**
+     * @param function the function
+     * @return the code of a builtin function, {@link #NONE} for custom functions
+     */
+    static int code(final Function function) {
+        final int index = Functions.getBuiltinIndex(function);
+        return index < 0 ? NONE : FUNCTIONS + index;
+    }
+}
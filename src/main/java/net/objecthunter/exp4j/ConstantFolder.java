@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Optimization pass over the tokens produced by the shunting yard. Sub expressions which only consist of numbers,
+ * constants and deterministic functions and operators are replaced by their value, and identities which do not
+ * change the result (x*1, 1*x, x/1, x+(-0), (-0)+x, x-0 and unary plus) are removed. Adding a positive zero is no
+ * identity since -0 + 0 is +0.
+ */
+final class ConstantFolder {
+
+    /* the folded tokens, removed ones are set to null so that the start of the operands stays valid */
+    private final List<Token> output;
+
+    private int removed = 0;
+
+    private final List<Operand> operands = new ArrayList<Operand>();
+
+    private ConstantFolder(int size) {
+        this.output = new ArrayList<Token>(size);
+    }
+
+    /**
+     * Fold the constant parts of an expression
+     * @param tokens the tokens in reverse polish notation
+     * @param constants the values of variables which should be treated as constants
+     * @return the folded tokens. If the expression is not well-formed the tokens are returned unchanged, so that the
+     *         errors are reported by {@link Expression#validate()} and {@link Expression#evaluate()} as usual
+     */
+    static Token[] fold(final Token[] tokens, final Map<String, Double> constants) {
+        final ConstantFolder folder = new ConstantFolder(tokens.length);
+        for (final Token t : tokens) {
+            final boolean wellFormed;
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    folder.pushConstant(((NumberToken) t).getValue(), t);
+                    wellFormed = true;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final Double constant = constants.get(((VariableToken) t).getName());
+                    if (constant != null) {
+                        folder.pushConstant(constant, null);
+                    } else {
+                        folder.push(t);
+                    }
+                    wellFormed = true;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    wellFormed = folder.operator((OperatorToken) t);
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    wellFormed = folder.function((FunctionToken) t);
+                    break;
+                default:
+                    wellFormed = false;
+            }
+            if (!wellFormed) {
+                return tokens;
+            }
+        }
+        if (folder.operands.size() != 1) {
+            return tokens;
+        }
+        return folder.result();
+    }
+
+    private Token[] result() {
+        final Token[] result = new Token[output.size() - removed];
+        int i = 0;
+        for (Token t : output) {
+            if (t != null) {
+                result[i++] = t;
+            }
+        }
+        return result;
+    }
+
+    private void push(Token t) {
+        operands.add(new Operand(output.size(), false, 0d));
+        output.add(t);
+    }
+
+    private void pushConstant(double value, Token t) {
+        operands.add(new Operand(output.size(), true, value));
+        output.add(t != null ? t : new NumberToken(value));
+    }
+
+    private boolean operator(final OperatorToken t) {
+        final Operator operator = t.getOperator();
+        final int numOperands = operator.getNumOperands();
+        if (operands.size() < numOperands) {
+            return false;
+        }
+        if (operator.isDeterministic() && foldConstants(numOperands, operator, null)) {
+            return true;
+        }
+        final int builtin = Builtins.code(operator);
+        if (builtin == Builtins.PLUS) {
+            /* unary plus does not change the operand */
+            return true;
+        }
+        if (builtin != Builtins.NONE && numOperands == 2 && removeIdentity(builtin)) {
+            return true;
+        }
+        apply(numOperands, t);
+        return true;
+    }
+
+    private boolean function(final FunctionToken t) {
+        final Function function = t.getFunction();
+        final int numArguments = function.getNumArguments();
+        if (operands.size() < numArguments) {
+            return false;
+        }
+        if (!function.isDeterministic() || !foldConstants(numArguments, null, function)) {
+            apply(numArguments, t);
+        }
+        return true;
+    }
+
+    private boolean foldConstants(final int numArgs, final Operator operator, final Function function) {
+        final double[] args = new double[numArgs];
+        final int first = operands.size() - numArgs;
+        for (int i = 0; i < numArgs; i++) {
+            final Operand o = operands.get(first + i);
+            if (!o.constant) {
+                return false;
+            }
+            args[i] = o.value;
+        }
+        final double value;
+        try {
+            value = operator != null ? operator.apply(args) : function.apply(args);
+        } catch (RuntimeException e) {
+            /* leave it to the evaluation to report e.g. a division by zero */
+            return false;
+        }
+        final int start = numArgs > 0 ? operands.get(first).start : output.size();
+        removeOperands(numArgs);
+        truncate(start);
+        pushConstant(value, null);
+        return true;
+    }
+
+    /* checks the operands of a builtin binary operator for an identity element and drops it and the operator */
+    private boolean removeIdentity(final int builtin) {
+        final Operand left = operands.get(operands.size() - 2);
+        final Operand right = operands.get(operands.size() - 1);
+        final boolean rightIdentity;
+        final boolean leftIdentity;
+        switch (builtin) {
+            case Builtins.MULTIPLY:
+                rightIdentity = isConstant(right, 1d);
+                leftIdentity = isConstant(left, 1d);
+                break;
+            case Builtins.DIVIDE:
+                rightIdentity = isConstant(right, 1d);
+                leftIdentity = false;
+                break;
+            case Builtins.ADD:
+                /* only -0 is an identity, x + 0 turns -0 into +0 */
+                rightIdentity = isConstant(right, -0d);
+                leftIdentity = isConstant(left, -0d);
+                break;
+            case Builtins.SUBTRACT:
+                /* x - 0 is x + (-0) */
+                rightIdentity = isConstant(right, 0d);
+                leftIdentity = false;
+                break;
+            default:
+                return false;
+        }
+        if (rightIdentity) {
+            /* a constant operand is a single number token */
+            truncate(right.start);
+            operands.remove(operands.size() - 1);
+            return true;
+        }
+        if (leftIdentity) {
+            /* removing it from the middle of the list would shift the tokens of the right operand */
+            output.set(left.start, null);
+            removed++;
+            operands.remove(operands.size() - 2);
+            right.start = left.start;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isConstant(Operand o, double value) {
+        /* compare the bits to tell -0 and +0 apart */
+        return o.constant && Double.doubleToRawLongBits(o.value) == Double.doubleToRawLongBits(value);
+    }
+
+    private void apply(final int numArgs, final Token t) {
+        final int start = numArgs > 0 ? operands.get(operands.size() - numArgs).start : output.size();
+        removeOperands(numArgs);
+        operands.add(new Operand(start, false, 0d));
+        output.add(t);
+    }
+
+    private void removeOperands(int count) {
+        for (int i = 0; i < count; i++) {
+            operands.remove(operands.size() - 1);
+        }
+    }
+
+    private void truncate(int size) {
+        while (output.size() > size) {
+            if (output.remove(output.size() - 1) == null) {
+                removed--;
+            }
+        }
+    }
+
+    /**
+     * A value on the simulated operand stack, it was produced by the tokens starting at {@link #start}
+     */
+    private static final class Operand {
+        int start;
+        final boolean constant;
+        final double value;
+
+        Operand(int start, boolean constant, double value) {
+            this.start = start;
+            this.constant = constant;
+            this.value = value;
+        }
+    }
+}
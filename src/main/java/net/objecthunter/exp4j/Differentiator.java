@@ -0,0 +1,352 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.objecthunter.exp4j.ast.AstBuilder;
+import net.objecthunter.exp4j.ast.BinaryOperatorNode;
+import net.objecthunter.exp4j.ast.FunctionNode;
+import net.objecthunter.exp4j.ast.Node;
+import net.objecthunter.exp4j.ast.NumberNode;
+import net.objecthunter.exp4j.ast.UnaryOperatorNode;
+import net.objecthunter.exp4j.ast.VariableNode;
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * Symbolic differentiation of abstract syntax trees. The derivative is simplified while it is built: numbers are
+ * folded and additions of zero, multiplications by zero and one and the like are removed. The nodes are differentiated
+ * in post order with the derivatives of the operands kept on a stack, so trees of any depth can be differentiated.
+ */
+final class Differentiator {
+
+    private static final NumberNode ZERO = new NumberNode(0d);
+
+    private static final NumberNode ONE = new NumberNode(1d);
+
+    /* the operators the derivatives are built from */
+    private static final Operator ADD = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACT = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLY = Operators.getBuiltinOperator('*', 2);
+    private static final Operator DIVIDE = Operators.getBuiltinOperator('/', 2);
+    private static final Operator POWER = Operators.getBuiltinOperator('^', 2);
+    private static final Operator NEGATE = Operators.getBuiltinOperator('-', 1);
+
+    private Differentiator() {
+    }
+
+    /**
+     * Differentiate a tree
+     * @param root the root of the tree
+     * @param variable the name of the variable to differentiate with respect to
+     * @return the root of the derivative's tree
+     * @throws IllegalArgumentException if the tree contains a custom function or operator which does not implement
+     *         {@link Differentiable} and whose arguments depend on the variable
+     */
+    static Node differentiate(Node root, String variable) {
+        final List<Node> derivatives = new ArrayList<Node>();
+        for (Node node : AstBuilder.postOrder(root)) {
+            final Node derivative;
+            if (node instanceof NumberNode) {
+                derivative = ZERO;
+            } else if (node instanceof VariableNode) {
+                derivative = ((VariableNode) node).getName().equals(variable) ? ONE : ZERO;
+            } else if (node instanceof UnaryOperatorNode) {
+                derivative = differentiate((UnaryOperatorNode) node, pop(derivatives));
+            } else if (node instanceof BinaryOperatorNode) {
+                final Node dv = pop(derivatives);
+                derivative = differentiate((BinaryOperatorNode) node, pop(derivatives), dv);
+            } else {
+                final FunctionNode function = (FunctionNode) node;
+                final Node[] dargs = new Node[function.getNumArguments()];
+                for (int i = dargs.length - 1; i >= 0; i--) {
+                    dargs[i] = pop(derivatives);
+                }
+                derivative = differentiate(function, dargs);
+            }
+            derivatives.add(derivative);
+        }
+        return derivatives.get(0);
+    }
+
+    private static Node pop(List<Node> stack) {
+        return stack.remove(stack.size() - 1);
+    }
+
+    private static Node differentiate(UnaryOperatorNode node, Node du) {
+        final Operator operator = node.getOperator();
+        final Node u = node.getOperand();
+        switch (Builtins.code(operator)) {
+            case Builtins.NEGATE:
+                return negate(du);
+            case Builtins.PLUS:
+                return du;
+            default:
+                break;
+        }
+        return chain(operator, operator.getSymbol(), new Node[] {u}, new Node[] {du});
+    }
+
+    private static Node differentiate(BinaryOperatorNode node, Node du, Node dv) {
+        final Operator operator = node.getOperator();
+        final Node u = node.getLeft();
+        final Node v = node.getRight();
+        switch (Builtins.code(operator)) {
+            case Builtins.ADD:
+                return add(du, dv);
+            case Builtins.SUBTRACT:
+                return subtract(du, dv);
+            case Builtins.MULTIPLY:
+                return add(multiply(du, v), multiply(u, dv));
+            case Builtins.DIVIDE:
+                /* (u'v - uv') / v^2 */
+                return divide(subtract(multiply(du, v), multiply(u, dv)), power(v, new NumberNode(2d)));
+            case Builtins.MODULO:
+                /* u % v = u - v * trunc(u / v), where the derivative of trunc is zero almost everywhere */
+                if (isZero(dv)) {
+                    return du;
+                }
+                final Node quotient = divide(u, v);
+                final Node trunc = multiply(function("signum", quotient),
+                        function("floor", function("abs", quotient)));
+                return subtract(du, multiply(dv, trunc));
+            case Builtins.POWER:
+                return differentiatePower(u, v, du, dv);
+            default:
+                break;
+        }
+        return chain(operator, operator.getSymbol(), new Node[] {u, v}, new Node[] {du, dv});
+    }
+
+    private static Node differentiate(FunctionNode node, Node[] dargs) {
+        final Function f = node.getFunction();
+        final Node[] args = node.getArguments().toArray(new Node[node.getNumArguments()]);
+        boolean constant = true;
+        for (int i = 0; i < args.length; i++) {
+            constant &= isZero(dargs[i]);
+        }
+        if (constant) {
+            return ZERO;
+        }
+        final int code = Builtins.code(f);
+        if (code == Builtins.NONE) {
+            return chain(f, f.getName(), args, dargs);
+        }
+        if (code == Builtins.POW) {
+            return differentiatePower(args[0], args[1], dargs[0], dargs[1]);
+        }
+        final Node u = args[0];
+        final Node du = dargs[0];
+        final Node outer;
+        switch (code) {
+            case Builtins.SIN:
+                outer = function("cos", u);
+                break;
+            case Builtins.COS:
+                outer = negate(function("sin", u));
+                break;
+            case Builtins.TAN:
+                outer = divide(ONE, power(function("cos", u), new NumberNode(2d)));
+                break;
+            case Builtins.ASIN:
+                outer = divide(ONE, function("sqrt", subtract(ONE, power(u, new NumberNode(2d)))));
+                break;
+            case Builtins.ACOS:
+                outer = negate(divide(ONE, function("sqrt", subtract(ONE, power(u, new NumberNode(2d))))));
+                break;
+            case Builtins.ATAN:
+                outer = divide(ONE, add(ONE, power(u, new NumberNode(2d))));
+                break;
+            case Builtins.SINH:
+                outer = function("cosh", u);
+                break;
+            case Builtins.COSH:
+                outer = function("sinh", u);
+                break;
+            case Builtins.TANH:
+                outer = subtract(ONE, power(function("tanh", u), new NumberNode(2d)));
+                break;
+            case Builtins.ABS:
+                outer = function("signum", u);
+                break;
+            case Builtins.LOG:
+                outer = divide(ONE, u);
+                break;
+            case Builtins.LOG10:
+                outer = divide(ONE, multiply(u, new NumberNode(Math.log(10d))));
+                break;
+            case Builtins.LOG2:
+                outer = divide(ONE, multiply(u, new NumberNode(Math.log(2d))));
+                break;
+            case Builtins.LOG1P:
+                outer = divide(ONE, add(ONE, u));
+                break;
+            case Builtins.EXP:
+            case Builtins.EXPM1:
+                outer = function("exp", u);
+                break;
+            case Builtins.SQRT:
+                outer = divide(ONE, multiply(new NumberNode(2d), function("sqrt", u)));
+                break;
+            case Builtins.CBRT:
+                outer = divide(ONE, multiply(new NumberNode(3d), power(function("cbrt", u), new NumberNode(2d))));
+                break;
+            case Builtins.FLOOR:
+            case Builtins.CEIL:
+            case Builtins.SIGNUM:
+                /* piecewise constant, the derivative is zero almost everywhere */
+                return ZERO;
+            default:
+                throw new IllegalArgumentException("Unable to differentiate the function '" + f.getName() + "'");
+        }
+        return multiply(outer, du);
+    }
+
+    private static Node differentiatePower(Node u, Node v, Node du, Node dv) {
+        if (isZero(dv)) {
+            /* v * u^(v-1) * u' */
+            return multiply(multiply(v, power(u, subtract(v, ONE))), du);
+        }
+        if (isZero(du)) {
+            /* u^v * log(u) * v' */
+            return multiply(multiply(power(u, v), function("log", u)), dv);
+        }
+        /* u^v * (v' * log(u) + v * u' / u) */
+        return multiply(power(u, v), add(multiply(dv, function("log", u)), divide(multiply(v, du), u)));
+    }
+
+    /* the chain rule for custom functions and operators: sum of partial derivative times inner derivative */
+    private static Node chain(Object callable, String name, Node[] args, Node[] dargs) {
+        boolean constant = true;
+        for (Node d : dargs) {
+            constant &= isZero(d);
+        }
+        if (constant) {
+            return ZERO;
+        }
+        if (!(callable instanceof Differentiable)) {
+            throw new IllegalArgumentException("Unable to differentiate '" + name + "' since it does not implement " +
+                    Differentiable.class.getSimpleName());
+        }
+        Node sum = ZERO;
+        for (int i = 0; i < args.length; i++) {
+            if (!isZero(dargs[i])) {
+                final Function partial = ((Differentiable) callable).getPartialDerivative(i);
+                sum = add(sum, multiply(new FunctionNode(partial, args), dargs[i]));
+            }
+        }
+        return sum;
+    }
+
+    private static boolean isZero(Node n) {
+        return n instanceof NumberNode && ((NumberNode) n).getValue() == 0d;
+    }
+
+    private static boolean isOne(Node n) {
+        return n instanceof NumberNode && ((NumberNode) n).getValue() == 1d;
+    }
+
+    private static Node function(String name, Node argument) {
+        final Function f = Functions.getBuiltinFunction(name);
+        if (argument instanceof NumberNode && f.isDeterministic()) {
+            return new NumberNode(f.apply(((NumberNode) argument).getValue()));
+        }
+        return new FunctionNode(f, argument);
+    }
+
+    private static Node add(Node a, Node b) {
+        if (isZero(a)) {
+            return b;
+        }
+        if (isZero(b)) {
+            return a;
+        }
+        if (a instanceof NumberNode && b instanceof NumberNode) {
+            return new NumberNode(((NumberNode) a).getValue() + ((NumberNode) b).getValue());
+        }
+        return new BinaryOperatorNode(ADD, a, b);
+    }
+
+    private static Node subtract(Node a, Node b) {
+        if (isZero(b)) {
+            return a;
+        }
+        if (isZero(a)) {
+            return negate(b);
+        }
+        if (a instanceof NumberNode && b instanceof NumberNode) {
+            return new NumberNode(((NumberNode) a).getValue() - ((NumberNode) b).getValue());
+        }
+        return new BinaryOperatorNode(SUBTRACT, a, b);
+    }
+
+    private static Node multiply(Node a, Node b) {
+        if (isZero(a) || isZero(b)) {
+            return ZERO;
+        }
+        if (isOne(a)) {
+            return b;
+        }
+        if (isOne(b)) {
+            return a;
+        }
+        if (a instanceof NumberNode && b instanceof NumberNode) {
+            return new NumberNode(((NumberNode) a).getValue() * ((NumberNode) b).getValue());
+        }
+        return new BinaryOperatorNode(MULTIPLY, a, b);
+    }
+
+    private static Node divide(Node a, Node b) {
+        if (isOne(b)) {
+            return a;
+        }
+        if (isZero(a) && !isZero(b)) {
+            return ZERO;
+        }
+        if (a instanceof NumberNode && b instanceof NumberNode && !isZero(b)) {
+            return new NumberNode(((NumberNode) a).getValue() / ((NumberNode) b).getValue());
+        }
+        return new BinaryOperatorNode(DIVIDE, a, b);
+    }
+
+    private static Node power(Node a, Node b) {
+        if (isZero(b)) {
+            return ONE;
+        }
+        if (isOne(b)) {
+            return a;
+        }
+        if (a instanceof NumberNode && b instanceof NumberNode) {
+            return new NumberNode(Math.pow(((NumberNode) a).getValue(), ((NumberNode) b).getValue()));
+        }
+        return new BinaryOperatorNode(POWER, a, b);
+    }
+
+    private static Node negate(Node a) {
+        if (a instanceof NumberNode) {
+            return new NumberNode(-((NumberNode) a).getValue());
+        }
+        if (a instanceof UnaryOperatorNode && ((UnaryOperatorNode) a).getOperator() == NEGATE) {
+            return ((UnaryOperatorNode) a).getOperand();
+        }
+        return new UnaryOperatorNode(NEGATE, a);
+    }
+}
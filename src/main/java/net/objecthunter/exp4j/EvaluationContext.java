@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import net.objecthunter.exp4j.constant.Constants;
+
+/**
+ * The mutable state needed for evaluating an {@link Expression} or an {@link ExpressionSet}: the variable values and
+ * the operand stack. The parsed expressions themselves are immutable, so a single {@link Expression} can be evaluated
+ * concurrently by giving each thread its own context created via {@link Expression#newContext()}. A context must not
+ * be shared between threads.
+ */
+public final class EvaluationContext {
+
+    final VariableSlots variables;
+
+    /* the program whose cached values are invalidated by changed variables, null unless evaluating incrementally */
+    private final IncrementalProgram incrementalProgram;
+
+    final double[] values;
+
+    final boolean[] assigned;
+
+    final ArrayStack stack = new ArrayStack();
+
+    // cached arrays, should be accessed through #getArray() method. Idea is to avoid too many array allocations when
+    // f.e. expression is evaluated in a loop. Larger sizes are added on first use
+    private double[][] arrays = new double[4][];
+
+    {
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new double[i];
+        }
+    }
+
+    /* the values of the nodes when evaluating with common subexpression elimination */
+    private double[] registers;
+
+    /* the stack of blocks of rows when evaluating batches */
+    private double[][] blocks;
+
+    /* the operand stack, the derivatives of the operands, the partial derivatives of the operations and the adjoints
+     * when evaluating gradients */
+    private double[] operands;
+
+    private double[] tangents;
+
+    private double[] partials;
+
+    private double[] adjoints;
+
+    /* the values of the instructions of the previous incremental evaluation, the instructions which have to be
+     * recomputed and the first of them. null until the first incremental evaluation */
+    private double[] nodeValues;
+
+    private boolean[] stale;
+
+    private int firstStale;
+
+    /* creates a context with the builtin constants set */
+    EvaluationContext(final VariableSlots variables, final IncrementalProgram incrementalProgram) {
+        this.variables = variables;
+        this.incrementalProgram = incrementalProgram;
+        this.values = new double[variables.size()];
+        this.assigned = new boolean[variables.size()];
+        for (Map.Entry<String, Double> constant : Constants.getBuiltinConstants().entrySet()) {
+            setVariable(constant.getKey(), constant.getValue());
+        }
+    }
+
+    EvaluationContext(final EvaluationContext existing) {
+        this.variables = existing.variables;
+        this.incrementalProgram = existing.incrementalProgram;
+        this.values = existing.values.clone();
+        this.assigned = existing.assigned.clone();
+    }
+
+    /**
+     * Set the value of a variable using its slot
+     * @param slot the slot of the variable as returned by {@link Expression#slotOf(String)} or
+     *             {@link ExpressionSet#slotOf(String)}
+     * @param value the value of the variable
+     * @return the EvaluationContext instance
+     */
+    public EvaluationContext setVariable(final int slot, final double value) {
+        if (stale != null && (!assigned[slot]
+                || Double.doubleToRawLongBits(values[slot]) != Double.doubleToRawLongBits(value))) {
+            /* only a changed value invalidates the cached values depending on the variable */
+            firstStale = Math.min(firstStale, incrementalProgram.invalidate(slot, stale));
+        }
+        this.values[slot] = value;
+        this.assigned[slot] = true;
+        return this;
+    }
+
+    /**
+     * Set the value of a variable
+     * @param name the name of the variable
+     * @param value the value of the variable
+     * @return the EvaluationContext instance
+     */
+    public EvaluationContext setVariable(final String name, final double value) {
+        final int slot = variables.findSlot(name);
+        if (slot != -1) {
+            setVariable(slot, value);
+        }
+        return this;
+    }
+
+    double[] getRegisters(int size) {
+        if (registers == null || registers.length < size) {
+            registers = new double[size];
+        }
+        return registers;
+    }
+
+    double[][] getBlocks(int depth) {
+        if (blocks == null || blocks.length < depth) {
+            blocks = new double[depth][BatchEvaluator.BLOCK_SIZE];
+        }
+        return blocks;
+    }
+
+    double[] getOperands(int size) {
+        if (operands == null || operands.length < size) {
+            operands = new double[size];
+        }
+        return operands;
+    }
+
+    double[] getTangents(int size) {
+        if (tangents == null || tangents.length < size) {
+            tangents = new double[size];
+        }
+        return tangents;
+    }
+
+    double[] getPartials(int size) {
+        if (partials == null || partials.length < size) {
+            partials = new double[size];
+        }
+        return partials;
+    }
+
+    double[] getAdjoints(int size) {
+        if (adjoints == null || adjoints.length < size) {
+            adjoints = new double[size];
+        }
+        return adjoints;
+    }
+
+    double[] getNodeValues(int size) {
+        if (nodeValues == null) {
+            nodeValues = new double[size];
+            stale = new boolean[size];
+            Arrays.fill(stale, true);
+            firstStale = 0;
+        }
+        return nodeValues;
+    }
+
+    boolean[] getStale() {
+        return stale;
+    }
+
+    int getFirstStale() {
+        return firstStale;
+    }
+
+    void setFirstStale(int firstStale) {
+        this.firstStale = firstStale;
+    }
+
+    double[] getArray(int size) {
+        if (size >= arrays.length) {
+            arrays = Arrays.copyOf(arrays, size + 1);
+        }
+        if (arrays[size] == null) {
+            arrays[size] = new double[size];
+        }
+        return arrays[size];
+    }
+}
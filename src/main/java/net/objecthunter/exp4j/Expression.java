@@ -15,36 +15,80 @@
  */
 package net.objecthunter.exp4j;
 
-import net.objecthunter.exp4j.constant.Constants;
+import net.objecthunter.exp4j.ast.AstBuilder;
+import net.objecthunter.exp4j.ast.Node;
+import net.objecthunter.exp4j.bytecode.BytecodeCompiler;
+import net.objecthunter.exp4j.bytecode.BytecodeEvaluator;
+import net.objecthunter.exp4j.function.Differentiable;
 import net.objecthunter.exp4j.function.Function;
-import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.metrics.EvaluationListener;
+import net.objecthunter.exp4j.operator.BinaryOperator;
 import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperator;
 import net.objecthunter.exp4j.tokenizer.*;
 
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 public class Expression {
 
+    /* the minimum number of rows evaluated by a task of a parallel evaluation, so that scheduling does not dominate */
+    private static final int MIN_PARALLEL_ROWS = 8 * BatchEvaluator.BLOCK_SIZE;
+
+    /* gradients of expressions with more variables are computed in reverse mode */
+    private static final int FORWARD_MODE_MAX_VARIABLES = 2;
+
     private final Token[] tokens;
 
-    private final Map<String, VariableValue> variables = new HashMap<String, VariableValue>();
+    /* the slot of each variable token's value, -1 for all other tokens */
+    private final int[] tokenSlots;
 
-    private final Set<String> userFunctionNames;
+    /* the slots of the variables used in the expression, each slot occurs only once */
+    private final int[] usedSlots;
 
-    private final ArrayStack stack = new ArrayStack();
+    private final VariableSlots variables;
 
-    // cached arrays, should be accessed through #getArray() method. Idea is to avoid too many array allocations when
-    // f.e. expression is evaluated in a loop
-    private final double[][] arrays = new double[4][];
+    /* the bytecode compiled form of the tokens, null if the expression is interpreted */
+    private final BytecodeEvaluator evaluator;
 
-    {
-        for (int i = 0; i < arrays.length; i++) {
-            arrays[i] = new double[i];
-        }
-    }
+    /* the tokens with repeated sub expressions merged, null if common subexpression elimination is disabled or
+     * there are no repeated sub expressions */
+    private final ExpressionGraph graph;
+
+    /* whether common subexpression elimination has been requested, even if the graph turned out not to pay off */
+    private final boolean eliminateCommonSubexpressions;
+
+    /* the register based form of the abstract syntax tree used for interpreted evaluation, null if the tokens do not
+     * form a well-formed expression or if a compiled form or a graph is used */
+    private final RegisterProgram program;
+
+    /* the form of the tokens keeping the values of their sub expressions between evaluations, null unless the
+     * expression is evaluated incrementally */
+    private final IncrementalProgram incrementalProgram;
+
+    /* the abstract syntax tree, built along with the register program or else on first use */
+    private volatile Node ast;
+
+    /* the tokens prepared for evaluating batches of rows, which also knows the maximum depth of the stack. Prepared
+     * on first use like the gradient program */
+    private volatile BatchEvaluator batch;
+
+    /* the form of the tokens used for computing gradients, prepared on first use. The program's arrays are filled
+     * after its construction, so it has to be published through a volatile field to be seen completely by other
+     * threads. Concurrent first uses may prepare it twice, each using a complete program */
+    private volatile GradientProgram gradientProgram;
+
+    /* notified about evaluations, NONE unless instrumentation has been requested. Volatile since it may be replaced
+     * while other threads evaluate the expression, each evaluation reads it once */
+    private volatile EvaluationListener listener = EvaluationListener.NONE;
+
+    /* the context used by the methods which do not take an explicit context */
+    private final EvaluationContext context;
 
     /**
      * Creates a new expression that is a copy of the existing one.
@@ -52,31 +96,220 @@ public class Expression {
      * @param existing the expression to copy
      */
     public Expression(final Expression existing) {
-        this.tokens = Arrays.copyOf(existing.tokens, existing.tokens.length);
-        this.userFunctionNames = new HashSet<String>(existing.userFunctionNames);
-        this.variables.putAll(existing.variables);
+        this.tokens = existing.tokens;
+        this.tokenSlots = existing.tokenSlots;
+        this.usedSlots = existing.usedSlots;
+        this.variables = existing.variables;
+        this.evaluator = existing.evaluator;
+        this.graph = existing.graph;
+        this.eliminateCommonSubexpressions = existing.eliminateCommonSubexpressions;
+        this.ast = existing.ast;
+        this.program = existing.program;
+        this.incrementalProgram = existing.incrementalProgram;
+        this.listener = existing.listener;
+        this.batch = existing.batch;
+        this.gradientProgram = existing.gradientProgram;
+        this.context = new EvaluationContext(existing.context);
     }
 
     Expression(final Token[] tokens) {
-        this.tokens = tokens;
-        this.userFunctionNames = Collections.emptySet();
-        setVariables(Constants.getBuiltinConstants());
+        this(tokens, Collections.<String>emptySet());
     }
 
     Expression(final Token[] tokens, Set<String> userFunctionNames) {
+        this(tokens, userFunctionNames, Collections.<String>emptySet(), false);
+    }
+
+    Expression(final Token[] tokens, Set<String> userFunctionNames, Set<String> variableNames, boolean compile) {
+        this(tokens, userFunctionNames, variableNames, compile, false);
+    }
+
+    Expression(final Token[] tokens, Set<String> userFunctionNames, Set<String> variableNames, boolean compile,
+            boolean eliminateCommonSubexpressions) {
+        this(tokens, userFunctionNames, variableNames, compile, eliminateCommonSubexpressions, false);
+    }
+
+    Expression(final Token[] tokens, Set<String> userFunctionNames, Set<String> variableNames, boolean compile,
+            boolean eliminateCommonSubexpressions, boolean incremental) {
+        this(tokens, null, userFunctionNames, variableNames, compile, eliminateCommonSubexpressions, incremental);
+    }
+
+    /* the tree, if given, has to compute the same as the tokens. Its shared nodes are computed once by the program */
+    private Expression(final Token[] tokens, final Node root, Set<String> userFunctionNames, Set<String> variableNames,
+            boolean compile, boolean eliminateCommonSubexpressions, boolean incremental) {
         this.tokens = tokens;
-        this.userFunctionNames = userFunctionNames;
-        setVariables(Constants.getBuiltinConstants());
+        this.eliminateCommonSubexpressions = eliminateCommonSubexpressions;
+        /* resolve the variable names to slots once, so that evaluation works on a plain array */
+        this.variables = new VariableSlots(new Token[][] {tokens}, variableNames, userFunctionNames);
+        final Map<String, Integer> slots = variables.slots;
+        this.tokenSlots = new int[tokens.length];
+        final List<Integer> used = new ArrayList<Integer>();
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].getType() == Token.TOKEN_VARIABLE) {
+                final int slot = slots.get(((VariableToken) tokens[i]).getName());
+                if (!used.contains(slot)) {
+                    used.add(slot);
+                }
+                tokenSlots[i] = slot;
+            } else {
+                tokenSlots[i] = -1;
+            }
+        }
+        this.usedSlots = new int[used.size()];
+        for (int i = 0; i < usedSlots.length; i++) {
+            usedSlots[i] = used.get(i);
+        }
+        /* only the form used by evaluate() is prepared here, the others are prepared on first use */
+        this.evaluator = compile ? BytecodeCompiler.compile(tokens, slots) : null;
+        this.incrementalProgram = !compile && incremental ? buildIncrementalProgram(tokens, slots) : null;
+        this.graph = !compile && incrementalProgram == null && eliminateCommonSubexpressions
+                ? buildGraph(tokens, slots) : null;
+        if (!compile && graph == null && incrementalProgram == null) {
+            this.ast = root != null ? root : buildAst(tokens);
+            this.program = ast != null ? buildProgram(ast, slots) : null;
+        } else {
+            this.program = null;
+        }
+        this.context = new EvaluationContext(variables, incrementalProgram);
     }
 
-    public Expression setVariable(final String name, final double value) {
-        this.checkVariableName(name);
-        VariableValue variableValue = this.variables.get(name);
-        if (variableValue == null) {
-            variableValue = new VariableValue();
-            this.variables.put(name, variableValue);
+    private static IncrementalProgram buildIncrementalProgram(final Token[] tokens, final Map<String, Integer> slots) {
+        try {
+            return IncrementalProgram.compile(tokens, slots);
+        } catch (IllegalArgumentException e) {
+            /* malformed expressions are reported by validate() and evaluate() as usual */
+            return null;
+        }
+    }
+
+    private static Node buildAst(final Token[] tokens) {
+        try {
+            return AstBuilder.build(tokens);
+        } catch (IllegalArgumentException e) {
+            /* malformed expressions are reported by validate() and evaluate() as usual */
+            return null;
+        }
+    }
+
+    private static RegisterProgram buildProgram(final Node root, final Map<String, Integer> slots) {
+        try {
+            return RegisterProgram.compile(root, slots);
+        } catch (IllegalArgumentException e) {
+            /* malformed expressions are reported by validate() and evaluate() as usual */
+            return null;
         }
-        variableValue.value = value;
+    }
+
+    private static ExpressionGraph buildGraph(final Token[] tokens, final Map<String, Integer> slots) {
+        final ExpressionGraph graph;
+        try {
+            graph = ExpressionGraph.build(new Token[][] {tokens}, slots);
+        } catch (IllegalArgumentException e) {
+            /* malformed expressions are reported by validate() and evaluate() as usual */
+            return null;
+        }
+        /* without repeated operations the stack based evaluation is just as fast */
+        int numOperations = 0;
+        for (Token t : tokens) {
+            if (t.getType() == Token.TOKEN_OPERATOR || t.getType() == Token.TOKEN_FUNCTION) {
+                numOperations++;
+            }
+        }
+        return graph.getNumOperations() < numOperations ? graph : null;
+    }
+
+    /**
+     * Get the slot of a variable. Setting variables via their slot avoids looking up the name on every call of
+     * {@link #setVariable(String, double)}
+     * @param name the name of the variable
+     * @return the slot which can be passed to {@link #setVariable(int, double)}
+     * @throws IllegalArgumentException if the expression does not know a variable with that name
+     */
+    public int slotOf(final String name) {
+        return variables.slotOf(name);
+    }
+
+    /**
+     * Get the abstract syntax tree of the expression
+     * @return the root node of the tree
+     * @throws IllegalArgumentException if the expression is not well-formed
+     */
+    public Node toAst() {
+        Node root = ast;
+        if (root == null) {
+            /* reports the error of a malformed expression */
+            root = AstBuilder.build(tokens);
+            ast = root;
+        }
+        return root;
+    }
+
+    /**
+     * Differentiate the expression symbolically. All builtin functions and operators are supported, custom ones have
+     * to implement {@link Differentiable} unless their arguments do not depend on the variable. Functions which are
+     * piecewise constant like floor() have a derivative of zero. The result is simplified, repeated sub expressions
+     * are computed once, and it is compiled if this expression is compiled.
+     * @param variable the name of the variable to differentiate with respect to
+     * @return a new expression computing the derivative, initialized with the variable values set on this expression
+     * @throws IllegalArgumentException if the variable is unknown, the expression is not well-formed or it contains a
+     *         custom function or operator which can not be differentiated
+     */
+    public Expression derivative(final String variable) {
+        slotOf(variable);
+        return derived(Differentiator.differentiate(toAst(), variable));
+    }
+
+    /**
+     * Differentiate the expression with respect to all the variables it uses
+     * @return the derivatives mapped by the variable names
+     * @throws IllegalArgumentException if the expression is not well-formed or it contains a custom function or
+     *         operator which can not be differentiated
+     * @see #derivative(String)
+     */
+    public Map<String, Expression> gradient() {
+        final Node root = toAst();
+        final Map<String, Expression> gradient = new LinkedHashMap<String, Expression>();
+        for (final int slot : usedSlots) {
+            final String name = variables.names[slot];
+            gradient.put(name, derived(Differentiator.differentiate(root, name)));
+        }
+        return gradient;
+    }
+
+    private Expression derived(final Node root) {
+        final Token[] derivedTokens = ConstantFolder.fold(AstBuilder.toTokens(root),
+                Collections.<String, Double>emptyMap());
+        final Expression derived = new Expression(derivedTokens, root, variables.userFunctionNames,
+                variables.slots.keySet(), evaluator != null, true, false);
+        for (int slot = 0; slot < variables.size(); slot++) {
+            if (context.assigned[slot]) {
+                derived.setVariable(variables.names[slot], context.values[slot]);
+            }
+        }
+        return derived;
+    }
+
+    /**
+     * Get the names of the variables known to the expression, i.e. the declared variables and the builtin constants
+     * @return an unmodifiable set of the variable names
+     */
+    public Set<String> getVariableNames() {
+        return variables.slots.keySet();
+    }
+
+    /**
+     * Set the value of a variable using its slot
+     * @param slot the slot of the variable as returned by {@link #slotOf(String)}
+     * @param value the value of the variable
+     * @return the Expression instance
+     */
+    public Expression setVariable(final int slot, final double value) {
+        this.context.setVariable(slot, value);
+        return this;
+    }
+
+    public Expression setVariable(final String name, final double value) {
+        this.context.setVariable(name, value);
         return this;
     }
 
@@ -84,10 +317,27 @@ public class Expression {
         return setVariable(name, value.doubleValue());
     }
 
-    private void checkVariableName(String name) {
-        if (this.userFunctionNames.contains(name) || Functions.getBuiltinFunction(name) != null) {
-            throw new IllegalArgumentException("The variable name '" + name + "' is invalid. Since there exists a function with the same name");
-        }
+    /**
+     * Set the listener notified about the evaluations of this expression. Expressions built by an
+     * {@link ExpressionBuilder} with a listener use that listener already, the method is meant for expressions
+     * created otherwise, e.g. by an {@link ExpressionReader}. Invocations of custom functions are only reported for
+     * expressions built with the listener. The listener may be replaced while other threads evaluate the expression,
+     * evaluations in progress report to the listener they started with.
+     * @param listener the listener, null for none
+     * @return the Expression instance
+     */
+    public Expression setListener(final EvaluationListener listener) {
+        this.listener = listener == null ? EvaluationListener.NONE : listener;
+        return this;
+    }
+
+    /**
+     * Create a new context for evaluating this expression via {@link #evaluate(EvaluationContext)}. The context is
+     * initialized with the variable values currently set on this expression.
+     * @return a new {@link EvaluationContext}
+     */
+    public EvaluationContext newContext() {
+        return new EvaluationContext(this.context);
     }
 
     public Expression setVariables(Map<String, Double> variables) {
@@ -101,12 +351,9 @@ public class Expression {
         final List<String> errors = new ArrayList<String>(0);
         if (checkVariablesSet) {
             /* check that all vars have a value set */
-            for (final Token t : this.tokens) {
-                if (t.getType() == Token.TOKEN_VARIABLE) {
-                    final String var = ((VariableToken) t).getName();
-                    if (!variables.containsKey(var)) {
-                        errors.add("The setVariable '" + var + "' has not been set");
-                    }
+            for (int i = 0; i < this.tokens.length; i++) {
+                if (tokenSlots[i] != -1 && !context.assigned[tokenSlots[i]]) {
+                    errors.add("The setVariable '" + variables.names[tokenSlots[i]] + "' has not been set");
                 }
             }
         }
@@ -157,28 +404,97 @@ public class Expression {
         return validate(true);
     }
 
+    /**
+     * Evaluate the expression asynchronously. The evaluation uses a snapshot of the variable values at the time of
+     * the call, so the expression can be modified and submitted again right away.
+     * @param executor the executor service used for the evaluation
+     * @return a {@link Future} holding the result
+     */
     public Future<Double> evaluateAsync(ExecutorService executor) {
+        final EvaluationContext snapshot = newContext();
         return executor.submit(new Callable<Double>() {
             @Override
             public Double call() throws Exception {
-                return evaluate();
+                return evaluate(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Evaluate the expression asynchronously for many rows of variable values at once. Like
+     * {@link #evaluateAsync(ExecutorService)} the evaluation uses a snapshot of the variable values set at the time of
+     * the call and its own buffers, so nothing is shared with other evaluations and the expression can be modified and
+     * submitted again right away. Submitting a batch of rows as a single task instead of a task per row avoids the
+     * overhead of scheduling and boxing a result for every row.
+     * @param executor the executor service used for the evaluation
+     * @param columns the values of the variables indexed by slot as for {@link #evaluate(double[][], double[])}. The
+     *                arrays must not be modified until the evaluation is done
+     * @param out the array receiving the results, its length determines the number of rows
+     * @return a {@link Future} holding the out array once it has been filled
+     */
+    public Future<double[]> evaluateAsync(ExecutorService executor, final double[][] columns, final double[] out) {
+        final EvaluationContext snapshot = newContext();
+        final double[][] columnsSnapshot = columns.clone();
+        return executor.submit(new Callable<double[]>() {
+            @Override
+            public double[] call() throws Exception {
+                evaluate(snapshot, columnsSnapshot, out);
+                return out;
             }
         });
     }
 
     public double evaluate() {
+        return evaluate(this.context);
+    }
+
+    /**
+     * Evaluate the expression using the variable values and the stack of the given context. Different threads can
+     * evaluate the same expression concurrently as long as each uses its own context.
+     * @param context the context created via {@link #newContext()}
+     * @return the result of the evaluation
+     */
+    public double evaluate(final EvaluationContext context) {
+        final EvaluationListener listener = this.listener;
+        final double result;
+        try {
+            result = evaluateValue(context);
+        } catch (RuntimeException e) {
+            listener.evaluationFailed(this, e);
+            throw e;
+        }
+        listener.evaluated(this, 1);
+        return result;
+    }
+
+    private double evaluateValue(final EvaluationContext context) {
+        if (context.variables != this.variables) {
+            throw new IllegalArgumentException("The context has been created for a different expression");
+        }
+        final double[] values = context.values;
+        checkVariablesSet(context.assigned);
+        if (evaluator != null) {
+            return evaluator.evaluate(values);
+        }
+        if (incrementalProgram != null) {
+            return incrementalProgram.evaluate(values, context);
+        }
+        if (graph != null) {
+            final double[] registers = context.getRegisters(graph.size());
+            graph.evaluate(values, registers, context);
+            return registers[graph.roots[0]];
+        }
+        if (program != null) {
+            return program.evaluate(values, context);
+        }
+        final ArrayStack stack = context.stack;
         stack.reset();
         for (int i = 0; i < tokens.length; i++) {
             Token t = tokens[i];
             if (t.getType() == Token.TOKEN_NUMBER) {
                 stack.push(((NumberToken) t).getValue());
             } else if (t.getType() == Token.TOKEN_VARIABLE) {
-                final String name = ((VariableToken) t).getName();
-                final VariableValue value = this.variables.get(name);
-                if (value == null) {
-                    throw new IllegalArgumentException("No value has been set for the setVariable '" + name + "'.");
-                }
-                stack.push(value.value);
+                stack.push(values[tokenSlots[i]]);
             } else if (t.getType() == Token.TOKEN_OPERATOR) {
                 final OperatorToken op = (OperatorToken) t;
                 final Operator operator = op.getOperator();
@@ -186,12 +502,19 @@ public class Expression {
                 if (stack.size() < numOperands) {
                     throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
                 }
-                /* collect the operands from the stack */
-                final double[] ops = getArray(numOperands);
-                for (int j = numOperands - 1; j >= 0; j--) {
-                    ops[j] = stack.pop();
+                if (operator instanceof BinaryOperator) {
+                    final double right = stack.pop();
+                    stack.push(((BinaryOperator) operator).apply(stack.pop(), right));
+                } else if (operator instanceof UnaryOperator) {
+                    stack.push(((UnaryOperator) operator).apply(stack.pop()));
+                } else {
+                    /* collect the operands from the stack */
+                    final double[] ops = context.getArray(numOperands);
+                    for (int j = numOperands - 1; j >= 0; j--) {
+                        ops[j] = stack.pop();
+                    }
+                    stack.push(operator.apply(ops));
                 }
-                stack.push(operator.apply(ops));
             } else if (t.getType() == Token.TOKEN_FUNCTION) {
                 final FunctionToken func = (FunctionToken) t;
                 final Function function = func.getFunction();
@@ -199,12 +522,19 @@ public class Expression {
                 if (stack.size() < numArguments) {
                     throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
                 }
-                /* collect the arguments from the stack */
-                final double[] args = getArray(numArguments);
-                for (int j = numArguments - 1; j >= 0; j--) {
-                    args[j] = stack.pop();
+                if (function instanceof Function1) {
+                    stack.push(((Function1) function).apply(stack.pop()));
+                } else if (function instanceof Function2) {
+                    final double arg2 = stack.pop();
+                    stack.push(((Function2) function).apply(stack.pop(), arg2));
+                } else {
+                    /* collect the arguments from the stack */
+                    final double[] args = context.getArray(numArguments);
+                    for (int j = numArguments - 1; j >= 0; j--) {
+                        args[j] = stack.pop();
+                    }
+                    stack.push(function.apply(args));
                 }
-                stack.push(function.apply(args));
             }
         }
         if (stack.size() > 1) {
@@ -213,17 +543,271 @@ public class Expression {
         return stack.pop();
     }
 
-    private double[] getArray(int size) {
-        if (size < arrays.length) {
-            return arrays[size];
+    /**
+     * Evaluate the expression together with its gradient using automatic differentiation, which is exact and does not
+     * build new expressions like {@link #derivative(String)}. For expressions with few variables the derivatives are
+     * carried along with the values in a single pass (forward mode), otherwise the partial derivatives are recorded
+     * and propagated back to all variables in one sweep (reverse mode), so the cost does not grow with the number of
+     * variables. Repeated calls do not allocate.
+     * @param gradient the array receiving the partial derivatives with respect to the variables indexed by slot (see
+     *                 {@link #slotOf(String)}), it needs an element for each of {@link #getVariableNames()}. Variables
+     *                 the expression does not use get a derivative of zero
+     * @return the result of the evaluation
+     * @throws IllegalArgumentException if the gradient array is too small, a variable has not been set, the
+     *         expression is not well-formed or it applies a custom function or operator which does not implement
+     *         {@link Differentiable} to an operand depending on a variable
+     */
+    public double evaluateWithGradient(final double[] gradient) {
+        return evaluateWithGradient(this.context, gradient);
+    }
+
+    /**
+     * Evaluate the expression together with its gradient using the variable values and the buffers of the given
+     * context
+     * @param context the context created via {@link #newContext()}
+     * @param gradient the array receiving the partial derivatives indexed by slot
+     * @return the result of the evaluation
+     * @see #evaluateWithGradient(double[])
+     */
+    public double evaluateWithGradient(final EvaluationContext context, final double[] gradient) {
+        if (context.variables != this.variables) {
+            throw new IllegalArgumentException("The context has been created for a different expression");
+        }
+        if (gradient.length < variables.size()) {
+            throw new IllegalArgumentException("The gradient array needs a length of at least " + variables.size());
+        }
+        checkVariablesSet(context.assigned);
+        GradientProgram gp = gradientProgram;
+        if (gp == null) {
+            gp = GradientProgram.compile(tokens, tokenSlots);
+            gradientProgram = gp;
+        }
+        if (gp.getNumVariables() <= FORWARD_MODE_MAX_VARIABLES) {
+            return gp.evaluateForward(context.values, gradient, context);
+        }
+        return gp.evaluateReverse(context.values, gradient, context);
+    }
+
+    /**
+     * Evaluate the expression over ranges of variable values. The result is an interval containing every value the
+     * expression can take when the variables vary within their ranges, so it can be used to rule out that a condition
+     * holds for any values in the ranges without evaluating them one by one. The interval may be wider than the exact
+     * range of the expression, e.g. when a variable occurs more than once or a custom function is applied to a range.
+     * @param ranges the ranges of the variables mapped by the variable names. Variables without a range use the
+     *               value set via {@link #setVariable(String, double)}
+     * @return the interval containing all values of the expression, empty if the expression is undefined for all
+     *         values in the ranges
+     * @throws IllegalArgumentException if a variable has neither a range nor a value or the expression is not
+     *         well-formed
+     */
+    public Interval evaluateRange(final Map<String, Interval> ranges) {
+        final double[] lower = new double[variables.size()];
+        final double[] upper = new double[variables.size()];
+        for (final int slot : usedSlots) {
+            final Interval range = ranges.get(variables.names[slot]);
+            if (range != null) {
+                lower[slot] = range.getLower();
+                upper[slot] = range.getUpper();
+            } else if (context.assigned[slot]) {
+                lower[slot] = upper[slot] = context.values[slot];
+            } else {
+                throw new IllegalArgumentException("No value has been set for the setVariable '" + variables.names[slot] + "'.");
+            }
+        }
+        return IntervalEvaluator.evaluate(tokens, tokenSlots, lower, upper, maxDepth(), context);
+    }
+
+    /**
+     * Evaluate the expression over ranges of variable values given as bounds indexed by slot (see
+     * {@link #slotOf(String)})
+     * @param lower the lower bounds of the variables, it needs an element for each of {@link #getVariableNames()}
+     * @param upper the upper bounds of the variables, it needs an element for each of {@link #getVariableNames()}
+     * @return the interval containing all values of the expression
+     * @throws IllegalArgumentException if the arrays are too small or the expression is not well-formed
+     * @see #evaluateRange(Map)
+     */
+    public Interval evaluateRange(final double[] lower, final double[] upper) {
+        if (lower.length < variables.size() || upper.length < variables.size()) {
+            throw new IllegalArgumentException("The bound arrays need a length of at least " + variables.size());
+        }
+        return IntervalEvaluator.evaluate(tokens, tokenSlots, lower, upper, maxDepth(), context);
+    }
+
+    /**
+     * Evaluate the expression for many rows of variable values at once. This is considerably faster than calling
+     * {@link #setVariable(int, double)} and {@link #evaluate()} for every row, since each operator and function is
+     * applied to a whole block of rows at a time.
+     * @param columns the values of the variables indexed by slot (see {@link #slotOf(String)}). Each column has to
+     *                contain at least as many values as there are rows. Variables without a column use the value set
+     *                via {@link #setVariable(int, double)}
+     * @param out the array receiving the results, its length determines the number of rows
+     */
+    public void evaluate(final double[][] columns, final double[] out) {
+        evaluate(this.context, columns, out);
+    }
+
+    /**
+     * Evaluate the expression for many rows of variable values at once, splitting the rows into chunks which are
+     * evaluated in parallel. Each chunk is a multiple of the block size of {@link #evaluate(double[][], double[])},
+     * has its own buffers and writes to its own part of the out array, so the workers do not share any mutable state.
+     * The call returns once all rows have been evaluated.
+     * @param columns the values of the variables indexed by slot as for {@link #evaluate(double[][], double[])}
+     * @param out the array receiving the results, its length determines the number of rows
+     * @param executor the executor service evaluating the chunks
+     * @throws IllegalStateException if the thread is interrupted while waiting for the chunks
+     */
+    public void evaluateParallel(final double[][] columns, final double[] out, final ExecutorService executor) {
+        final int rows = out.length;
+        final int tasks = 4 * Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(MIN_PARALLEL_ROWS, (rows + tasks - 1) / tasks);
+        chunk = (chunk + BatchEvaluator.BLOCK_SIZE - 1) / BatchEvaluator.BLOCK_SIZE * BatchEvaluator.BLOCK_SIZE;
+        if (chunk >= rows) {
+            evaluate(columns, out);
+            return;
+        }
+        final EvaluationListener listener = this.listener;
+        try {
+            evaluateChunks(columns, out, chunk, executor);
+        } catch (RuntimeException e) {
+            listener.evaluationFailed(this, e);
+            throw e;
+        }
+        listener.evaluated(this, rows);
+    }
+
+    private void evaluateChunks(final double[][] columns, final double[] out, final int chunk,
+            final ExecutorService executor) {
+        final int rows = out.length;
+        final BatchEvaluator batch = batch();
+        final double[] values = context.values;
+        final boolean[] assigned = context.assigned;
+        final List<Callable<Void>> chunks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < rows; from += chunk) {
+            final int start = from;
+            final int end = Math.min(rows, from + chunk);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    /* the chunks run concurrently, so each needs its own buffers */
+                    batch.evaluate(tokenSlots, values, assigned, variables.names, columns, out, start, end,
+                            new EvaluationContext(variables, incrementalProgram));
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> result : executor.invokeAll(chunks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating the expression", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
         }
-        return new double[size];
     }
 
     /**
-     * This class is used to avoid Double instantiation for doubles in {@link Expression#variables} map
+     * Evaluate the expression for many rows of variable values at once, using the values set on the given context
+     * for variables without a column
+     * @param context the context created via {@link #newContext()}
+     * @param columns the values of the variables indexed by slot
+     * @param out the array receiving the results, its length determines the number of rows
+     * @see #evaluate(double[][], double[])
      */
-    private static class VariableValue {
-        double value;
+    public void evaluate(final EvaluationContext context, final double[][] columns, final double[] out) {
+        final EvaluationListener listener = this.listener;
+        if (context.variables != this.variables) {
+            throw new IllegalArgumentException("The context has been created for a different expression");
+        }
+        try {
+            batch().evaluate(tokenSlots, context.values, context.assigned, variables.names, columns, out, 0,
+                    out.length, context);
+        } catch (RuntimeException e) {
+            listener.evaluationFailed(this, e);
+            throw e;
+        }
+        listener.evaluated(this, out.length);
+    }
+
+    /**
+     * Evaluate the expression for many rows of variable values at once
+     * @param columns the values of the variables mapped by the variable names. Variables without a column use the
+     *                value set via {@link #setVariable(String, double)}
+     * @param out the array receiving the results, its length determines the number of rows
+     * @see #evaluate(double[][], double[])
+     */
+    public void evaluate(final Map<String, double[]> columns, final double[] out) {
+        final double[][] slotColumns = new double[variables.size()][];
+        for (Map.Entry<String, double[]> column : columns.entrySet()) {
+            final Integer slot = variables.slots.get(column.getKey());
+            if (slot != null) {
+                slotColumns[slot] = column.getValue();
+            }
+        }
+        evaluate(slotColumns, out);
+    }
+
+    /* the parsed form of the expression as written by the ExpressionWriter */
+
+    Token[] getTokens() {
+        return tokens;
+    }
+
+    String[] getSlotNames() {
+        return variables.names;
+    }
+
+    int[] getUsedSlots() {
+        return usedSlots;
+    }
+
+    Set<String> getUserFunctionNames() {
+        return variables.userFunctionNames;
+    }
+
+    boolean isCompiled() {
+        return evaluator != null;
+    }
+
+    boolean isEliminatingCommonSubexpressions() {
+        return eliminateCommonSubexpressions;
+    }
+
+    boolean isIncremental() {
+        return incrementalProgram != null;
+    }
+
+    IncrementalProgram getIncrementalProgram() {
+        return incrementalProgram;
+    }
+
+    private BatchEvaluator batch() {
+        BatchEvaluator b = batch;
+        if (b == null) {
+            /* reports the error of a malformed expression */
+            b = BatchEvaluator.compile(tokens);
+            batch = b;
+        }
+        return b;
+    }
+
+    /* the maximum depth of the stack, the number of tokens for malformed expressions whose error is reported by the
+     * evaluation */
+    private int maxDepth() {
+        if (evaluator == null && incrementalProgram == null && graph == null && program == null) {
+            return tokens.length;
+        }
+        return batch().getMaxDepth();
+    }
+
+    private void checkVariablesSet(final boolean[] assigned) {
+        variables.checkAssigned(usedSlots, assigned);
     }
 }
@@ -19,8 +19,11 @@ package net.objecthunter.exp4j;
 import net.objecthunter.exp4j.constant.Constants;
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.metrics.EvaluationListener;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.Token;
 
 import java.util.*;
 
@@ -30,13 +33,23 @@ import java.util.*;
  */
 public class ExpressionBuilder {
 
-    private final String expression;
+    /* the fields are package private so that the ExpressionCache can key on the builder's configuration */
 
-    private final Map<String, Function> userFunctions;
+    final String expression;
 
-    private final Map<String, Operator> userOperators;
+    final Map<String, Function> userFunctions;
 
-    private final Set<String> variableNames;
+    final Map<String, Operator> userOperators;
+
+    final Set<String> variableNames;
+
+    boolean eliminateCommonSubexpressions = false;
+
+    boolean incremental = false;
+
+    boolean foldConstants = false;
+
+    EvaluationListener listener = EvaluationListener.NONE;
 
     /**
      * Create a new ExpressionBuilder instance and initialize it with a given expression string.
@@ -145,25 +158,166 @@ public class ExpressionBuilder {
         return this;
     }
 
+    /**
+     * Enable or disable common subexpression elimination for {@link #build()}. Sub expressions which occur more than
+     * once and only consist of deterministic functions and operators are then computed once per evaluation, which pays
+     * off for long (e.g. generated) expressions repeating the same terms. Disabled by default, compiled expressions
+     * are not affected.
+     * @param enabled true to enable common subexpression elimination
+     * @return the ExpressionBuilder instance
+     * @see net.objecthunter.exp4j.function.Function#isDeterministic()
+     */
+    public ExpressionBuilder eliminateCommonSubexpressions(boolean enabled) {
+        this.eliminateCommonSubexpressions = enabled;
+        return this;
+    }
+
+    /**
+     * Enable or disable incremental evaluation for {@link #build()}. The expression then keeps the value of every sub
+     * expression between evaluations and only recomputes the sub expressions depending on variables whose values
+     * have changed since the previous evaluation, which pays off when only a few of many variables change between
+     * evaluations. Setting a variable to its current value does not cause any recomputation. Sub expressions
+     * containing non deterministic functions or operators are recomputed on every evaluation. Takes precedence over
+     * common subexpression elimination, compiled expressions are not affected.
+     * @param enabled true to enable incremental evaluation
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder incremental(boolean enabled) {
+        this.incremental = enabled;
+        return this;
+    }
+
+    /**
+     * Enable or disable folding the builtin constants, e.g. pi, into the sub expressions using them. The constants
+     * are then no longer variables, so setting a value for them fails, but sub expressions like 2 * pi / 360 are
+     * computed once when building instead of on every evaluation. Disabled by default, constants declared via
+     * {@link #variables(String...)} are never folded. Sub expressions consisting of numbers and deterministic
+     * functions and operators are folded either way.
+     * @param enabled true to fold the builtin constants
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder foldConstants(boolean enabled) {
+        this.foldConstants = enabled;
+        return this;
+    }
+
+    /**
+     * Set the listener notified about building and evaluating the expression, e.g. an
+     * {@link net.objecthunter.exp4j.metrics.EvaluationMetrics} instance. The time it takes {@link #build()} and
+     * {@link #compile()} to parse and build the expression is reported, and the custom functions report each
+     * invocation. Without a listener nothing is measured.
+     * @param listener the listener
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder listener(EvaluationListener listener) {
+        this.listener = listener == null ? EvaluationListener.NONE : listener;
+        return this;
+    }
+
     /**
      * Build the {@link Expression} instance using the custom operators and functions set.
      * @return an {@link Expression} instance which can be used to evaluate the result of the expression
      */
     public Expression build() {
-        if (expression.length() == 0) {
-            throw new IllegalArgumentException("The expression can not be empty");
+        final long start = listener != EvaluationListener.NONE ? System.nanoTime() : 0L;
+        try {
+            return built(new Expression(parse(), this.userFunctions.keySet(), this.variableNames, false,
+                    this.eliminateCommonSubexpressions, this.incremental), start);
+        } catch (RuntimeException e) {
+            listener.buildFailed(this.expression, e);
+            throw e;
         }
-        for (String constant : Constants.getBuiltinConstants().keySet()) {
-            variableNames.add(constant);
+    }
+
+    /**
+     * Build the {@link Expression} instance and compile it to JVM bytecode. Compiled expressions are evaluated by a
+     * generated class with straight-line double arithmetic instead of interpreting the tokens, which pays off for
+     * expressions that are evaluated very often. Compilation is more expensive than {@link #build()} though.
+     * @return an {@link Expression} instance which can be used to evaluate the result of the expression
+     * @throws IllegalArgumentException if the expression is not well-formed or too large to compile
+     */
+    public Expression compile() {
+        final long start = listener != EvaluationListener.NONE ? System.nanoTime() : 0L;
+        try {
+            return built(new Expression(parse(), this.userFunctions.keySet(), this.variableNames, true), start);
+        } catch (RuntimeException e) {
+            listener.buildFailed(this.expression, e);
+            throw e;
         }
+    }
+
+    private Expression built(final Expression built, final long start) {
+        if (listener != EvaluationListener.NONE) {
+            built.setListener(listener);
+            listener.built(this.expression, System.nanoTime() - start);
+        }
+        return built;
+    }
+
+    /**
+     * Build an {@link ExpressionSet} from this builder's expression and further expressions using the same custom
+     * operators, functions and variables. The expressions are evaluated together, sub expressions which occur in more
+     * than one expression are only computed once per evaluation.
+     * @param expressions the expressions following this builder's expression in the set
+     * @return an {@link ExpressionSet} evaluating to the results of this builder's expression and the given
+     *         expressions in that order
+     * @throws IllegalArgumentException if one of the expressions is not well-formed
+     */
+    public ExpressionSet buildAll(String... expressions) {
+        final String[] all = new String[expressions.length + 1];
+        all[0] = this.expression;
+        System.arraycopy(expressions, 0, all, 1, expressions.length);
+        return new ExpressionSet(parse(all), this.userFunctions.keySet(), this.variableNames);
+    }
+
+    private Token[] parse() {
+        return parse(new String[] {this.expression})[0];
+    }
+
+    private Token[][] parse(String[] expressions) {
+        /* builtin constants which have not been declared as variables are folded into the expression on request */
+        final Map<String, Double> builtins = Constants.getBuiltinConstants();
+        builtins.keySet().removeAll(variableNames);
+        final Set<String> names = new HashSet<String>(variableNames);
+        names.addAll(builtins.keySet());
+        final Map<String, Double> constants = foldConstants ? builtins : Collections.<String, Double>emptyMap();
         /* Check if there are duplicate vars/functions */
-        for (String var : variableNames) {
+        for (String var : names) {
             if (Functions.getBuiltinFunction(var) != null || userFunctions.containsKey(var)) {
                 throw new IllegalArgumentException("A variable can not have the same name as a function [" + var + "]");
             }
         }
-        return new Expression(ShuntingYard.convertToRPN(this.expression, this.userFunctions, this.userOperators, this.variableNames),
-                this.userFunctions.keySet());
+        final Token[][] programs = new Token[expressions.length][];
+        for (int i = 0; i < expressions.length; i++) {
+            if (expressions[i] == null || expressions[i].trim().length() == 0) {
+                throw new IllegalArgumentException("The expression can not be empty");
+            }
+            final Token[] tokens = ShuntingYard.convertToRPN(expressions[i], this.userFunctions, this.userOperators,
+                    names);
+            programs[i] = ConstantFolder.fold(tokens, constants);
+        }
+        if (listener != EvaluationListener.NONE) {
+            instrument(programs);
+        }
+        return programs;
+    }
+
+    /* wraps the custom functions left after folding, so that calls made while folding are not reported */
+    private void instrument(final Token[][] programs) {
+        final Map<Function, Function> wrapped = new IdentityHashMap<Function, Function>();
+        for (Function f : this.userFunctions.values()) {
+            wrapped.put(f, InstrumentedFunction.wrap(f, listener));
+        }
+        for (Token[] tokens : programs) {
+            for (int i = 0; i < tokens.length; i++) {
+                if (tokens[i].getType() == Token.TOKEN_FUNCTION) {
+                    final Function instrumented = wrapped.get(((FunctionToken) tokens[i]).getFunction());
+                    if (instrumented != null) {
+                        tokens[i] = new FunctionToken(instrumented);
+                    }
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * A read only bundle of expressions written by an {@link ExpressionBundleWriter}. Opening a bundle only checks the
+ * header and locates the index, so it takes the same time regardless of the number of expressions. An expression is
+ * decoded from the buffer the first time its id is requested, by a binary search over the index, and then kept in
+ * memory.
+ * <p>
+ * The bundle is thread safe. Like the {@link ExpressionCache} every call to {@link #get(String)} returns a new
+ * {@link Expression} instance which shares the decoded tokens with the kept one but has its own variable values.
+ */
+public class ExpressionBundle {
+
+    private final ByteBuffer buffer;
+
+    private final ExpressionReader reader;
+
+    private final int size;
+
+    private final int keyOffsets;
+
+    private final int recordOffsets;
+
+    private final int keys;
+
+    private final Map<String, Expression> expressions = new HashMap<String, Expression>();
+
+    /**
+     * Create a bundle for expressions without custom functions and operators
+     * @param buffer the buffer holding the bundle, from its position to its limit
+     * @throws IllegalArgumentException if the buffer does not hold a valid bundle
+     */
+    public ExpressionBundle(ByteBuffer buffer) {
+        this(buffer, Collections.<Function>emptyList(), Collections.<Operator>emptyList());
+    }
+
+    /**
+     * Create a bundle
+     * @param buffer the buffer holding the bundle, from its position to its limit
+     * @param userFunctions the custom functions used by the expressions
+     * @param userOperators the custom operators used by the expressions
+     * @throws IllegalArgumentException if the buffer does not hold a valid bundle
+     */
+    public ExpressionBundle(ByteBuffer buffer, Collection<Function> userFunctions,
+            Collection<Operator> userOperators) {
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        this.reader = new ExpressionReader(this.buffer, userFunctions, userOperators);
+        final int limit = this.buffer.limit();
+        if (limit < ExpressionBundleWriter.TRAILER_SIZE
+                || this.buffer.getInt(limit - 4) != ExpressionBundleWriter.BUNDLE_MAGIC) {
+            throw new IllegalArgumentException("The data does not contain a bundle of expressions");
+        }
+        final long indexOffset = this.buffer.getLong(limit - ExpressionBundleWriter.TRAILER_SIZE);
+        if (indexOffset < 0 || indexOffset > limit - ExpressionBundleWriter.TRAILER_SIZE - 8) {
+            throw new IllegalArgumentException("Corrupt bundle index");
+        }
+        this.size = this.buffer.getInt((int) indexOffset);
+        this.keyOffsets = (int) indexOffset + 4;
+        /* every entry takes a key offset and a record offset, plus the end offset of the last key */
+        if (size < 0 || size > (limit - ExpressionBundleWriter.TRAILER_SIZE - keyOffsets - 4) / 12) {
+            throw new IllegalArgumentException("Corrupt bundle index");
+        }
+        this.recordOffsets = keyOffsets + 4 * (size + 1);
+        this.keys = recordOffsets + 8 * size;
+    }
+
+    /**
+     * Open a bundle file by mapping it into memory
+     * @param file the bundle file
+     * @param userFunctions the custom functions used by the expressions
+     * @param userOperators the custom operators used by the expressions
+     * @return the bundle
+     * @throws IOException if the file can not be mapped
+     * @throws IllegalArgumentException if the file does not hold a valid bundle
+     */
+    public static ExpressionBundle open(File file, Collection<Function> userFunctions,
+            Collection<Operator> userOperators) throws IOException {
+        return new ExpressionBundle(ExpressionReader.map(file), userFunctions, userOperators);
+    }
+
+    /**
+     * @return the number of expressions in the bundle
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the bundle holds an expression
+     * @param id the id of the expression
+     * @return true if there is an expression with the id
+     */
+    public boolean contains(final String id) {
+        synchronized (expressions) {
+            if (expressions.containsKey(id)) {
+                return true;
+            }
+        }
+        return find(id.getBytes(ExpressionWriter.UTF_8)) >= 0;
+    }
+
+    /**
+     * Get an expression, decoding it on first access
+     * @param id the id of the expression
+     * @return a new {@link Expression} instance
+     * @throws IllegalArgumentException if there is no expression with the id or it can not be decoded
+     */
+    public Expression get(final String id) {
+        Expression loaded;
+        synchronized (expressions) {
+            loaded = expressions.get(id);
+        }
+        if (loaded == null) {
+            final int index = find(id.getBytes(ExpressionWriter.UTF_8));
+            if (index < 0) {
+                throw new IllegalArgumentException("The bundle does not contain the id '" + id + "'");
+            }
+            /* decode outside of the lock, concurrent first accesses may decode twice but that is harmless */
+            loaded = reader.read(record(index));
+            synchronized (expressions) {
+                expressions.put(id, loaded);
+            }
+        }
+        return new Expression(loaded);
+    }
+
+    /**
+     * @return the number of expressions decoded so far
+     */
+    public int getLoadedCount() {
+        synchronized (expressions) {
+            return expressions.size();
+        }
+    }
+
+    private ByteBuffer record(final int index) {
+        final long offset = buffer.getLong(recordOffsets + 8 * index);
+        if (offset < 0 || offset > keyOffsets - 4) {
+            throw new IllegalArgumentException("Corrupt bundle index");
+        }
+        final ByteBuffer record = buffer.duplicate();
+        record.position((int) offset);
+        final int length = record.getInt();
+        if (length < 0 || length > record.remaining()) {
+            throw new IllegalArgumentException("Truncated expression record");
+        }
+        record.limit(record.position() + length);
+        return record.slice();
+    }
+
+    /* binary search over the sorted ids, comparing the UTF-8 bytes in place */
+    private int find(final byte[] key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareKey(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKey(final int index, final byte[] key) {
+        final int from = buffer.getInt(keyOffsets + 4 * index);
+        final int to = buffer.getInt(keyOffsets + 4 * (index + 1));
+        if (from < 0 || to < from || to > buffer.limit() - ExpressionBundleWriter.TRAILER_SIZE - keys) {
+            throw new IllegalArgumentException("Corrupt bundle index");
+        }
+        final int start = keys + from;
+        final int length = to - from;
+        final int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            final int cmp = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes a bundle of built {@link Expression}s keyed by an id, which can be opened by an {@link ExpressionBundle}.
+ * <p>
+ * A bundle consists of the expression records as written by an {@link ExpressionWriter}, followed by an index of the
+ * ids sorted by their UTF-8 bytes and the offsets of the records, and a trailer pointing to the index. The index is
+ * written when the writer is closed, only the ids and offsets are held in memory until then.
+ */
+public class ExpressionBundleWriter implements Closeable {
+
+    static final int BUNDLE_MAGIC = 0x45787042;
+
+    /* the offset of the index and the magic number */
+    static final int TRAILER_SIZE = 12;
+
+    private final DataOutputStream out;
+
+    private final ExpressionWriter writer;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final Set<String> ids = new HashSet<String>();
+
+    /**
+     * Create a new bundle writer
+     * @param out the stream the bundle is written to
+     * @throws IOException if the header can not be written
+     */
+    public ExpressionBundleWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.writer = new ExpressionWriter(this.out);
+    }
+
+    /**
+     * Add an expression to the bundle
+     * @param id the id the expression is looked up by
+     * @param expression the expression
+     * @throws IOException if the expression can not be written
+     * @throws IllegalArgumentException if the id has already been written
+     */
+    public void write(final String id, final Expression expression) throws IOException {
+        if (!ids.add(id)) {
+            throw new IllegalArgumentException("The id '" + id + "' has already been written to the bundle");
+        }
+        entries.add(new Entry(id.getBytes(ExpressionWriter.UTF_8), writer.getPosition()));
+        writer.write(expression);
+    }
+
+    /**
+     * Write the index and close the underlying stream
+     * @throws IOException if the index can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        final long indexOffset = writer.getPosition();
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return compareKeys(a.key, b.key);
+            }
+        });
+        out.writeInt(entries.size());
+        int keyOffset = 0;
+        for (Entry e : entries) {
+            out.writeInt(keyOffset);
+            keyOffset += e.key.length;
+        }
+        out.writeInt(keyOffset);
+        for (Entry e : entries) {
+            out.writeLong(e.offset);
+        }
+        for (Entry e : entries) {
+            out.write(e.key);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(BUNDLE_MAGIC);
+        out.close();
+    }
+
+    /* the ordering of the index, comparing the bytes unsigned */
+    static int compareKeys(final byte[] a, final byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final long offset;
+
+        Entry(byte[] key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.metrics.EvaluationListener;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * A bounded cache of parsed expressions. The cache is keyed on the expression string together with the custom
+ * functions, custom operators and variable names of the {@link ExpressionBuilder}, so a builder which is configured
+ * the same way as an earlier one gets an {@link Expression} without tokenizing and parsing the string again. When the
+ * cache is full the least recently used expression is evicted.
+ * <p>
+ * The cache is thread safe. Larger caches are split into segments by the hash of the key, each with its own lock and
+ * its own least recently used order, so lookups of different expressions rarely contend. The order is therefore only
+ * exact within a segment. Every call returns a new {@link Expression} instance which shares the parsed tokens and the
+ * compiled programs with the cached one and only allocates its own variable values, so callers can set variables
+ * without affecting each other.
+ */
+public class ExpressionCache {
+
+    /* the most segments a cache is split into, and the fewest expressions a segment holds */
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    private final int maximumSize;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a new cache
+     * @param maximumSize the maximum number of expressions held by the cache
+     */
+    public ExpressionCache(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The maximum size of the cache must be positive");
+        }
+        this.maximumSize = maximumSize;
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && maximumSize / (numSegments * 2) >= MIN_SEGMENT_SIZE) {
+            numSegments *= 2;
+        }
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            /* spread the remainder so that the sizes of the segments add up to the maximum size */
+            this.segments[i] = new Segment(maximumSize / numSegments + (i < maximumSize % numSegments ? 1 : 0));
+        }
+    }
+
+    /**
+     * Get the expression for a builder, building it if it is not cached yet
+     * @param builder the builder holding the expression string and its configuration
+     * @return an {@link Expression} as returned by {@link ExpressionBuilder#build()}
+     */
+    public Expression get(final ExpressionBuilder builder) {
+        return get(builder, false);
+    }
+
+    /**
+     * Get the compiled expression for a builder, compiling it if it is not cached yet
+     * @param builder the builder holding the expression string and its configuration
+     * @return an {@link Expression} as returned by {@link ExpressionBuilder#compile()}
+     */
+    public Expression getCompiled(final ExpressionBuilder builder) {
+        return get(builder, true);
+    }
+
+    private Expression get(final ExpressionBuilder builder, final boolean compiled) {
+        final Key lookup = new Key(builder.expression, builder.userFunctions, builder.userOperators,
+                builder.variableNames, compiled, builder.eliminateCommonSubexpressions, builder.incremental,
+                builder.foldConstants, builder.listener);
+        final Segment segment = segmentFor(lookup);
+        Expression cached;
+        synchronized (segment) {
+            cached = segment.get(lookup);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return new Expression(cached);
+        }
+        misses.incrementAndGet();
+        /* parse outside of the lock, concurrent misses for the same key may parse twice but that is harmless */
+        cached = compiled ? builder.compile() : builder.build();
+        final Key key = new Key(lookup.expression, new HashMap<String, Function>(lookup.functions),
+                new HashMap<String, Operator>(lookup.operators), new HashSet<String>(lookup.variables), compiled,
+                lookup.eliminateCommonSubexpressions, lookup.incremental, lookup.foldConstants, lookup.listener);
+        synchronized (segment) {
+            segment.put(key, cached);
+        }
+        return new Expression(cached);
+    }
+
+    private Segment segmentFor(final Key key) {
+        /* the maps of the segments pick their buckets by the low bits, so pick the segment by higher ones */
+        return segments[(key.hash >>> 20) & (segments.length - 1)];
+    }
+
+    /**
+     * Remove all expressions from the cache. The statistics are not reset
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of expressions currently held by the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the maximum number of expressions held by the cache
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of lookups which found a cached expression
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which had to parse the expression
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of expressions which have been removed because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the ratio of hits to the total number of lookups, 1 if there were no lookups yet
+     */
+    public double getHitRate() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 1d : (double) hitCount / total;
+    }
+
+    /**
+     * A part of the cache holding the expressions in least recently used order. Guarded by its own monitor
+     */
+    private final class Segment extends LinkedHashMap<Key, Expression> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Expression> eldest) {
+            if (size() > maximumSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The cache key. Functions and operators are compared by identity, since two instances with the same name may
+     * compute different things
+     */
+    private static final class Key {
+        final String expression;
+        final Map<String, Function> functions;
+        final Map<String, Operator> operators;
+        final Set<String> variables;
+        final boolean compiled;
+        final boolean eliminateCommonSubexpressions;
+        final boolean incremental;
+        final boolean foldConstants;
+        final EvaluationListener listener;
+        final int hash;
+
+        Key(String expression, Map<String, Function> functions, Map<String, Operator> operators,
+                Set<String> variables, boolean compiled, boolean eliminateCommonSubexpressions, boolean incremental,
+                boolean foldConstants, EvaluationListener listener) {
+            this.expression = expression;
+            this.functions = functions;
+            this.operators = operators;
+            this.variables = variables;
+            this.compiled = compiled;
+            this.eliminateCommonSubexpressions = eliminateCommonSubexpressions;
+            this.incremental = incremental;
+            this.foldConstants = foldConstants;
+            this.listener = listener;
+            int h = expression.hashCode();
+            h = 31 * h + functions.hashCode();
+            h = 31 * h + operators.hashCode();
+            h = 31 * h + variables.hashCode();
+            h = 31 * h + (compiled ? 1 : 0);
+            h = 31 * h + (eliminateCommonSubexpressions ? 1 : 0);
+            h = 31 * h + (incremental ? 1 : 0);
+            h = 31 * h + (foldConstants ? 1 : 0);
+            this.hash = 31 * h + System.identityHashCode(listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash
+                    && compiled == other.compiled
+                    && eliminateCommonSubexpressions == other.eliminateCommonSubexpressions
+                    && incremental == other.incremental
+                    && foldConstants == other.foldConstants
+                    && listener == other.listener
+                    && expression.equals(other.expression)
+                    && functions.equals(other.functions)
+                    && operators.equals(other.operators)
+                    && variables.equals(other.variables);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * One or more expressions merged into a directed acyclic graph in which every distinct sub expression is a single
+ * node. Nodes are stored in topological order and evaluated into a register array, so a sub expression shared by
+ * several expressions, or occurring several times in one expression, is computed only once per evaluation. Calls of
+ * functions and operators which are not deterministic are never merged.
+ */
+final class ExpressionGraph {
+
+    static final int CONSTANT = 0;
+    static final int VARIABLE = 1;
+    static final int UNARY_OPERATOR = 2;
+    static final int BINARY_OPERATOR = 3;
+    static final int OPERATOR = 4;
+    static final int FUNCTION_1 = 5;
+    static final int FUNCTION_2 = 6;
+    static final int FUNCTION = 7;
+
+    final int[] kinds;
+
+    /* the value of constants and the slot of variables */
+    final double[] constants;
+
+    final int[] slots;
+
+    /* the operator or function of a node */
+    final Object[] callables;
+
+    /* the register indices of the arguments */
+    final int[][] args;
+
+    /* the register holding the result of each expression */
+    final int[] roots;
+
+    /* the slots of the variables used by the expressions, each slot occurs only once */
+    final int[] usedSlots;
+
+    private ExpressionGraph(List<Node> nodes, int[] roots) {
+        final int size = nodes.size();
+        this.kinds = new int[size];
+        this.constants = new double[size];
+        this.slots = new int[size];
+        this.callables = new Object[size];
+        this.args = new int[size][];
+        final List<Integer> used = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            final Node n = nodes.get(i);
+            kinds[i] = n.kind;
+            constants[i] = n.constant;
+            slots[i] = n.slot;
+            callables[i] = n.callable;
+            args[i] = n.args;
+            if (n.kind == VARIABLE) {
+                used.add(n.slot);
+            }
+        }
+        this.roots = roots;
+        this.usedSlots = new int[used.size()];
+        for (int i = 0; i < usedSlots.length; i++) {
+            usedSlots[i] = used.get(i);
+        }
+    }
+
+    /**
+     * Merge expressions into a graph
+     * @param programs the tokens of the expressions in reverse polish notation
+     * @param variableSlots the slots of the variables
+     * @return the graph
+     * @throws IllegalArgumentException if one of the expressions is not well-formed
+     */
+    static ExpressionGraph build(final Token[][] programs, final Map<String, Integer> variableSlots) {
+        final List<Node> nodes = new ArrayList<Node>();
+        final Map<Node, Integer> index = new HashMap<Node, Integer>();
+        final int[] roots = new int[programs.length];
+        final List<Integer> stack = new ArrayList<Integer>();
+        for (int p = 0; p < programs.length; p++) {
+            stack.clear();
+            for (final Token t : programs[p]) {
+                final Node node;
+                switch (t.getType()) {
+                    case Token.TOKEN_NUMBER:
+                        node = new Node(CONSTANT, ((NumberToken) t).getValue(), -1, null, true, new int[0]);
+                        break;
+                    case Token.TOKEN_VARIABLE:
+                        final String name = ((VariableToken) t).getName();
+                        node = new Node(VARIABLE, 0d, variableSlots.get(name), null, true, new int[0]);
+                        break;
+                    case Token.TOKEN_OPERATOR:
+                        final Operator operator = ((OperatorToken) t).getOperator();
+                        if (stack.size() < operator.getNumOperands()) {
+                            throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                        }
+                        final int operatorKind = operator instanceof BinaryOperator ? BINARY_OPERATOR
+                                : operator instanceof UnaryOperator ? UNARY_OPERATOR : OPERATOR;
+                        node = new Node(operatorKind, 0d, -1, operator, operator.isDeterministic(),
+                                pop(stack, operator.getNumOperands()));
+                        break;
+                    case Token.TOKEN_FUNCTION:
+                        final Function function = ((FunctionToken) t).getFunction();
+                        if (stack.size() < function.getNumArguments()) {
+                            throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                        }
+                        final int functionKind = function instanceof Function1 ? FUNCTION_1
+                                : function instanceof Function2 ? FUNCTION_2 : FUNCTION;
+                        node = new Node(functionKind, 0d, -1, function, function.isDeterministic(),
+                                pop(stack, function.getNumArguments()));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected token " + t.getType());
+                }
+                Integer idx = node.shareable ? index.get(node) : null;
+                if (idx == null) {
+                    idx = nodes.size();
+                    nodes.add(node);
+                    if (node.shareable) {
+                        index.put(node, idx);
+                    }
+                }
+                stack.add(idx);
+            }
+            if (stack.size() != 1) {
+                throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+            }
+            roots[p] = stack.get(0);
+        }
+        return new ExpressionGraph(nodes, roots);
+    }
+
+    private static int[] pop(final List<Integer> stack, final int count) {
+        final int[] popped = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            popped[i] = stack.remove(stack.size() - 1);
+        }
+        return popped;
+    }
+
+    /**
+     * @return the number of nodes, i.e. the number of values computed per evaluation
+     */
+    int size() {
+        return kinds.length;
+    }
+
+    /**
+     * @return the number of nodes applying a function or an operator
+     */
+    int getNumOperations() {
+        int count = 0;
+        for (int kind : kinds) {
+            if (kind != CONSTANT && kind != VARIABLE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Evaluate all nodes
+     * @param values the variable values indexed by slot
+     * @param registers receives the value of each node, has to have at least {@link #size()} elements
+     * @param context the context providing the argument arrays of functions and operators taking varargs
+     */
+    void evaluate(final double[] values, final double[] registers, final EvaluationContext context) {
+        for (int i = 0; i < kinds.length; i++) {
+            final int[] a = args[i];
+            switch (kinds[i]) {
+                case CONSTANT:
+                    registers[i] = constants[i];
+                    break;
+                case VARIABLE:
+                    registers[i] = values[slots[i]];
+                    break;
+                case UNARY_OPERATOR:
+                    registers[i] = ((UnaryOperator) callables[i]).apply(registers[a[0]]);
+                    break;
+                case BINARY_OPERATOR:
+                    registers[i] = ((BinaryOperator) callables[i]).apply(registers[a[0]], registers[a[1]]);
+                    break;
+                case FUNCTION_1:
+                    registers[i] = ((Function1) callables[i]).apply(registers[a[0]]);
+                    break;
+                case FUNCTION_2:
+                    registers[i] = ((Function2) callables[i]).apply(registers[a[0]], registers[a[1]]);
+                    break;
+                case OPERATOR:
+                    registers[i] = ((Operator) callables[i]).apply(collect(registers, a, context));
+                    break;
+                case FUNCTION:
+                    registers[i] = ((Function) callables[i]).apply(collect(registers, a, context));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown node kind " + kinds[i]);
+            }
+        }
+    }
+
+    private static double[] collect(final double[] registers, final int[] a, final EvaluationContext context) {
+        final double[] values = context.getArray(a.length);
+        for (int j = 0; j < a.length; j++) {
+            values[j] = registers[a[j]];
+        }
+        return values;
+    }
+
+    /**
+     * A node while building the graph. Nodes are equal if they apply the same operation to the same argument nodes.
+     */
+    private static final class Node {
+        final int kind;
+        final double constant;
+        final int slot;
+        final Object callable;
+        final boolean shareable;
+        final int[] args;
+
+        Node(int kind, double constant, int slot, Object callable, boolean shareable, int[] args) {
+            this.kind = kind;
+            this.constant = constant;
+            this.slot = slot;
+            this.callable = callable;
+            this.shareable = shareable;
+            this.args = args;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) {
+                return false;
+            }
+            final Node other = (Node) o;
+            return kind == other.kind
+                    && Double.doubleToLongBits(constant) == Double.doubleToLongBits(other.constant)
+                    && slot == other.slot
+                    && callable == other.callable
+                    && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            final long bits = Double.doubleToLongBits(constant);
+            int result = kind;
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            result = 31 * result + slot;
+            result = 31 * result + System.identityHashCode(callable);
+            result = 31 * result + Arrays.hashCode(args);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Reads the expressions written by an {@link ExpressionWriter}. Loading an expression this way skips tokenizing and
+ * parsing the expression string, only the evaluation structures are built from the stored tokens. The variable slots
+ * are numbered as in the written expression. The custom functions and operators referenced by the expressions have to
+ * be passed to the reader.
+ * <p>
+ * Files can be memory mapped via {@link #open(File, Collection, Collection)}, in which case the expressions are
+ * decoded directly from the mapped pages.
+ */
+public class ExpressionReader {
+
+    /* the size of the shortest token encoding, an opcode followed by a two byte index */
+    private static final int MIN_TOKEN_SIZE = 3;
+
+    private final ByteBuffer buffer;
+
+    private final Map<String, Function> userFunctions;
+
+    private final Map<String, Operator> userOperators;
+
+    /**
+     * Create a new reader for expressions without custom functions and operators
+     * @param buffer the buffer holding the written expressions starting at its position
+     * @throws IllegalArgumentException if the buffer does not start with a valid header
+     */
+    public ExpressionReader(ByteBuffer buffer) {
+        this(buffer, Collections.<Function>emptyList(), Collections.<Operator>emptyList());
+    }
+
+    /**
+     * Create a new reader
+     * @param buffer the buffer holding the written expressions starting at its position
+     * @param userFunctions the custom functions used by the expressions
+     * @param userOperators the custom operators used by the expressions
+     * @throws IllegalArgumentException if the buffer does not start with a valid header
+     */
+    public ExpressionReader(ByteBuffer buffer, Collection<Function> userFunctions, Collection<Operator> userOperators) {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.userFunctions = new HashMap<String, Function>(userFunctions.size());
+        for (Function f : userFunctions) {
+            this.userFunctions.put(f.getName(), f);
+        }
+        this.userOperators = new HashMap<String, Operator>(userOperators.size());
+        for (Operator op : userOperators) {
+            this.userOperators.put(op.getSymbol() + '/' + op.getNumOperands(), op);
+        }
+        readHeader(this.buffer);
+    }
+
+    /**
+     * Open a file of written expressions by mapping it into memory
+     * @param file the file to read
+     * @param userFunctions the custom functions used by the expressions
+     * @param userOperators the custom operators used by the expressions
+     * @return the reader positioned at the first expression
+     * @throws IOException if the file can not be mapped
+     * @throws IllegalArgumentException if the file does not start with a valid header
+     */
+    public static ExpressionReader open(File file, Collection<Function> userFunctions,
+            Collection<Operator> userOperators) throws IOException {
+        return new ExpressionReader(map(file), userFunctions, userOperators);
+    }
+
+    static ByteBuffer map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            /* the mapping stays valid after the channel has been closed */
+            final FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    static void readHeader(final ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != ExpressionWriter.MAGIC) {
+                throw new IllegalArgumentException("The data does not contain written expressions");
+            }
+            final int version = buffer.getShort() & 0xffff;
+            if (version != ExpressionWriter.VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + version + " of written expressions");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The data does not contain written expressions");
+        }
+    }
+
+    /**
+     * @return true if there are more expressions to read
+     */
+    public boolean hasNext() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Read the next expression
+     * @return the expression
+     * @throws IllegalArgumentException if there are no more expressions, the data is corrupt or the expression uses a
+     *         custom function or operator which has not been passed to the reader
+     */
+    public Expression next() {
+        if (buffer.remaining() < 4) {
+            throw new IllegalArgumentException("No more expressions to read");
+        }
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Truncated expression record");
+        }
+        final ByteBuffer record = buffer.slice();
+        record.limit(length);
+        buffer.position(buffer.position() + length);
+        return read(record);
+    }
+
+    /**
+     * Decode a single expression record
+     * @param record the record's data without the length prefix
+     * @return the expression
+     */
+    Expression read(final ByteBuffer record) {
+        try {
+            final int flags = record.get();
+            final String[] slotNames = new String[record.getShort() & 0xffff];
+            final Set<String> variableNames = new LinkedHashSet<String>(slotNames.length);
+            for (int i = 0; i < slotNames.length; i++) {
+                slotNames[i] = readString(record);
+                variableNames.add(slotNames[i]);
+            }
+            final int numUserFunctionNames = record.getShort() & 0xffff;
+            final Set<String> userFunctionNames = new LinkedHashSet<String>(numUserFunctionNames);
+            for (int i = 0; i < numUserFunctionNames; i++) {
+                userFunctionNames.add(readString(record));
+            }
+            final double[] constants = new double[readCount(record, 8)];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = record.getDouble();
+            }
+            final Object[] references = new Object[record.getShort() & 0xffff];
+            for (int i = 0; i < references.length; i++) {
+                references[i] = readReference(record);
+            }
+            final Token[] tokens = new Token[readCount(record, MIN_TOKEN_SIZE)];
+            for (int i = 0; i < tokens.length; i++) {
+                final int opcode = record.get();
+                switch (opcode) {
+                    case ExpressionWriter.OP_NUMBER:
+                        tokens[i] = new NumberToken(constants[record.getInt()]);
+                        break;
+                    case ExpressionWriter.OP_VARIABLE:
+                        tokens[i] = new VariableToken(slotNames[record.getShort() & 0xffff]);
+                        break;
+                    case ExpressionWriter.OP_OPERATOR:
+                    case ExpressionWriter.OP_FUNCTION:
+                        final Object reference = references[record.getShort() & 0xffff];
+                        if ((opcode == ExpressionWriter.OP_OPERATOR) != (reference instanceof Operator)) {
+                            throw new IllegalArgumentException("Corrupt expression record");
+                        }
+                        tokens[i] = reference instanceof Operator ? new OperatorToken((Operator) reference)
+                                : new FunctionToken((Function) reference);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Corrupt expression record");
+                }
+            }
+            return new Expression(tokens, userFunctionNames, variableNames,
+                    (flags & ExpressionWriter.FLAG_COMPILED) != 0,
+                    (flags & ExpressionWriter.FLAG_ELIMINATE_COMMON_SUBEXPRESSIONS) != 0,
+                    (flags & ExpressionWriter.FLAG_INCREMENTAL) != 0);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated expression record");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupt expression record");
+        }
+    }
+
+    private Object readReference(final ByteBuffer record) {
+        final int kind = record.get();
+        final String name = readString(record);
+        final int numArguments = record.get() & 0xff;
+        switch (kind) {
+            case ExpressionWriter.REF_BUILTIN_FUNCTION:
+                final Function builtin = Functions.getBuiltinFunction(name);
+                if (builtin == null || builtin.getNumArguments() != numArguments) {
+                    throw new IllegalArgumentException("Unknown builtin function '" + name + "'");
+                }
+                return builtin;
+            case ExpressionWriter.REF_FUNCTION:
+                final Function f = userFunctions.get(name);
+                if (f == null || f.getNumArguments() != numArguments) {
+                    throw new IllegalArgumentException("The function '" + name + "' with " + numArguments +
+                            " arguments has not been passed to the reader");
+                }
+                return f;
+            case ExpressionWriter.REF_BUILTIN_OPERATOR:
+                final Operator builtinOperator = name.length() == 1
+                        ? Operators.getBuiltinOperator(name.charAt(0), numArguments) : null;
+                if (builtinOperator == null) {
+                    throw new IllegalArgumentException("Unknown builtin operator '" + name + "'");
+                }
+                return builtinOperator;
+            case ExpressionWriter.REF_OPERATOR:
+                final Operator op = userOperators.get(name + '/' + numArguments);
+                if (op == null) {
+                    throw new IllegalArgumentException("The operator '" + name + "' with " + numArguments +
+                            " operands has not been passed to the reader");
+                }
+                return op;
+            default:
+                throw new IllegalArgumentException("Corrupt expression record");
+        }
+    }
+
+    /* reads the length of an array, whose elements of at least the given size have to fit into the record */
+    private static int readCount(final ByteBuffer record, final int elementSize) {
+        final int count = record.getInt();
+        if (count < 0 || count > record.remaining() / elementSize) {
+            throw new IllegalArgumentException("Truncated expression record");
+        }
+        return count;
+    }
+
+    private static String readString(final ByteBuffer record) {
+        final byte[] bytes = new byte[record.getShort() & 0xffff];
+        record.get(bytes);
+        return new String(bytes, ExpressionWriter.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.tokenizer.Token;
+
+/**
+ * A set of expressions sharing the same variables which are evaluated together. Sub expressions occurring in more
+ * than one of the expressions are computed only once per evaluation. Instances are created via
+ * {@link ExpressionBuilder#buildAll(String...)}.
+ */
+public final class ExpressionSet {
+
+    private final ExpressionGraph graph;
+
+    private final VariableSlots variables;
+
+    /* the context used by the methods which do not take an explicit context */
+    private final EvaluationContext context;
+
+    /**
+     * Creates a new expression set that is a copy of the existing one. The copy can be evaluated concurrently with the
+     * existing set.
+     *
+     * @param existing the expression set to copy
+     */
+    public ExpressionSet(final ExpressionSet existing) {
+        this.graph = existing.graph;
+        this.variables = existing.variables;
+        this.context = new EvaluationContext(existing.context);
+    }
+
+    ExpressionSet(final Token[][] programs, final Set<String> userFunctionNames, final Set<String> variableNames) {
+        this.variables = new VariableSlots(programs, variableNames, userFunctionNames);
+        this.graph = ExpressionGraph.build(programs, variables.slots);
+        this.context = new EvaluationContext(variables, null);
+    }
+
+    /**
+     * @return the number of expressions in the set
+     */
+    public int size() {
+        return graph.roots.length;
+    }
+
+    /**
+     * Get the slot of a variable
+     * @param name the name of the variable
+     * @return the slot which can be passed to {@link #setVariable(int, double)}
+     * @throws IllegalArgumentException if the expressions do not know a variable with that name
+     */
+    public int slotOf(final String name) {
+        return variables.slotOf(name);
+    }
+
+    /**
+     * Get the names of the variables known to the expressions, i.e. the declared variables and the builtin constants
+     * @return an unmodifiable set of the variable names
+     */
+    public Set<String> getVariableNames() {
+        return variables.slots.keySet();
+    }
+
+    /**
+     * Set the value of a variable using its slot
+     * @param slot the slot of the variable as returned by {@link #slotOf(String)}
+     * @param value the value of the variable
+     * @return the ExpressionSet instance
+     */
+    public ExpressionSet setVariable(final int slot, final double value) {
+        this.context.setVariable(slot, value);
+        return this;
+    }
+
+    /**
+     * Set the value of a variable
+     * @param name the name of the variable
+     * @param value the value of the variable
+     * @return the ExpressionSet instance
+     */
+    public ExpressionSet setVariable(final String name, final double value) {
+        this.context.setVariable(name, value);
+        return this;
+    }
+
+    public ExpressionSet setVariables(final Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Create a new context for evaluating the expressions via {@link #evaluate(EvaluationContext, double[])}. The
+     * context is initialized with the variable values currently set on this set.
+     * @return a new {@link EvaluationContext}
+     */
+    public EvaluationContext newContext() {
+        return new EvaluationContext(this.context);
+    }
+
+    /**
+     * Evaluate all expressions
+     * @return the results in the order the expressions were passed to the builder
+     */
+    public double[] evaluate() {
+        return evaluate(new double[size()]);
+    }
+
+    /**
+     * Evaluate all expressions
+     * @param out the array receiving the results in the order the expressions were passed to the builder
+     * @return the out array
+     */
+    public double[] evaluate(final double[] out) {
+        return evaluate(this.context, out);
+    }
+
+    /**
+     * Evaluate all expressions using the variable values set on the given context. Each thread evaluating the set
+     * concurrently needs its own context.
+     * @param context the context created via {@link #newContext()}
+     * @param out the array receiving the results in the order the expressions were passed to the builder
+     * @return the out array
+     */
+    public double[] evaluate(final EvaluationContext context, final double[] out) {
+        if (context.variables != this.variables) {
+            throw new IllegalArgumentException("The context has been created for a different expression set");
+        }
+        if (out.length < size()) {
+            throw new IllegalArgumentException("The result array has to hold " + size() + " values");
+        }
+        variables.checkAssigned(graph.usedSlots, context.assigned);
+        final double[] registers = context.getRegisters(graph.size());
+        graph.evaluate(context.values, registers, context);
+        final int[] roots = graph.roots;
+        for (int i = 0; i < roots.length; i++) {
+            out[i] = registers[roots[i]];
+        }
+        return out;
+    }
+
+    /* the number of values computed per evaluation */
+    int getNodeCount() {
+        return graph.size();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Writes built {@link Expression}s in a compact binary format, so that they can be loaded by an
+ * {@link ExpressionReader} without tokenizing and parsing the expression strings again. Any number of expressions can
+ * be written to the same stream.
+ * <p>
+ * The stream starts with a header holding a magic number and the format version, followed by one record per
+ * expression. A record starts with its length and holds the flags the expression was built with, the variable slot
+ * table, a pool of the numbers, a table of the functions and operators referenced by name and the tokens in reverse
+ * polish notation as opcodes with indices into the pools. Custom functions and operators are only referenced by their
+ * names, so the reader has to be given the same custom functions and operators as the builder. The values of the
+ * variables are not written.
+ */
+public class ExpressionWriter implements Closeable {
+
+    static final int MAGIC = 0x45787034;
+
+    static final int VERSION = 1;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int FLAG_COMPILED = 1;
+    static final int FLAG_ELIMINATE_COMMON_SUBEXPRESSIONS = 2;
+    static final int FLAG_INCREMENTAL = 4;
+
+    static final int OP_NUMBER = 0;
+    static final int OP_VARIABLE = 1;
+    static final int OP_OPERATOR = 2;
+    static final int OP_FUNCTION = 3;
+
+    static final int REF_BUILTIN_FUNCTION = 0;
+    static final int REF_FUNCTION = 1;
+    static final int REF_BUILTIN_OPERATOR = 2;
+    static final int REF_OPERATOR = 3;
+
+    private final DataOutputStream out;
+
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    private long position;
+
+    /**
+     * Create a new writer and write the header
+     * @param out the stream the expressions are written to
+     * @throws IOException if the header can not be written
+     */
+    public ExpressionWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.position = 6;
+    }
+
+    /**
+     * Write an expression
+     * @param expression the expression to write
+     * @throws IOException if the expression can not be written
+     * @throws IllegalArgumentException if the expression is too large for the format
+     */
+    public void write(final Expression expression) throws IOException {
+        record.reset();
+        final DataOutputStream r = recordOut;
+        r.writeByte((expression.isCompiled() ? FLAG_COMPILED : 0)
+                | (expression.isEliminatingCommonSubexpressions() ? FLAG_ELIMINATE_COMMON_SUBEXPRESSIONS : 0)
+                | (expression.isIncremental() ? FLAG_INCREMENTAL : 0));
+        final String[] slotNames = expression.getSlotNames();
+        writeCount(r, slotNames.length);
+        for (String name : slotNames) {
+            writeString(r, name);
+        }
+        final Set<String> userFunctionNames = expression.getUserFunctionNames();
+        writeCount(r, userFunctionNames.size());
+        for (String name : userFunctionNames) {
+            writeString(r, name);
+        }
+
+        /* collect the pools */
+        final Token[] tokens = expression.getTokens();
+        final Map<Long, Integer> constantIndices = new HashMap<Long, Integer>();
+        final List<Double> constants = new ArrayList<Double>();
+        final Map<Object, Integer> referenceIndices = new IdentityHashMap<Object, Integer>();
+        final List<Object> references = new ArrayList<Object>();
+        final Map<String, Integer> slots = new HashMap<String, Integer>();
+        for (int i = 0; i < slotNames.length; i++) {
+            slots.put(slotNames[i], i);
+        }
+        final int[] operands = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            final Token t = tokens[i];
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    final double value = ((NumberToken) t).getValue();
+                    final Long bits = Double.doubleToRawLongBits(value);
+                    Integer index = constantIndices.get(bits);
+                    if (index == null) {
+                        index = constants.size();
+                        constantIndices.put(bits, index);
+                        constants.add(value);
+                    }
+                    operands[i] = index;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    operands[i] = slots.get(((VariableToken) t).getName());
+                    break;
+                case Token.TOKEN_OPERATOR:
+                case Token.TOKEN_FUNCTION:
+                    final Object callable = t.getType() == Token.TOKEN_OPERATOR ? ((OperatorToken) t).getOperator()
+                            : ((FunctionToken) t).getFunction();
+                    Integer reference = referenceIndices.get(callable);
+                    if (reference == null) {
+                        reference = references.size();
+                        referenceIndices.put(callable, reference);
+                        references.add(callable);
+                    }
+                    operands[i] = reference;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unable to write the token " + t);
+            }
+        }
+
+        r.writeInt(constants.size());
+        for (double value : constants) {
+            r.writeDouble(value);
+        }
+        writeCount(r, references.size());
+        for (Object callable : references) {
+            if (callable instanceof Operator) {
+                final Operator operator = (Operator) callable;
+                r.writeByte(Operators.getBuiltinIndex(operator) >= 0 ? REF_BUILTIN_OPERATOR : REF_OPERATOR);
+                writeString(r, operator.getSymbol());
+                r.writeByte(operator.getNumOperands());
+            } else {
+                final Function function = (Function) callable;
+                r.writeByte(Functions.getBuiltinIndex(function) >= 0 ? REF_BUILTIN_FUNCTION : REF_FUNCTION);
+                writeString(r, function.getName());
+                r.writeByte(function.getNumArguments());
+            }
+        }
+        r.writeInt(tokens.length);
+        for (int i = 0; i < tokens.length; i++) {
+            switch (tokens[i].getType()) {
+                case Token.TOKEN_NUMBER:
+                    r.writeByte(OP_NUMBER);
+                    r.writeInt(operands[i]);
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    r.writeByte(OP_VARIABLE);
+                    r.writeShort(operands[i]);
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    r.writeByte(OP_OPERATOR);
+                    r.writeShort(operands[i]);
+                    break;
+                default:
+                    r.writeByte(OP_FUNCTION);
+                    r.writeShort(operands[i]);
+                    break;
+            }
+        }
+        r.flush();
+        out.writeInt(record.size());
+        record.writeTo(out);
+        position += 4 + record.size();
+    }
+
+    /**
+     * @return the number of bytes written so far, which is the offset of the next expression's record
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Flush the underlying stream
+     * @throws IOException if the stream can not be flushed
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Close the underlying stream
+     * @throws IOException if the stream can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static void writeCount(final DataOutputStream out, final int count) throws IOException {
+        if (count > 0xffff) {
+            throw new IllegalArgumentException("The expression has too many variables, functions or operators to be written");
+        }
+        out.writeShort(count);
+    }
+
+    static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeCount(out, bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A graph of named formulas which can use the values of other formulas as variables, like the cells of a spreadsheet.
+ * A formula is an {@link Expression} built with the names of the formulas it refers to declared as variables, all
+ * other variables it uses are inputs of the graph set via {@link #setVariable(String, double)}.
+ * <p>
+ * Changes are pushed through the graph: setting an input to a new value marks the formulas using it for
+ * recomputation, and {@link #update()} recomputes the marked formulas in topological order, marking the formulas
+ * depending on a formula only if its value actually changed. A tick therefore only evaluates the formulas downstream
+ * of the changed inputs. Circular references are rejected when a formula is defined.
+ * <p>
+ * A graph is not thread safe.
+ */
+public final class FormulaGraph {
+
+    private final Map<String, Formula> formulas = new LinkedHashMap<String, Formula>();
+
+    private final Map<String, Double> inputs = new HashMap<String, Double>();
+
+    /* the formulas referring to a name, whether it is the name of a formula or an input */
+    private final Map<String, Set<Formula>> references = new HashMap<String, Set<Formula>>();
+
+    /* the formulas using an input and the slots of the input in their expressions, rebuilt when the structure
+     * changes */
+    private final Map<String, List<Formula>> consumers = new HashMap<String, List<Formula>>();
+
+    private final PriorityQueue<Formula> pending = new PriorityQueue<Formula>(16, new Comparator<Formula>() {
+        @Override
+        public int compare(Formula a, Formula b) {
+            return a.order - b.order;
+        }
+    });
+
+    private final List<Formula> order = new ArrayList<Formula>();
+
+    private boolean structureChanged;
+
+    /**
+     * Define a formula or replace the definition of an existing one
+     * @param name the name by which other formulas refer to the formula
+     * @param expression the expression computing the formula's value. The graph works on a copy, so the expression
+     *                   can still be used on its own
+     * @return the FormulaGraph instance
+     * @throws IllegalArgumentException if the name has been set as an input or the formula would depend on itself
+     */
+    public FormulaGraph define(final String name, final Expression expression) {
+        if (inputs.containsKey(name)) {
+            throw new IllegalArgumentException("The name '" + name + "' is already used by an input");
+        }
+        final Formula formula = new Formula(name, new Expression(expression));
+        checkCycle(formula);
+        final Formula replaced = formulas.put(name, formula);
+        if (replaced != null) {
+            removeReferences(replaced);
+        }
+        for (String n : formula.names) {
+            Set<Formula> referring = references.get(n);
+            if (referring == null) {
+                referring = new LinkedHashSet<Formula>();
+                references.put(n, referring);
+            }
+            referring.add(formula);
+        }
+        /* the formula itself and the formulas referring to it have to be computed */
+        markPending(formula);
+        markReferring(name);
+        structureChanged = true;
+        return this;
+    }
+
+    /**
+     * Remove a formula. Formulas referring to it use an input of the same name from then on
+     * @param name the name of the formula
+     * @return the FormulaGraph instance
+     * @throws IllegalArgumentException if there is no formula with that name
+     */
+    public FormulaGraph remove(final String name) {
+        final Formula removed = formulas.remove(name);
+        if (removed == null) {
+            throw new IllegalArgumentException("There is no formula named '" + name + "'");
+        }
+        removeReferences(removed);
+        markReferring(name);
+        structureChanged = true;
+        return this;
+    }
+
+    /**
+     * Set the value of an input. Only the formulas using the input are marked for recomputation, and only if the
+     * value differs from the previous one
+     * @param name the name of the input
+     * @param value the value
+     * @return the FormulaGraph instance
+     * @throws IllegalArgumentException if the name refers to a formula
+     */
+    public FormulaGraph setVariable(final String name, final double value) {
+        if (formulas.containsKey(name)) {
+            throw new IllegalArgumentException("The value of the formula '" + name + "' can not be set");
+        }
+        final Double previous = inputs.put(name, value);
+        if (previous != null && Double.doubleToRawLongBits(previous) == Double.doubleToRawLongBits(value)) {
+            return this;
+        }
+        prepare();
+        final List<Formula> users = consumers.get(name);
+        if (users != null) {
+            for (Formula f : users) {
+                f.expression.setVariable(f.slotOf(name), value);
+                markPending(f);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Recompute the formulas affected by the changes since the last update
+     * @return the number of formulas which have been evaluated
+     * @throws IllegalArgumentException if an affected formula uses an input which has not been set
+     */
+    public int update() {
+        prepare();
+        int evaluated = 0;
+        while (!pending.isEmpty()) {
+            final Formula f = pending.peek();
+            for (int i = 0; i < f.sources.length; i++) {
+                if (f.sources[i] != null) {
+                    f.expression.setVariable(f.slots[i], f.sources[i].value);
+                }
+            }
+            final double value = f.expression.evaluate();
+            /* removed only once evaluated, so that an exception leaves the formula pending */
+            pending.poll();
+            f.pending = false;
+            evaluated++;
+            if (!f.evaluated || Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(f.value)) {
+                f.value = value;
+                f.evaluated = true;
+                for (Formula dependent : f.dependents) {
+                    markPending(dependent);
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * Get the value of a formula, recomputing the formulas affected by changes first
+     * @param name the name of the formula
+     * @return the value of the formula
+     * @throws IllegalArgumentException if there is no formula with that name or an affected formula uses an input
+     *         which has not been set
+     */
+    public double getValue(final String name) {
+        final Formula f = formulas.get(name);
+        if (f == null) {
+            throw new IllegalArgumentException("There is no formula named '" + name + "'");
+        }
+        update();
+        return f.value;
+    }
+
+    /**
+     * @return the names of the formulas in the order they have been defined
+     */
+    public Set<String> getFormulaNames() {
+        return Collections.unmodifiableSet(formulas.keySet());
+    }
+
+    /**
+     * @return the names of the formulas in an order in which every formula comes after the formulas it refers to
+     */
+    public List<String> getEvaluationOrder() {
+        prepare();
+        final List<String> names = new ArrayList<String>(order.size());
+        for (Formula f : order) {
+            names.add(f.name);
+        }
+        return names;
+    }
+
+    private void markPending(final Formula f) {
+        if (!f.pending) {
+            f.pending = true;
+            if (!structureChanged) {
+                pending.add(f);
+            }
+        }
+    }
+
+    private void markReferring(final String name) {
+        final Set<Formula> referring = references.get(name);
+        if (referring != null) {
+            for (Formula f : referring) {
+                markPending(f);
+            }
+        }
+    }
+
+    private void removeReferences(final Formula formula) {
+        for (String n : formula.names) {
+            final Set<Formula> referring = references.get(n);
+            referring.remove(formula);
+            if (referring.isEmpty()) {
+                references.remove(n);
+            }
+        }
+    }
+
+    /* rejects a formula which refers to itself directly or through other formulas, searching breadth first so that
+     * the shortest cycle is reported */
+    private void checkCycle(final Formula formula) {
+        if (!references.containsKey(formula.name) && formula.slotOf(formula.name) < 0) {
+            /* nothing refers to the name, so it can not be part of a cycle */
+            return;
+        }
+        final Map<Formula, Formula> parents = new HashMap<Formula, Formula>();
+        final List<Formula> queue = new ArrayList<Formula>();
+        queue.add(formula);
+        for (int i = 0; i < queue.size(); i++) {
+            final Formula f = queue.get(i);
+            for (String name : f.names) {
+                if (name.equals(formula.name)) {
+                    final List<Formula> path = new ArrayList<Formula>();
+                    for (Formula p = f; p != formula; p = parents.get(p)) {
+                        path.add(p);
+                    }
+                    final StringBuilder cycle = new StringBuilder(formula.name);
+                    for (int j = path.size() - 1; j >= 0; j--) {
+                        cycle.append(" -> ").append(path.get(j).name);
+                    }
+                    cycle.append(" -> ").append(formula.name);
+                    throw new IllegalArgumentException("Circular reference " + cycle);
+                }
+                final Formula next = formulas.get(name);
+                if (next != null && !parents.containsKey(next)) {
+                    parents.put(next, f);
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /* rebuilds the topological order and the links between formulas and inputs after the structure changed. The
+     * order is computed using Kahn's algorithm, which takes the formulas without unresolved dependencies in the
+     * order of their definition */
+    private void prepare() {
+        if (!structureChanged) {
+            return;
+        }
+        order.clear();
+        consumers.clear();
+        for (Formula f : formulas.values()) {
+            f.dependents.clear();
+        }
+        for (Formula f : formulas.values()) {
+            f.unresolved = 0;
+            for (int j = 0; j < f.names.length; j++) {
+                final String name = f.names[j];
+                f.sources[j] = formulas.get(name);
+                if (f.sources[j] != null) {
+                    f.sources[j].dependents.add(f);
+                    f.unresolved++;
+                    continue;
+                }
+                List<Formula> users = consumers.get(name);
+                if (users == null) {
+                    users = new ArrayList<Formula>();
+                    consumers.put(name, users);
+                }
+                users.add(f);
+                final Double value = inputs.get(name);
+                if (value != null) {
+                    /* a no-op for incremental expressions unless the value changed */
+                    f.expression.setVariable(f.slots[j], value);
+                }
+            }
+            if (f.unresolved == 0) {
+                order.add(f);
+            }
+        }
+        /* the definitions do not contain cycles, so every formula is reached */
+        for (int i = 0; i < order.size(); i++) {
+            final Formula f = order.get(i);
+            f.order = i;
+            for (Formula dependent : f.dependents) {
+                if (--dependent.unresolved == 0) {
+                    order.add(dependent);
+                }
+            }
+        }
+        pending.clear();
+        for (Formula f : order) {
+            if (f.pending) {
+                pending.add(f);
+            }
+        }
+        structureChanged = false;
+    }
+
+    private static final class Formula {
+        final String name;
+        final Expression expression;
+        /* the variables used by the expression, their slots and the formulas providing their values, null for
+         * inputs */
+        final String[] names;
+        final int[] slots;
+        final Formula[] sources;
+        final List<Formula> dependents = new ArrayList<Formula>();
+        double value;
+        boolean evaluated;
+        boolean pending;
+        int order;
+        int unresolved;
+
+        Formula(String name, Expression expression) {
+            this.name = name;
+            this.expression = expression;
+            this.slots = expression.getUsedSlots();
+            this.names = new String[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                names[i] = expression.getSlotNames()[slots[i]];
+            }
+            this.sources = new Formula[slots.length];
+        }
+
+        int slotOf(String variable) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(variable)) {
+                    return slots[i];
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+/**
+ * The tokens of an expression prepared for computing the value together with the gradient. Every instruction knows
+ * the partial derivatives of its operation with respect to its operands, either because it is a builtin function or
+ * operator or because the custom one implements {@link Differentiable}. Whether an operand depends on a variable at
+ * all is known up front, so constant sub expressions do not take part in the derivative computations.
+ * <p>
+ * Gradients are computed either in forward mode, carrying the derivatives with respect to all variables alongside
+ * each value on the stack, or in reverse mode, recording the partial derivatives of every instruction on a tape and
+ * propagating the adjoints back from the result to the variables in a single sweep. Forward mode costs a multiple of
+ * the number of variables per instruction, reverse mode a constant amount, so the latter wins for expressions with
+ * many variables. All buffers are taken from the {@link EvaluationContext}, so that repeated evaluations do not
+ * allocate.
+ */
+final class GradientProgram {
+
+    /* builtin functions and operators are coded as in Builtins, all other instructions by their kind */
+    private static final int SKIP = Builtins.NUM_CODES;
+    private static final int NUMBER = Builtins.NUM_CODES + 1;
+    private static final int VARIABLE = Builtins.NUM_CODES + 2;
+    private static final int UNARY = Builtins.NUM_CODES + 3;
+    private static final int BINARY = Builtins.NUM_CODES + 4;
+    private static final int OPERATOR = Builtins.NUM_CODES + 5;
+    private static final int FUNCTION_1 = Builtins.NUM_CODES + 6;
+    private static final int FUNCTION_2 = Builtins.NUM_CODES + 7;
+    private static final int FUNCTION = Builtins.NUM_CODES + 8;
+
+    private static final double LOG_2 = Math.log(2d);
+    private static final double LOG_10 = Math.log(10d);
+
+    private final int[] codes;
+
+    private final int[] arities;
+
+    /* the value of number instructions and the variable index of variable instructions */
+    private final double[] constants;
+
+    private final int[] variables;
+
+    /* the function or operator applied by an instruction */
+    private final Object[] callables;
+
+    /* the partial derivatives of custom functions and operators, null for operands which do not depend on a variable */
+    private final Function[][] partials;
+
+    /* whether the value of an instruction depends on a variable */
+    private final boolean[] dependent;
+
+    /* whether the operands of an instruction depend on a variable, null if none does */
+    private final boolean[][] dependentOperands;
+
+    /* the offsets of the instructions' operands in the tape of partial derivatives and in operandInstructions */
+    private final int[] offsets;
+
+    /* the instructions which computed the operands of each instruction, starting at its offset */
+    private final int[] operandInstructions;
+
+    /* the slots of the variables indexed by variable index */
+    private final int[] variableSlots;
+
+    private final int maxDepth;
+
+    private final int maxArity;
+
+    private GradientProgram(int size, int numOperands, int[] variableSlots, int maxDepth, int maxArity) {
+        this.codes = new int[size];
+        this.arities = new int[size];
+        this.constants = new double[size];
+        this.variables = new int[size];
+        this.callables = new Object[size];
+        this.partials = new Function[size][];
+        this.dependent = new boolean[size];
+        this.dependentOperands = new boolean[size][];
+        this.offsets = new int[size];
+        this.operandInstructions = new int[numOperands];
+        this.variableSlots = variableSlots;
+        this.maxDepth = maxDepth;
+        this.maxArity = maxArity;
+    }
+
+    /**
+     * Prepare the tokens of an expression for computing gradients
+     * @param tokens the tokens in reverse polish notation
+     * @param tokenSlots the variable slots of the tokens, -1 for tokens which are not variables
+     * @return the program
+     * @throws IllegalArgumentException if the expression is not well-formed or contains a custom function or operator
+     *         which does not implement {@link Differentiable} but whose operands depend on a variable
+     */
+    static GradientProgram compile(final Token[] tokens, final int[] tokenSlots) {
+        /* simulate the stack to find its depth and which values depend on variables */
+        final List<Integer> variableSlots = new ArrayList<Integer>();
+        final boolean[] stack = new boolean[tokens.length];
+        int size = 0;
+        int maxDepth = 0;
+        int maxArity = 0;
+        int numOperands = 0;
+        final boolean[] dependent = new boolean[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            final Token t = tokens[i];
+            final int arity;
+            if (t.getType() == Token.TOKEN_OPERATOR) {
+                final Operator operator = ((OperatorToken) t).getOperator();
+                arity = operator.getNumOperands();
+                if (size < arity) {
+                    throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                }
+            } else if (t.getType() == Token.TOKEN_FUNCTION) {
+                final Function function = ((FunctionToken) t).getFunction();
+                arity = function.getNumArguments();
+                if (size < arity) {
+                    throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                }
+            } else if (t.getType() == Token.TOKEN_NUMBER || t.getType() == Token.TOKEN_VARIABLE) {
+                arity = 0;
+            } else {
+                continue;
+            }
+            boolean d = t.getType() == Token.TOKEN_VARIABLE;
+            for (int j = size - arity; j < size; j++) {
+                d |= stack[j];
+            }
+            size -= arity;
+            stack[size++] = d;
+            dependent[i] = d;
+            maxDepth = Math.max(maxDepth, size);
+            maxArity = Math.max(maxArity, arity);
+            numOperands += arity;
+            if (t.getType() == Token.TOKEN_VARIABLE && !variableSlots.contains(tokenSlots[i])) {
+                variableSlots.add(tokenSlots[i]);
+            }
+        }
+        if (size != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+
+        final int[] slots = new int[variableSlots.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = variableSlots.get(i);
+        }
+        final GradientProgram program = new GradientProgram(tokens.length, numOperands, slots, maxDepth,
+                maxArity);
+        final int[] instructions = new int[maxDepth];
+        size = 0;
+        int offset = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token t = tokens[i];
+            final Object callable;
+            final String name;
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    program.codes[i] = NUMBER;
+                    program.constants[i] = ((NumberToken) t).getValue();
+                    instructions[size] = i;
+                    stack[size++] = false;
+                    continue;
+                case Token.TOKEN_VARIABLE:
+                    program.codes[i] = VARIABLE;
+                    program.variables[i] = variableSlots.indexOf(tokenSlots[i]);
+                    program.dependent[i] = true;
+                    instructions[size] = i;
+                    stack[size++] = true;
+                    continue;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) t).getOperator();
+                    callable = operator;
+                    name = operator.getSymbol();
+                    program.arities[i] = operator.getNumOperands();
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function function = ((FunctionToken) t).getFunction();
+                    callable = function;
+                    name = function.getName();
+                    program.arities[i] = function.getNumArguments();
+                    break;
+                default:
+                    program.codes[i] = SKIP;
+                    continue;
+            }
+            final int arity = program.arities[i];
+            final boolean[] operands = new boolean[arity];
+            System.arraycopy(stack, size - arity, operands, 0, arity);
+            System.arraycopy(instructions, size - arity, program.operandInstructions, offset, arity);
+            program.offsets[i] = offset;
+            offset += arity;
+            size -= arity;
+            instructions[size] = i;
+            stack[size++] = dependent[i];
+            program.callables[i] = callable;
+            program.dependent[i] = dependent[i];
+            program.dependentOperands[i] = dependent[i] ? operands : null;
+            final int builtin = callable instanceof Operator ? Builtins.code((Operator) callable)
+                    : Builtins.code((Function) callable);
+            if (builtin != Builtins.NONE) {
+                program.codes[i] = builtin;
+                continue;
+            }
+            if (callable instanceof UnaryOperator) {
+                program.codes[i] = UNARY;
+            } else if (callable instanceof BinaryOperator) {
+                program.codes[i] = BINARY;
+            } else if (callable instanceof Operator) {
+                program.codes[i] = OPERATOR;
+            } else if (callable instanceof Function1) {
+                program.codes[i] = FUNCTION_1;
+            } else if (callable instanceof Function2) {
+                program.codes[i] = FUNCTION_2;
+            } else {
+                program.codes[i] = FUNCTION;
+            }
+            if (dependent[i]) {
+                if (!(callable instanceof Differentiable)) {
+                    throw new IllegalArgumentException("Unable to differentiate '" + name + "' since it does not implement " +
+                            Differentiable.class.getSimpleName());
+                }
+                program.partials[i] = new Function[arity];
+                for (int j = 0; j < arity; j++) {
+                    if (operands[j]) {
+                        program.partials[i][j] = ((Differentiable) callable).getPartialDerivative(j);
+                    }
+                }
+            }
+        }
+        return program;
+    }
+
+    /**
+     * @return the number of variables the expression depends on
+     */
+    int getNumVariables() {
+        return variableSlots.length;
+    }
+
+    /**
+     * Evaluate the expression and its gradient in forward mode
+     * @param values the variable values indexed by slot
+     * @param gradient receives the partial derivatives indexed by slot, zero for slots the expression does not use
+     * @param context the context providing the buffers
+     * @return the value of the expression
+     */
+    double evaluateForward(final double[] values, final double[] gradient, final EvaluationContext context) {
+        final int n = variableSlots.length;
+        final double[] stack = context.getOperands(maxDepth);
+        final double[] tangents = context.getTangents(maxDepth * n);
+        final double[] p = context.getPartials(maxArity);
+        int size = 0;
+        for (int i = 0; i < codes.length; i++) {
+            final int code = codes[i];
+            if (code == SKIP) {
+                continue;
+            }
+            if (code == NUMBER) {
+                stack[size++] = constants[i];
+                continue;
+            }
+            if (code == VARIABLE) {
+                /* the tangent of a variable is the unit vector of its index */
+                final int row = size * n;
+                for (int m = 0; m < n; m++) {
+                    tangents[row + m] = 0d;
+                }
+                tangents[row + variables[i]] = 1d;
+                stack[size++] = values[variableSlots[variables[i]]];
+                continue;
+            }
+            final int base = size - arities[i];
+            stack[base] = apply(i, stack, base, p, 0, context);
+            size = base + 1;
+            if (!dependent[i]) {
+                /* the tangents of values which do not depend on a variable are never read */
+                continue;
+            }
+            final boolean[] operands = dependentOperands[i];
+            final int row = base * n;
+            for (int m = 0; m < n; m++) {
+                double sum = 0d;
+                for (int j = 0; j < operands.length; j++) {
+                    if (operands[j]) {
+                        sum += p[j] * tangents[row + j * n + m];
+                    }
+                }
+                tangents[row + m] = sum;
+            }
+        }
+        for (int s = 0; s < gradient.length; s++) {
+            gradient[s] = 0d;
+        }
+        if (dependent[lastInstruction()]) {
+            for (int m = 0; m < n; m++) {
+                gradient[variableSlots[m]] = tangents[m];
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluate the expression and its gradient in reverse mode
+     * @param values the variable values indexed by slot
+     * @param gradient receives the partial derivatives indexed by slot, zero for slots the expression does not use
+     * @param context the context providing the buffers
+     * @return the value of the expression
+     */
+    double evaluateReverse(final double[] values, final double[] gradient, final EvaluationContext context) {
+        final double[] stack = context.getOperands(maxDepth);
+        final double[] tape = context.getPartials(operandInstructions.length);
+        final double[] adjoints = context.getAdjoints(codes.length);
+        /* the forward sweep computes the values and records the partial derivatives */
+        int size = 0;
+        for (int i = 0; i < codes.length; i++) {
+            final int code = codes[i];
+            if (code == SKIP) {
+                continue;
+            }
+            adjoints[i] = 0d;
+            if (code == NUMBER) {
+                stack[size++] = constants[i];
+            } else if (code == VARIABLE) {
+                stack[size++] = values[variableSlots[variables[i]]];
+            } else {
+                final int base = size - arities[i];
+                stack[base] = apply(i, stack, base, tape, offsets[i], context);
+                size = base + 1;
+            }
+        }
+        for (int s = 0; s < gradient.length; s++) {
+            gradient[s] = 0d;
+        }
+        /* the reverse sweep propagates the adjoints from the result to the variables */
+        adjoints[lastInstruction()] = 1d;
+        for (int i = codes.length - 1; i >= 0; i--) {
+            if (!dependent[i]) {
+                continue;
+            }
+            final double adjoint = adjoints[i];
+            if (codes[i] == VARIABLE) {
+                gradient[variableSlots[variables[i]]] += adjoint;
+                continue;
+            }
+            final boolean[] operands = dependentOperands[i];
+            final int offset = offsets[i];
+            for (int j = 0; j < operands.length; j++) {
+                if (operands[j]) {
+                    adjoints[operandInstructions[offset + j]] += adjoint * tape[offset + j];
+                }
+            }
+        }
+        return stack[0];
+    }
+
+    private int lastInstruction() {
+        int i = codes.length - 1;
+        while (codes[i] == SKIP) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Apply the operation of an instruction and compute its partial derivatives
+     * @param i the index of the instruction
+     * @param v the operand values
+     * @param base the index of the first operand in v
+     * @param p receives the partial derivatives with respect to the operands. The derivatives of custom functions
+     *          and operators are only computed for operands which depend on a variable
+     * @param offset the index of the first derivative in p
+     * @param context the context providing the argument arrays
+     * @return the value
+     */
+    private double apply(final int i, final double[] v, final int base, final double[] p, final int offset,
+            final EvaluationContext context) {
+        final double a = v[base];
+        final double b = arities[i] > 1 ? v[base + 1] : 0d;
+        final double r;
+        switch (codes[i]) {
+            case Builtins.ADD:
+                p[offset] = 1d;
+                p[offset + 1] = 1d;
+                return a + b;
+            case Builtins.SUBTRACT:
+                p[offset] = 1d;
+                p[offset + 1] = -1d;
+                return a - b;
+            case Builtins.MULTIPLY:
+                p[offset] = b;
+                p[offset + 1] = a;
+                return a * b;
+            case Builtins.DIVIDE:
+                if (b == 0d) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                p[offset] = 1d / b;
+                p[offset + 1] = -a / (b * b);
+                return a / b;
+            case Builtins.MODULO:
+                if (b == 0d) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                /* a % b = a - b * trunc(a / b) */
+                final double q = a / b;
+                p[offset] = 1d;
+                p[offset + 1] = -Math.signum(q) * Math.floor(Math.abs(q));
+                return a % b;
+            case Builtins.POWER:
+            case Builtins.POW:
+                r = Math.pow(a, b);
+                p[offset] = b * Math.pow(a, b - 1d);
+                p[offset + 1] = r * Math.log(a);
+                return r;
+            case Builtins.NEGATE:
+                p[offset] = -1d;
+                return -a;
+            case Builtins.PLUS:
+                p[offset] = 1d;
+                return a;
+            case Builtins.SIN:
+                p[offset] = Math.cos(a);
+                break;
+            case Builtins.COS:
+                p[offset] = -Math.sin(a);
+                break;
+            case Builtins.TAN:
+                final double cos = Math.cos(a);
+                p[offset] = 1d / (cos * cos);
+                break;
+            case Builtins.ASIN:
+                p[offset] = 1d / Math.sqrt(1d - a * a);
+                break;
+            case Builtins.ACOS:
+                p[offset] = -1d / Math.sqrt(1d - a * a);
+                break;
+            case Builtins.ATAN:
+                p[offset] = 1d / (1d + a * a);
+                break;
+            case Builtins.SINH:
+                p[offset] = Math.cosh(a);
+                break;
+            case Builtins.COSH:
+                p[offset] = Math.sinh(a);
+                break;
+            case Builtins.TANH:
+                final double tanh = Math.tanh(a);
+                p[offset] = 1d - tanh * tanh;
+                return tanh;
+            case Builtins.ABS:
+                p[offset] = Math.signum(a);
+                break;
+            case Builtins.LOG:
+                p[offset] = 1d / a;
+                break;
+            case Builtins.LOG10:
+                p[offset] = 1d / (a * LOG_10);
+                break;
+            case Builtins.LOG2:
+                p[offset] = 1d / (a * LOG_2);
+                break;
+            case Builtins.LOG1P:
+                p[offset] = 1d / (1d + a);
+                break;
+            case Builtins.EXP:
+                r = Math.exp(a);
+                p[offset] = r;
+                return r;
+            case Builtins.EXPM1:
+                p[offset] = Math.exp(a);
+                break;
+            case Builtins.SQRT:
+                r = Math.sqrt(a);
+                p[offset] = 1d / (2d * r);
+                return r;
+            case Builtins.CBRT:
+                r = Math.cbrt(a);
+                p[offset] = 1d / (3d * r * r);
+                return r;
+            /* piecewise constant, the derivative is zero almost everywhere */
+            case Builtins.FLOOR:
+            case Builtins.CEIL:
+            case Builtins.SIGNUM:
+                p[offset] = 0d;
+                break;
+            case UNARY:
+                if (partials[i] != null) {
+                    p[offset] = call(partials[i][0], v, base, 1, context);
+                }
+                return ((UnaryOperator) callables[i]).apply(a);
+            case BINARY:
+                differentiate(i, v, base, p, offset, context);
+                return ((BinaryOperator) callables[i]).apply(a, b);
+            case OPERATOR:
+                differentiate(i, v, base, p, offset, context);
+                return ((Operator) callables[i]).apply(arguments(v, base, arities[i], context));
+            case FUNCTION_1:
+            case FUNCTION_2:
+            case FUNCTION:
+                differentiate(i, v, base, p, offset, context);
+                return call((Function) callables[i], v, base, arities[i], context);
+            default:
+                throw new IllegalStateException("Unknown instruction " + codes[i]);
+        }
+        /* the remaining builtins are functions of one argument */
+        return ((Function1) callables[i]).apply(a);
+    }
+
+    private void differentiate(final int i, final double[] v, final int base, final double[] p, final int offset,
+            final EvaluationContext context) {
+        final Function[] derivatives = partials[i];
+        if (derivatives == null) {
+            return;
+        }
+        for (int j = 0; j < derivatives.length; j++) {
+            if (derivatives[j] != null) {
+                p[offset + j] = call(derivatives[j], v, base, derivatives.length, context);
+            }
+        }
+    }
+
+    private static double call(final Function f, final double[] v, final int base, final int arity,
+            final EvaluationContext context) {
+        if (f instanceof Function1) {
+            return ((Function1) f).apply(v[base]);
+        }
+        if (f instanceof Function2) {
+            return ((Function2) f).apply(v[base], v[base + 1]);
+        }
+        return f.apply(arguments(v, base, arity, context));
+    }
+
+    private static double[] arguments(final double[] v, final int base, final int arity,
+            final EvaluationContext context) {
+        final double[] args = context.getArray(arity);
+        System.arraycopy(v, base, args, 0, arity);
+        return args;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * An expression compiled for incremental evaluation. Every node of its tree gets an instruction in post order, whose
+ * value is kept in the {@link EvaluationContext} between evaluations. Changing a variable marks the instructions of
+ * the paths from its occurrences to the root as stale, and an evaluation only recomputes the stale
+ * instructions, taking the values of all other operands from the previous evaluation.
+ * <p>
+ * Non deterministic functions and operators and the nodes above them are recomputed on every evaluation.
+ */
+final class IncrementalProgram {
+
+    /* builtin operators are coded as in Builtins, all other instructions by their kind */
+    private static final int NUMBER = Builtins.NUM_CODES;
+    private static final int VARIABLE = Builtins.NUM_CODES + 1;
+    private static final int UNARY = Builtins.NUM_CODES + 2;
+    private static final int BINARY = Builtins.NUM_CODES + 3;
+    private static final int OPERATOR = Builtins.NUM_CODES + 4;
+    private static final int FUNCTION_1 = Builtins.NUM_CODES + 5;
+    private static final int FUNCTION_2 = Builtins.NUM_CODES + 6;
+    private static final int FUNCTION = Builtins.NUM_CODES + 7;
+
+    private final int[] codes;
+
+    /* the constant of a number, unused otherwise */
+    private final double[] constants;
+
+    /* the slot of a variable, unused otherwise */
+    private final int[] slots;
+
+    /* the instructions computing the operands of each instruction */
+    private final int[][] args;
+
+    /* the function or operator of each instruction */
+    private final Object[] callables;
+
+    /* the instructions to mark stale when a variable changes, indexed by slot, in ascending order */
+    private final int[][] dependents;
+
+    /* the instructions which are recomputed on every evaluation since they depend on a non deterministic function or
+     * operator */
+    private final boolean[] volatiles;
+
+    private final int firstVolatile;
+
+    private IncrementalProgram(Compiler c, int numSlots) {
+        final int size = c.codes.size();
+        this.codes = new int[size];
+        this.constants = new double[size];
+        this.slots = new int[size];
+        this.args = new int[size][];
+        this.callables = new Object[size];
+        this.volatiles = new boolean[size];
+        final int[] parents = new int[size];
+        int first = size;
+        for (int i = 0; i < size; i++) {
+            codes[i] = c.codes.get(i);
+            constants[i] = c.constants.get(i);
+            slots[i] = c.slots.get(i);
+            args[i] = c.args.get(i);
+            callables[i] = c.callables.get(i);
+            parents[i] = -1;
+            for (int arg : args[i]) {
+                parents[arg] = i;
+                volatiles[i] |= volatiles[arg];
+            }
+            final Object callable = callables[i];
+            if (callable instanceof Operator && !((Operator) callable).isDeterministic()
+                    || callable instanceof Function && !((Function) callable).isDeterministic()) {
+                volatiles[i] = true;
+            }
+            if (volatiles[i] && first == size) {
+                first = i;
+            }
+        }
+        this.firstVolatile = first;
+        final List<TreeSet<Integer>> paths = new ArrayList<TreeSet<Integer>>(numSlots);
+        for (int slot = 0; slot < numSlots; slot++) {
+            paths.add(new TreeSet<Integer>());
+        }
+        for (int i = 0; i < size; i++) {
+            if (codes[i] == VARIABLE) {
+                final TreeSet<Integer> path = paths.get(slots[i]);
+                /* stop where the path joins one already collected */
+                int node = i;
+                while (node != -1 && path.add(node)) {
+                    node = parents[node];
+                }
+            }
+        }
+        this.dependents = new int[numSlots][];
+        for (int slot = 0; slot < numSlots; slot++) {
+            final TreeSet<Integer> path = paths.get(slot);
+            dependents[slot] = new int[path.size()];
+            int j = 0;
+            for (int node : path) {
+                dependents[slot][j++] = node;
+            }
+        }
+    }
+
+    /**
+     * Compile the tokens of an expression. The tokens are processed in order with a stack of the instructions
+     * computing the operands, so there is no recursion regardless of the depth of the expression
+     * @param tokens the tokens in reverse polish notation
+     * @param slots the slots of the variables
+     * @return the program
+     * @throws IllegalArgumentException if the tokens do not form a well-formed expression or use an undeclared
+     *         variable
+     */
+    static IncrementalProgram compile(final Token[] tokens, final Map<String, Integer> slots) {
+        final Compiler compiler = new Compiler(slots);
+        final int[] stack = new int[tokens.length];
+        int size = 0;
+        for (Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack[size++] = compiler.number(((NumberToken) t).getValue());
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    stack[size++] = compiler.variable(((VariableToken) t).getName());
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) t).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (size < numOperands) {
+                        throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    }
+                    size -= numOperands;
+                    stack[size] = compiler.operator(operator, Arrays.copyOfRange(stack, size, size + numOperands));
+                    size++;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function function = ((FunctionToken) t).getFunction();
+                    final int numArguments = function.getNumArguments();
+                    if (size < numArguments) {
+                        throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                    }
+                    size -= numArguments;
+                    stack[size] = compiler.function(function, Arrays.copyOfRange(stack, size, size + numArguments));
+                    size++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token of type " + t.getType());
+            }
+        }
+        if (size != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return new IncrementalProgram(compiler, slots.size());
+    }
+
+    /**
+     * @return the number of instructions, which is the number of values kept between evaluations
+     */
+    int size() {
+        return codes.length;
+    }
+
+    /**
+     * Mark the instructions depending on a variable as stale
+     * @param slot the slot of the variable
+     * @param stale the stale instructions of a context
+     * @return the first instruction which has been marked, or the size of the program if the variable is not used
+     */
+    int invalidate(final int slot, final boolean[] stale) {
+        final int[] nodes = dependents[slot];
+        for (int node : nodes) {
+            stale[node] = true;
+        }
+        return nodes.length == 0 ? codes.length : nodes[0];
+    }
+
+    /**
+     * Evaluate the program, recomputing only the stale instructions
+     * @param values the variable values indexed by slot
+     * @param context the context holding the values of the previous evaluation
+     * @return the result
+     */
+    double evaluate(final double[] values, final EvaluationContext context) {
+        final double[] r = context.getNodeValues(codes.length);
+        final boolean[] stale = context.getStale();
+        for (int i = context.getFirstStale(); i < codes.length; i++) {
+            if (!stale[i]) {
+                continue;
+            }
+            final int[] a = args[i];
+            switch (codes[i]) {
+                case NUMBER:
+                    r[i] = constants[i];
+                    break;
+                case VARIABLE:
+                    r[i] = values[slots[i]];
+                    break;
+                case Builtins.ADD:
+                    r[i] = r[a[0]] + r[a[1]];
+                    break;
+                case Builtins.SUBTRACT:
+                    r[i] = r[a[0]] - r[a[1]];
+                    break;
+                case Builtins.MULTIPLY:
+                    r[i] = r[a[0]] * r[a[1]];
+                    break;
+                case Builtins.DIVIDE:
+                    if (r[a[1]] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    r[i] = r[a[0]] / r[a[1]];
+                    break;
+                case Builtins.MODULO:
+                    if (r[a[1]] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    r[i] = r[a[0]] % r[a[1]];
+                    break;
+                case Builtins.POWER:
+                    r[i] = Math.pow(r[a[0]], r[a[1]]);
+                    break;
+                case Builtins.NEGATE:
+                    r[i] = -r[a[0]];
+                    break;
+                case UNARY:
+                    r[i] = ((UnaryOperator) callables[i]).apply(r[a[0]]);
+                    break;
+                case BINARY:
+                    r[i] = ((BinaryOperator) callables[i]).apply(r[a[0]], r[a[1]]);
+                    break;
+                case OPERATOR:
+                    r[i] = ((Operator) callables[i]).apply(collect(r, a, context));
+                    break;
+                case FUNCTION_1:
+                    r[i] = ((Function1) callables[i]).apply(r[a[0]]);
+                    break;
+                case FUNCTION_2:
+                    r[i] = ((Function2) callables[i]).apply(r[a[0]], r[a[1]]);
+                    break;
+                case FUNCTION:
+                    r[i] = ((Function) callables[i]).apply(collect(r, a, context));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown instruction " + codes[i]);
+            }
+            /* cleared only once computed, so that an exception leaves the remaining instructions stale */
+            stale[i] = volatiles[i];
+        }
+        context.setFirstStale(firstVolatile);
+        return r[codes.length - 1];
+    }
+
+    private static double[] collect(final double[] r, final int[] a, final EvaluationContext context) {
+        final double[] values = context.getArray(a.length);
+        for (int j = 0; j < a.length; j++) {
+            values[j] = r[a[j]];
+        }
+        return values;
+    }
+
+    /**
+     * Emits the instructions in post order, each method returns the index of the instruction computing the value
+     */
+    private static final class Compiler {
+
+        private static final int[] NO_ARGS = new int[0];
+
+        final Map<String, Integer> slotsByName;
+        final List<Integer> codes = new ArrayList<Integer>();
+        final List<Double> constants = new ArrayList<Double>();
+        final List<Integer> slots = new ArrayList<Integer>();
+        final List<int[]> args = new ArrayList<int[]>();
+        final List<Object> callables = new ArrayList<Object>();
+
+        Compiler(Map<String, Integer> slotsByName) {
+            this.slotsByName = slotsByName;
+        }
+
+        int number(double value) {
+            return emit(NUMBER, value, -1, null, NO_ARGS);
+        }
+
+        int variable(String name) {
+            final Integer slot = slotsByName.get(name);
+            if (slot == null) {
+                throw new IllegalArgumentException("The variable '" + name + "' has not been declared");
+            }
+            return emit(VARIABLE, 0d, slot, null, NO_ARGS);
+        }
+
+        int operator(Operator operator, int[] operands) {
+            final int builtin = Builtins.code(operator);
+            if (builtin == Builtins.PLUS) {
+                return operands[0];
+            }
+            if (builtin != Builtins.NONE) {
+                return emit(builtin, 0d, -1, operator, operands);
+            }
+            final int code;
+            if (operands.length == 1) {
+                code = operator instanceof UnaryOperator ? UNARY : OPERATOR;
+            } else {
+                code = operands.length == 2 && operator instanceof BinaryOperator ? BINARY : OPERATOR;
+            }
+            return emit(code, 0d, -1, operator, operands);
+        }
+
+        int function(Function function, int[] arguments) {
+            final int code = function instanceof Function1 ? FUNCTION_1
+                    : function instanceof Function2 ? FUNCTION_2 : FUNCTION;
+            return emit(code, 0d, -1, function, arguments);
+        }
+
+        private int emit(int code, double constant, int slot, Object callable, int[] arguments) {
+            codes.add(code);
+            constants.add(constant);
+            slots.add(slot);
+            args.add(arguments);
+            callables.add(callable);
+            return codes.size() - 1;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.metrics.EvaluationListener;
+
+/**
+ * A custom function reporting its invocations to a listener before delegating to the actual function. Use
+ * {@link #wrap(Function, EvaluationListener)} so that a {@link Function1} or {@link Function2} stays one and the
+ * evaluators keep calling it without an argument array
+ */
+final class InstrumentedFunction extends Function implements Differentiable {
+
+    private final Function delegate;
+
+    private final EvaluationListener listener;
+
+    private InstrumentedFunction(final Function delegate, final EvaluationListener listener) {
+        super(delegate.getName(), delegate.getNumArguments(), delegate.isDeterministic());
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    /**
+     * Wrap a function in an instrumented one of the same arity specific type
+     * @param delegate the function to wrap
+     * @param listener the listener to report the invocations to
+     * @return the instrumented function
+     */
+    static Function wrap(final Function delegate, final EvaluationListener listener) {
+        if (delegate instanceof Function1) {
+            return new Unary((Function1) delegate, listener);
+        }
+        if (delegate instanceof Function2) {
+            return new Binary((Function2) delegate, listener);
+        }
+        return new InstrumentedFunction(delegate, listener);
+    }
+
+    @Override
+    public double apply(double... args) {
+        listener.functionInvoked(delegate);
+        return delegate.apply(args);
+    }
+
+    @Override
+    public Function getPartialDerivative(int argument) {
+        return partialDerivative(delegate, argument);
+    }
+
+    private static Function partialDerivative(final Function delegate, final int argument) {
+        if (!(delegate instanceof Differentiable)) {
+            throw new IllegalArgumentException("Unable to differentiate '" + delegate.getName()
+                    + "' since it does not implement " + Differentiable.class.getSimpleName());
+        }
+        return ((Differentiable) delegate).getPartialDerivative(argument);
+    }
+
+    private static final class Unary extends Function1 implements Differentiable {
+
+        private final Function1 delegate;
+
+        private final EvaluationListener listener;
+
+        Unary(final Function1 delegate, final EvaluationListener listener) {
+            super(delegate.getName(), delegate.isDeterministic());
+            this.delegate = delegate;
+            this.listener = listener;
+        }
+
+        @Override
+        public double apply(double arg) {
+            listener.functionInvoked(delegate);
+            return delegate.apply(arg);
+        }
+
+        @Override
+        public Function getPartialDerivative(int argument) {
+            return partialDerivative(delegate, argument);
+        }
+    }
+
+    private static final class Binary extends Function2 implements Differentiable {
+
+        private final Function2 delegate;
+
+        private final EvaluationListener listener;
+
+        Binary(final Function2 delegate, final EvaluationListener listener) {
+            super(delegate.getName(), delegate.isDeterministic());
+            this.delegate = delegate;
+            this.listener = listener;
+        }
+
+        @Override
+        public double apply(double arg1, double arg2) {
+            listener.functionInvoked(delegate);
+            return delegate.apply(arg1, arg2);
+        }
+
+        @Override
+        public Function getPartialDerivative(int argument) {
+            return partialDerivative(delegate, argument);
+        }
+    }
+}
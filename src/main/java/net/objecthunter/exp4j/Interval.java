@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+/**
+ * A closed range of values as used by {@link Expression#evaluateRange(java.util.Map)}. The bounds may be infinite.
+ * An interval without any values, e.g. the result of taking the logarithm of a negative range, is empty.
+ */
+public final class Interval {
+
+    /**
+     * The interval containing all values
+     */
+    public static final Interval ENTIRE = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+    /**
+     * The interval containing no values
+     */
+    public static final Interval EMPTY = new Interval(Double.NaN, Double.NaN);
+
+    private final double lower;
+
+    private final double upper;
+
+    private Interval(double lower, double upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Create a new interval
+     * @param lower the lower bound
+     * @param upper the upper bound
+     * @return the interval containing all values between the bounds including the bounds themselves
+     * @throws IllegalArgumentException if the lower bound is greater than the upper bound or a bound is NaN
+     */
+    public static Interval of(double lower, double upper) {
+        if (!(lower <= upper)) {
+            throw new IllegalArgumentException("Invalid interval [" + lower + ", " + upper + "]");
+        }
+        return new Interval(lower, upper);
+    }
+
+    /**
+     * Create an interval containing a single value
+     * @param value the value
+     * @return the interval, empty if the value is NaN
+     */
+    public static Interval point(double value) {
+        return Double.isNaN(value) ? EMPTY : new Interval(value, value);
+    }
+
+    /* creates the interval without checking the bounds, any NaN bound means an empty interval */
+    static Interval create(double lower, double upper) {
+        return Double.isNaN(lower) || Double.isNaN(upper) ? EMPTY : new Interval(lower, upper);
+    }
+
+    /**
+     * @return the lower bound, NaN if the interval is empty
+     */
+    public double getLower() {
+        return lower;
+    }
+
+    /**
+     * @return the upper bound, NaN if the interval is empty
+     */
+    public double getUpper() {
+        return upper;
+    }
+
+    /**
+     * @return true if the interval does not contain any values
+     */
+    public boolean isEmpty() {
+        return Double.isNaN(lower);
+    }
+
+    /**
+     * Check if a value lies within the interval
+     * @param value the value to check
+     * @return true if the value is within the bounds
+     */
+    public boolean contains(double value) {
+        return lower <= value && value <= upper;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Interval)) {
+            return false;
+        }
+        final Interval other = (Interval) obj;
+        return Double.compare(lower, other.lower) == 0 && Double.compare(upper, other.upper) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        final long l = Double.doubleToLongBits(lower);
+        final long u = Double.doubleToLongBits(upper);
+        return 31 * (int) (l ^ (l >>> 32)) + (int) (u ^ (u >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "[]" : "[" + lower + ", " + upper + "]";
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+/**
+ * Evaluates the tokens of an expression over ranges of variable values using interval arithmetic. The resulting
+ * interval contains every value the expression can take for variable values within the ranges, so it can be used
+ * to decide whether a condition may hold anywhere in a range without evaluating all the values in it.
+ * <p>
+ * The builtin functions and operators take their monotonicity and periodicity into account to keep the bounds
+ * tight. Bounds computed with rounding are widened by one unit in the last place, so that rounding can not make
+ * them too narrow. Values of the operands outside of a function's domain are ignored, since they evaluate to NaN.
+ * Dividing by a range containing zero gives the entire real line, and so does a custom function or operator applied
+ * to anything but single values, since nothing is known about its behaviour.
+ */
+final class IntervalEvaluator {
+
+    private static final double TWO_PI = 2d * Math.PI;
+
+    /* beyond this magnitude the position within the period of sin, cos and tan is too imprecise to rely on */
+    private static final double MAX_PERIODIC_ARGUMENT = 1e6;
+
+    private IntervalEvaluator() {
+    }
+
+    /**
+     * Evaluate the tokens over ranges of variable values
+     * @param tokens the tokens in reverse polish notation
+     * @param tokenSlots the variable slots of the tokens, -1 for tokens which are not variables
+     * @param lower the lower bounds of the variables indexed by slot
+     * @param upper the upper bounds of the variables indexed by slot
+     * @param maxDepth the maximum depth of the stack
+     * @param context the context providing the stack
+     * @return the interval containing all values of the expression
+     * @throws IllegalArgumentException if the expression is not well-formed
+     */
+    static Interval evaluate(final Token[] tokens, final int[] tokenSlots, final double[] lower,
+            final double[] upper, final int maxDepth, final EvaluationContext context) {
+        /* the bounds of the n-th interval on the stack are at 2n and 2n + 1 */
+        final double[] s = context.getOperands(2 * maxDepth);
+        int size = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token t = tokens[i];
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    s[2 * size] = s[2 * size + 1] = ((NumberToken) t).getValue();
+                    size++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    s[2 * size] = lower[tokenSlots[i]];
+                    s[2 * size + 1] = upper[tokenSlots[i]];
+                    size++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) t).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (size < numOperands) {
+                        throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    }
+                    size -= numOperands;
+                    apply(operator, s, 2 * size, numOperands, context);
+                    size++;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function function = ((FunctionToken) t).getFunction();
+                    final int numArguments = function.getNumArguments();
+                    if (size < numArguments) {
+                        throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                    }
+                    size -= numArguments;
+                    apply(function, s, 2 * size, numArguments, context);
+                    size++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (size != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return Interval.create(s[0], s[1]);
+    }
+
+    /* applies a function or operator to the intervals starting at p and stores the result at p */
+    private static void apply(final Object callable, final double[] s, final int p, final int numArgs,
+            final EvaluationContext context) {
+        final int code = callable instanceof Operator ? Builtins.code((Operator) callable)
+                : Builtins.code((Function) callable);
+        if ((code == Builtins.POWER || code == Builtins.POW) && s[p + 2] <= 0d && s[p + 3] >= 0d
+                && (Double.isNaN(s[p]) || Double.isNaN(s[p + 1]))) {
+            /* anything to the power of zero is one, even NaN */
+            s[p] = s[p + 1] = 1d;
+            return;
+        }
+        if (code == Builtins.SIGNUM) {
+            /* signum maps NaN to zero, so zero is included in case the operand is undefined for some values */
+            s[p] = Double.isNaN(s[p]) ? 0d : Math.min(0d, Math.signum(s[p]));
+            s[p + 1] = Double.isNaN(s[p + 1]) ? 0d : Math.max(0d, Math.signum(s[p + 1]));
+            return;
+        }
+        boolean points = true;
+        for (int j = p; j < p + 2 * numArgs; j += 2) {
+            if (Double.isNaN(s[j]) || Double.isNaN(s[j + 1])) {
+                /* empty in, empty out */
+                s[p] = s[p + 1] = Double.NaN;
+                return;
+            }
+            points &= s[j] == s[j + 1];
+        }
+        if (code == Builtins.NONE) {
+            custom(callable, s, p, numArgs, points, context);
+            return;
+        }
+        final double a = s[p];
+        final double b = s[p + 1];
+        final double c = numArgs > 1 ? s[p + 2] : 0d;
+        final double d = numArgs > 1 ? s[p + 3] : 0d;
+        switch (code) {
+            case Builtins.ADD:
+                widen(s, p, a + c, b + d);
+                break;
+            case Builtins.SUBTRACT:
+                widen(s, p, a - d, b - c);
+                break;
+            case Builtins.MULTIPLY:
+                final double ac = product(a, c);
+                final double ad = product(a, d);
+                final double bc = product(b, c);
+                final double bd = product(b, d);
+                widen(s, p, Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)));
+                break;
+            case Builtins.DIVIDE:
+                divide(s, p, a, b, c, d);
+                break;
+            case Builtins.MODULO:
+                modulo(s, p, a, b, c, d);
+                break;
+            case Builtins.POWER:
+            case Builtins.POW:
+                power(s, p, a, b, c, d);
+                if (c <= 0d && d >= 0d) {
+                    /* the base may be undefined for some values, but to the power of zero it is still one */
+                    s[p] = Double.isNaN(s[p]) ? 1d : Math.min(s[p], 1d);
+                    s[p + 1] = Double.isNaN(s[p + 1]) ? 1d : Math.max(s[p + 1], 1d);
+                }
+                break;
+            case Builtins.NEGATE:
+                s[p] = -b;
+                s[p + 1] = -a;
+                break;
+            case Builtins.PLUS:
+                break;
+            case Builtins.SIN:
+                periodic(s, p, a, b, Math.sin(a), Math.sin(b), Math.PI / 2d, -Math.PI / 2d);
+                break;
+            case Builtins.COS:
+                periodic(s, p, a, b, Math.cos(a), Math.cos(b), 0d, Math.PI);
+                break;
+            case Builtins.TAN:
+                if (b - a >= Math.PI || Math.abs(a) > MAX_PERIODIC_ARGUMENT || Math.abs(b) > MAX_PERIODIC_ARGUMENT
+                        || containsPeriodicPoint(a, b, Math.PI / 2d, Math.PI)) {
+                    entire(s, p);
+                } else {
+                    widen(s, p, Math.tan(a), Math.tan(b));
+                }
+                break;
+            /* increasing on the whole real line */
+            case Builtins.ATAN:
+            case Builtins.SINH:
+            case Builtins.TANH:
+            case Builtins.CBRT:
+            case Builtins.EXP:
+            case Builtins.EXPM1:
+                monotonic((Function1) callable, s, p, a, b, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+                break;
+            /* increasing and exact on the bounds */
+            case Builtins.FLOOR:
+            case Builtins.CEIL:
+                s[p] = ((Function1) callable).apply(a);
+                s[p + 1] = ((Function1) callable).apply(b);
+                break;
+            case Builtins.LOG:
+            case Builtins.LOG10:
+            case Builtins.LOG2:
+            case Builtins.SQRT:
+                monotonic((Function1) callable, s, p, a, b, 0d, Double.POSITIVE_INFINITY, true);
+                break;
+            case Builtins.LOG1P:
+                monotonic((Function1) callable, s, p, a, b, -1d, Double.POSITIVE_INFINITY, true);
+                break;
+            case Builtins.ASIN:
+                monotonic((Function1) callable, s, p, a, b, -1d, 1d, true);
+                break;
+            case Builtins.ACOS:
+                monotonic((Function1) callable, s, p, a, b, -1d, 1d, false);
+                break;
+            case Builtins.COSH:
+                if (a >= 0d) {
+                    widen(s, p, Math.cosh(a), Math.cosh(b));
+                } else if (b <= 0d) {
+                    widen(s, p, Math.cosh(b), Math.cosh(a));
+                } else {
+                    s[p] = 1d;
+                    s[p + 1] = Math.nextUp(Math.max(Math.cosh(a), Math.cosh(b)));
+                }
+                break;
+            case Builtins.ABS:
+                if (a >= 0d) {
+                    break;
+                } else if (b <= 0d) {
+                    s[p] = -b;
+                    s[p + 1] = -a;
+                } else {
+                    s[p] = 0d;
+                    s[p + 1] = Math.max(-a, b);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + code);
+        }
+    }
+
+    /* nothing is known about custom functions and operators, unless they are deterministic and applied to single
+     * values */
+    private static void custom(final Object callable, final double[] s, final int p, final int numArgs,
+            final boolean points, final EvaluationContext context) {
+        final boolean deterministic = callable instanceof Operator ? ((Operator) callable).isDeterministic()
+                : ((Function) callable).isDeterministic();
+        if (!points || !deterministic) {
+            entire(s, p);
+            return;
+        }
+        final double[] args = context.getArray(numArgs);
+        for (int j = 0; j < numArgs; j++) {
+            args[j] = s[p + 2 * j];
+        }
+        final double value = callable instanceof Operator ? ((Operator) callable).apply(args)
+                : ((Function) callable).apply(args);
+        s[p] = s[p + 1] = value;
+    }
+
+    private static void entire(final double[] s, final int p) {
+        s[p] = Double.NEGATIVE_INFINITY;
+        s[p + 1] = Double.POSITIVE_INFINITY;
+    }
+
+    /* stores bounds computed with rounding, an undefined bound like inf - inf becomes infinite */
+    private static void widen(final double[] s, final int p, final double lower, final double upper) {
+        s[p] = Double.isNaN(lower) ? Double.NEGATIVE_INFINITY : Math.nextAfter(lower, Double.NEGATIVE_INFINITY);
+        s[p + 1] = Double.isNaN(upper) ? Double.POSITIVE_INFINITY : Math.nextUp(upper);
+    }
+
+    /* the product of two bounds, zero times infinity is zero since a zero bound is attained exactly */
+    private static double product(final double x, final double y) {
+        return x == 0d || y == 0d ? 0d : x * y;
+    }
+
+    private static void divide(final double[] s, final int p, final double a, final double b, final double c,
+            final double d) {
+        if (c <= 0d && d >= 0d) {
+            entire(s, p);
+            return;
+        }
+        final double ac = a / c;
+        final double ad = a / d;
+        final double bc = b / c;
+        final double bd = b / d;
+        widen(s, p, Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)));
+    }
+
+    private static void modulo(final double[] s, final int p, final double a, final double b, final double c,
+            final double d) {
+        /* the remainder has the sign of the dividend and is smaller than the divisor in magnitude */
+        final double max = Math.max(Math.abs(c), Math.abs(d));
+        if ((c > 0d || d < 0d) && -Math.min(Math.abs(c), Math.abs(d)) < a && b < Math.min(Math.abs(c), Math.abs(d))) {
+            /* the dividend is always smaller than the divisor, so it is the remainder */
+            return;
+        }
+        s[p] = a >= 0d ? 0d : Math.max(a, -max);
+        s[p + 1] = b <= 0d ? 0d : Math.min(b, max);
+    }
+
+    private static void power(final double[] s, final int p, final double a, final double b, final double c,
+            final double d) {
+        if (c == d && c == Math.rint(c) && !Double.isInfinite(c)) {
+            integerPower(s, p, a, b, c);
+        } else if (a == Double.NEGATIVE_INFINITY || (a <= 0d && b >= 0d && c < 0d)) {
+            /* an infinite negative base has powers for all exponents, and a zero base to a negative power is
+             * infinite with the sign depending on the sign of the zero */
+            entire(s, p);
+        } else if (a >= 0d) {
+            corners(s, p, a, b, c, d);
+        } else if (Math.floor(d) >= c) {
+            /* negative bases only have real powers for integer exponents, which are bounded by the powers of the
+             * magnitude with either sign */
+            corners(s, p, 0d, Math.max(-a, Math.abs(b)), c, d);
+            s[p] = -s[p + 1];
+        } else if (b >= 0d) {
+            corners(s, p, 0d, b, c, d);
+        } else {
+            s[p] = s[p + 1] = Double.NaN;
+        }
+    }
+
+    /* bounds x^y for x in [a, b] with a >= 0, which is monotonic in both x and y so the extremes are at the corners */
+    private static void corners(final double[] s, final int p, final double a, final double b, final double c,
+            final double d) {
+        final double ac = Math.pow(a, c);
+        final double ad = Math.pow(a, d);
+        final double bc = Math.pow(b, c);
+        final double bd = Math.pow(b, d);
+        if (Double.isNaN(ac) || Double.isNaN(ad) || Double.isNaN(bc) || Double.isNaN(bd)) {
+            /* e.g. 1^inf */
+            s[p] = 0d;
+            s[p + 1] = Double.POSITIVE_INFINITY;
+            return;
+        }
+        widen(s, p, Math.max(0d, Math.min(Math.min(ac, ad), Math.min(bc, bd))),
+                Math.max(Math.max(ac, ad), Math.max(bc, bd)));
+    }
+
+    private static void integerPower(final double[] s, final int p, final double a, final double b, final double n) {
+        if (n == 0d) {
+            s[p] = s[p + 1] = 1d;
+            return;
+        }
+        final double m = Math.abs(n);
+        final double pa = Math.pow(a, m);
+        final double pb = Math.pow(b, m);
+        final double lower;
+        final double upper;
+        if (m % 2d == 1d || a >= 0d) {
+            lower = pa;
+            upper = pb;
+        } else if (b <= 0d) {
+            lower = pb;
+            upper = pa;
+        } else {
+            lower = 0d;
+            upper = Math.max(pa, pb);
+        }
+        if (n > 0d) {
+            widen(s, p, lower, upper);
+        } else if (a > 0d || b < 0d) {
+            widen(s, p, 1d / upper, 1d / lower);
+        } else if (m % 2d == 0d) {
+            /* the base may be zero, which has an infinite even power of either sign */
+            s[p] = Math.nextAfter(1d / upper, Double.NEGATIVE_INFINITY);
+            s[p + 1] = Double.POSITIVE_INFINITY;
+        } else {
+            entire(s, p);
+        }
+    }
+
+    /* bounds sin or cos, which reach their maximum at max + 2k pi and their minimum at min + 2k pi */
+    private static void periodic(final double[] s, final int p, final double a, final double b, final double fa,
+            final double fb, final double max, final double min) {
+        if (b - a >= TWO_PI || Math.abs(a) > MAX_PERIODIC_ARGUMENT || Math.abs(b) > MAX_PERIODIC_ARGUMENT) {
+            s[p] = -1d;
+            s[p + 1] = 1d;
+            return;
+        }
+        widen(s, p, Math.min(fa, fb), Math.max(fa, fb));
+        s[p] = containsPeriodicPoint(a, b, min, TWO_PI) ? -1d : Math.max(-1d, s[p]);
+        s[p + 1] = containsPeriodicPoint(a, b, max, TWO_PI) ? 1d : Math.min(1d, s[p + 1]);
+    }
+
+    /* checks if offset + k * period lies within [a, b] for some k, erring on the side of yes */
+    private static boolean containsPeriodicPoint(final double a, final double b, final double offset,
+            final double period) {
+        final double k = Math.ceil((a - offset) / period - 1e-9);
+        return offset + k * period <= b + 1e-9 * period;
+    }
+
+    private static void monotonic(final Function1 f, final double[] s, final int p, final double a, final double b,
+            final double domainLower, final double domainUpper, final boolean increasing) {
+        final double lower = Math.max(a, domainLower);
+        final double upper = Math.min(b, domainUpper);
+        if (lower > upper) {
+            s[p] = s[p + 1] = Double.NaN;
+        } else if (increasing) {
+            widen(s, p, f.apply(lower), f.apply(upper));
+        } else {
+            widen(s, p, f.apply(upper), f.apply(lower));
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.ast.BinaryOperatorNode;
+import net.objecthunter.exp4j.ast.FunctionNode;
+import net.objecthunter.exp4j.ast.Node;
+import net.objecthunter.exp4j.ast.NumberNode;
+import net.objecthunter.exp4j.ast.UnaryOperatorNode;
+import net.objecthunter.exp4j.ast.VariableNode;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.UnaryOperator;
+
+/**
+ * An abstract syntax tree compiled to a list of three address instructions over a register file, which is laid out as
+ * the constants, followed by the used variables, followed by the temporaries. Temporaries are released as soon as
+ * their value has been consumed by all the nodes reading it, so the number of registers stays small. Evaluation does
+ * not push or pop operands and calls functions and operators with their arguments taken straight from the registers.
+ */
+final class RegisterProgram {
+
+    /* builtin operators are coded as in Builtins, all other instructions by the kind of their callable */
+    private static final int UNARY = Builtins.NUM_CODES;
+    private static final int BINARY = Builtins.NUM_CODES + 1;
+    private static final int OPERATOR = Builtins.NUM_CODES + 2;
+    private static final int FUNCTION_1 = Builtins.NUM_CODES + 3;
+    private static final int FUNCTION_2 = Builtins.NUM_CODES + 4;
+    private static final int FUNCTION = Builtins.NUM_CODES + 5;
+
+    private static final Node[] NO_OPERANDS = new Node[0];
+
+    private final double[] constants;
+
+    /* the slots of the variables in the order of their registers */
+    private final int[] variableSlots;
+
+    private final int numRegisters;
+
+    private final int[] codes;
+
+    private final int[] targets;
+
+    /* the argument registers of each instruction */
+    private final int[][] args;
+
+    /* the function or operator of each instruction */
+    private final Object[] callables;
+
+    private final int result;
+
+    private RegisterProgram(Compiler c, int result) {
+        this.constants = new double[c.constants.size()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = c.constants.get(i);
+        }
+        this.variableSlots = new int[c.variables.size()];
+        for (int i = 0; i < variableSlots.length; i++) {
+            variableSlots[i] = c.variables.get(i);
+        }
+        this.numRegisters = c.numRegisters;
+        final int size = c.codes.size();
+        this.codes = new int[size];
+        this.targets = new int[size];
+        this.args = new int[size][];
+        this.callables = new Object[size];
+        for (int i = 0; i < size; i++) {
+            codes[i] = c.codes.get(i);
+            targets[i] = c.targets.get(i);
+            args[i] = c.args.get(i);
+            callables[i] = c.callables.get(i);
+        }
+        this.result = result;
+    }
+
+    /**
+     * Compile a tree. The nodes are processed in post order with the registers of their operands looked up by
+     * identity, so there is no recursion regardless of the depth of the tree, and a node which is shared by several
+     * parents, as in the derivatives built by the {@link Differentiator}, is computed once. Its register is released
+     * after its last use
+     * @param root the root node of the tree
+     * @param slots the slots of the variables
+     * @return the program
+     * @throws IllegalArgumentException if the tree uses an undeclared variable
+     */
+    static RegisterProgram compile(final Node root, final Map<String, Integer> slots) {
+        final List<Node> nodes = distinctPostOrder(root);
+        final Compiler compiler = new Compiler(slots);
+        /* the leaves get fixed registers in front of the temporaries, the other nodes count their parents */
+        final Map<Node, Integer> uses = new IdentityHashMap<Node, Integer>();
+        for (Node node : nodes) {
+            if (node instanceof NumberNode) {
+                compiler.addConstant(((NumberNode) node).getValue());
+            } else if (node instanceof VariableNode) {
+                compiler.addVariable(((VariableNode) node).getName());
+            }
+            for (Node operand : operands(node)) {
+                final Integer count = uses.get(operand);
+                uses.put(operand, count == null ? 1 : count + 1);
+            }
+        }
+        compiler.numRegisters = compiler.constants.size() + compiler.variables.size();
+        final Map<Node, Integer> registers = new IdentityHashMap<Node, Integer>();
+        for (Node node : nodes) {
+            final int register;
+            if (node instanceof NumberNode) {
+                register = compiler.constantRegisters.get(Double.doubleToLongBits(((NumberNode) node).getValue()));
+            } else if (node instanceof VariableNode) {
+                register = compiler.constants.size()
+                        + compiler.variableRegisters.get(slots.get(((VariableNode) node).getName()));
+            } else {
+                final Node[] operands = operands(node);
+                final int[] arguments = new int[operands.length];
+                for (int i = 0; i < operands.length; i++) {
+                    arguments[i] = registers.get(operands[i]);
+                }
+                if (node instanceof FunctionNode) {
+                    register = compiler.function(((FunctionNode) node).getFunction(), arguments);
+                } else if (node instanceof UnaryOperatorNode) {
+                    register = compiler.operator(((UnaryOperatorNode) node).getOperator(), arguments);
+                } else {
+                    register = compiler.operator(((BinaryOperatorNode) node).getOperator(), arguments);
+                }
+            }
+            registers.put(node, register);
+            /* the root is never consumed, so its register is not released */
+            final Integer count = uses.get(node);
+            compiler.retain(register, count == null ? 1 : count);
+        }
+        return new RegisterProgram(compiler, registers.get(root));
+    }
+
+    /* lists every distinct node once, after its operands from left to right */
+    private static List<Node> distinctPostOrder(final Node root) {
+        final List<Node> nodes = new ArrayList<Node>();
+        final Set<Node> listed = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        final List<Node> stack = new ArrayList<Node>();
+        /* whether the operands of the node on the stack have been pushed already */
+        final List<Boolean> expanded = new ArrayList<Boolean>();
+        stack.add(root);
+        expanded.add(false);
+        while (!stack.isEmpty()) {
+            final Node node = stack.remove(stack.size() - 1);
+            final boolean operandsPushed = expanded.remove(expanded.size() - 1);
+            if (listed.contains(node)) {
+                continue;
+            }
+            final Node[] operands = operands(node);
+            if (operandsPushed || operands.length == 0) {
+                listed.add(node);
+                nodes.add(node);
+                continue;
+            }
+            stack.add(node);
+            expanded.add(true);
+            for (int i = operands.length - 1; i >= 0; i--) {
+                stack.add(operands[i]);
+                expanded.add(false);
+            }
+        }
+        return nodes;
+    }
+
+    private static Node[] operands(final Node node) {
+        if (node instanceof UnaryOperatorNode) {
+            return new Node[] {((UnaryOperatorNode) node).getOperand()};
+        } else if (node instanceof BinaryOperatorNode) {
+            return new Node[] {((BinaryOperatorNode) node).getLeft(), ((BinaryOperatorNode) node).getRight()};
+        } else if (node instanceof FunctionNode) {
+            final FunctionNode function = (FunctionNode) node;
+            return function.getArguments().toArray(new Node[function.getNumArguments()]);
+        }
+        return NO_OPERANDS;
+    }
+
+    /**
+     * @return the size of the register file
+     */
+    int getNumRegisters() {
+        return numRegisters;
+    }
+
+    /**
+     * Evaluate the program
+     * @param values the variable values indexed by slot
+     * @param context the context providing the registers and scratch arrays
+     * @return the result
+     */
+    double evaluate(final double[] values, final EvaluationContext context) {
+        final double[] r = context.getRegisters(numRegisters);
+        System.arraycopy(constants, 0, r, 0, constants.length);
+        final int offset = constants.length;
+        for (int i = 0; i < variableSlots.length; i++) {
+            r[offset + i] = values[variableSlots[i]];
+        }
+        for (int i = 0; i < codes.length; i++) {
+            final int[] a = args[i];
+            switch (codes[i]) {
+                case Builtins.ADD:
+                    r[targets[i]] = r[a[0]] + r[a[1]];
+                    break;
+                case Builtins.SUBTRACT:
+                    r[targets[i]] = r[a[0]] - r[a[1]];
+                    break;
+                case Builtins.MULTIPLY:
+                    r[targets[i]] = r[a[0]] * r[a[1]];
+                    break;
+                case Builtins.DIVIDE:
+                    if (r[a[1]] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    r[targets[i]] = r[a[0]] / r[a[1]];
+                    break;
+                case Builtins.MODULO:
+                    if (r[a[1]] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    r[targets[i]] = r[a[0]] % r[a[1]];
+                    break;
+                case Builtins.POWER:
+                    r[targets[i]] = Math.pow(r[a[0]], r[a[1]]);
+                    break;
+                case Builtins.NEGATE:
+                    r[targets[i]] = -r[a[0]];
+                    break;
+                case UNARY:
+                    r[targets[i]] = ((UnaryOperator) callables[i]).apply(r[a[0]]);
+                    break;
+                case BINARY:
+                    r[targets[i]] = ((BinaryOperator) callables[i]).apply(r[a[0]], r[a[1]]);
+                    break;
+                case OPERATOR:
+                    r[targets[i]] = ((Operator) callables[i]).apply(collect(r, a, context));
+                    break;
+                case FUNCTION_1:
+                    r[targets[i]] = ((Function1) callables[i]).apply(r[a[0]]);
+                    break;
+                case FUNCTION_2:
+                    r[targets[i]] = ((Function2) callables[i]).apply(r[a[0]], r[a[1]]);
+                    break;
+                case FUNCTION:
+                    r[targets[i]] = ((Function) callables[i]).apply(collect(r, a, context));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown instruction " + codes[i]);
+            }
+        }
+        return r[result];
+    }
+
+    private static double[] collect(final double[] r, final int[] a, final EvaluationContext context) {
+        final double[] values = context.getArray(a.length);
+        for (int j = 0; j < a.length; j++) {
+            values[j] = r[a[j]];
+        }
+        return values;
+    }
+
+    /**
+     * Assigns the registers and emits the instructions
+     */
+    private static final class Compiler {
+
+        final Map<String, Integer> slots;
+        final Map<Long, Integer> constantRegisters = new HashMap<Long, Integer>();
+        final List<Double> constants = new ArrayList<Double>();
+        final Map<Integer, Integer> variableRegisters = new HashMap<Integer, Integer>();
+        final List<Integer> variables = new ArrayList<Integer>();
+        final List<Integer> codes = new ArrayList<Integer>();
+        final List<Integer> targets = new ArrayList<Integer>();
+        final List<int[]> args = new ArrayList<int[]>();
+        final List<Object> callables = new ArrayList<Object>();
+        /* released temporaries which can be reused */
+        final List<Integer> free = new ArrayList<Integer>();
+        /* the number of pending reads of each temporary */
+        final Map<Integer, Integer> pending = new HashMap<Integer, Integer>();
+        int numRegisters;
+
+        Compiler(Map<String, Integer> slots) {
+            this.slots = slots;
+        }
+
+        void addConstant(double value) {
+            final Long bits = Double.doubleToLongBits(value);
+            if (!constantRegisters.containsKey(bits)) {
+                constantRegisters.put(bits, constants.size());
+                constants.add(value);
+            }
+        }
+
+        void addVariable(String name) {
+            final Integer slot = slots.get(name);
+            if (slot == null) {
+                throw new IllegalArgumentException("The variable '" + name + "' has not been declared");
+            }
+            if (!variableRegisters.containsKey(slot)) {
+                variableRegisters.put(slot, variables.size());
+                variables.add(slot);
+            }
+        }
+
+        /* returns the register holding the operator's result */
+        int operator(Operator operator, int[] operands) {
+            final int builtin = Builtins.code(operator);
+            if (builtin == Builtins.PLUS) {
+                /* the result is read from the operand's register in place of the operand */
+                consume(operands[0]);
+                return operands[0];
+            }
+            if (builtin != Builtins.NONE) {
+                return emit(builtin, operator, operands);
+            }
+            final int code;
+            if (operands.length == 1) {
+                code = operator instanceof UnaryOperator ? UNARY : OPERATOR;
+            } else {
+                code = operands.length == 2 && operator instanceof BinaryOperator ? BINARY : OPERATOR;
+            }
+            return emit(code, operator, operands);
+        }
+
+        /* returns the register holding the function's result */
+        int function(Function function, int[] arguments) {
+            final int code = function instanceof Function1 ? FUNCTION_1
+                    : function instanceof Function2 ? FUNCTION_2 : FUNCTION;
+            return emit(code, function, arguments);
+        }
+
+        /* records that a register is going to be read the given number of times */
+        void retain(int register, int count) {
+            final Integer reads = pending.get(register);
+            pending.put(register, reads == null ? count : reads + count);
+        }
+
+        /* returns the number of reads left */
+        private int consume(int register) {
+            final int reads = pending.get(register) - 1;
+            pending.put(register, reads);
+            return reads;
+        }
+
+        private void release(int register) {
+            if (consume(register) == 0 && register >= constants.size() + variables.size()) {
+                free.add(register);
+            }
+        }
+
+        private int emit(int code, Object callable, int... arguments) {
+            /* the arguments are consumed, so their temporaries can hold the result once nothing else reads them */
+            for (int argument : arguments) {
+                release(argument);
+            }
+            final int target = free.isEmpty() ? numRegisters++ : free.remove(free.size() - 1);
+            codes.add(code);
+            targets.add(target);
+            args.add(arguments);
+            callables.add(callable);
+            return target;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.constant.Constants;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * The resolution of variable names to the slots of the arrays holding their values, shared by {@link Expression},
+ * {@link ExpressionSet} and their {@link EvaluationContext}s. The declared variables come first, followed by the
+ * builtin constants and the undeclared variables in the order of their occurrence in the tokens.
+ */
+final class VariableSlots {
+
+    final Map<String, Integer> slots;
+
+    final String[] names;
+
+    final Set<String> userFunctionNames;
+
+    VariableSlots(final Token[][] programs, final Set<String> variableNames, final Set<String> userFunctionNames) {
+        this.userFunctionNames = Collections.unmodifiableSet(new HashSet<String>(userFunctionNames));
+        final Map<String, Integer> slots = new HashMap<String, Integer>();
+        for (String name : variableNames) {
+            slots.put(name, slots.size());
+        }
+        for (String name : Constants.getBuiltinConstants().keySet()) {
+            if (!slots.containsKey(name)) {
+                slots.put(name, slots.size());
+            }
+        }
+        for (Token[] tokens : programs) {
+            for (Token t : tokens) {
+                if (t.getType() == Token.TOKEN_VARIABLE && !slots.containsKey(((VariableToken) t).getName())) {
+                    slots.put(((VariableToken) t).getName(), slots.size());
+                }
+            }
+        }
+        this.slots = Collections.unmodifiableMap(slots);
+        this.names = new String[slots.size()];
+        for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+            names[slot.getValue()] = slot.getKey();
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    int slotOf(final String name) {
+        final Integer slot = this.slots.get(name);
+        if (slot == null) {
+            throw new IllegalArgumentException("The variable '" + name + "' has not been declared");
+        }
+        return slot;
+    }
+
+    /* returns -1 for valid names which are not known, there is nothing to set for them */
+    int findSlot(final String name) {
+        final Integer slot = this.slots.get(name);
+        if (slot == null) {
+            if (this.userFunctionNames.contains(name) || Functions.getBuiltinFunction(name) != null) {
+                throw new IllegalArgumentException("The variable name '" + name + "' is invalid. Since there exists a function with the same name");
+            }
+            return -1;
+        }
+        return slot;
+    }
+
+    void checkAssigned(final int[] usedSlots, final boolean[] assigned) {
+        for (final int slot : usedSlots) {
+            if (!assigned[slot]) {
+                throw new IllegalArgumentException("No value has been set for the setVariable '" + names[slot] + "'.");
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Converts between the tokens in reverse polish notation produced by the
+ * {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard} and abstract syntax trees
+ */
+public final class AstBuilder {
+
+    private AstBuilder() {
+    }
+
+    /**
+     * Build the abstract syntax tree of an expression
+     * @param tokens the tokens in reverse polish notation
+     * @return the root node of the tree
+     * @throws IllegalArgumentException if the tokens do not form a well-formed expression
+     */
+    public static Node build(final Token[] tokens) {
+        final List<Node> stack = new ArrayList<Node>();
+        for (final Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack.add(new NumberNode(((NumberToken) t).getValue()));
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    stack.add(new VariableNode(((VariableToken) t).getName()));
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) t).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (stack.size() < numOperands) {
+                        throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    }
+                    if (numOperands == 1) {
+                        stack.add(new UnaryOperatorNode(operator, pop(stack)));
+                    } else if (numOperands == 2) {
+                        final Node right = pop(stack);
+                        stack.add(new BinaryOperatorNode(operator, pop(stack), right));
+                    } else {
+                        throw new IllegalArgumentException("The operator '" + operator.getSymbol() + "' takes " + numOperands + " operands, only 1 or 2 are supported");
+                    }
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function function = ((FunctionToken) t).getFunction();
+                    final int numArguments = function.getNumArguments();
+                    if (stack.size() < numArguments) {
+                        throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                    }
+                    final Node[] arguments = new Node[numArguments];
+                    for (int i = numArguments - 1; i >= 0; i--) {
+                        arguments[i] = pop(stack);
+                    }
+                    stack.add(new FunctionNode(function, arguments));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token of type " + t.getType());
+            }
+        }
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack.get(0);
+    }
+
+    /**
+     * Convert an abstract syntax tree back to tokens
+     * @param root the root node of the tree
+     * @return the tokens in reverse polish notation
+     */
+    public static Token[] toTokens(final Node root) {
+        final List<Node> nodes = postOrder(root);
+        final Token[] tokens = new Token[nodes.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            final Node node = nodes.get(i);
+            if (node instanceof NumberNode) {
+                tokens[i] = new NumberToken(((NumberNode) node).getValue());
+            } else if (node instanceof VariableNode) {
+                tokens[i] = new VariableToken(((VariableNode) node).getName());
+            } else if (node instanceof UnaryOperatorNode) {
+                tokens[i] = new OperatorToken(((UnaryOperatorNode) node).getOperator());
+            } else if (node instanceof BinaryOperatorNode) {
+                tokens[i] = new OperatorToken(((BinaryOperatorNode) node).getOperator());
+            } else {
+                tokens[i] = new FunctionToken(((FunctionNode) node).getFunction());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * List the nodes of a tree in post order, i.e. every node after its operands or arguments from left to right,
+     * which is the order of the tokens in reverse polish notation. The tree is traversed without recursion, so trees
+     * of any depth can be processed by iterating over the list and keeping the results of the operands on a stack
+     * @param root the root node of the tree
+     * @return the nodes in post order
+     */
+    public static List<Node> postOrder(final Node root) {
+        final List<Node> nodes = new ArrayList<Node>();
+        final List<Node> stack = new ArrayList<Node>();
+        stack.add(root);
+        /* visiting the nodes parent first and the children from right to left gives the reversed post order */
+        while (!stack.isEmpty()) {
+            final Node node = pop(stack);
+            nodes.add(node);
+            if (node instanceof UnaryOperatorNode) {
+                stack.add(((UnaryOperatorNode) node).getOperand());
+            } else if (node instanceof BinaryOperatorNode) {
+                stack.add(((BinaryOperatorNode) node).getLeft());
+                stack.add(((BinaryOperatorNode) node).getRight());
+            } else if (node instanceof FunctionNode) {
+                final FunctionNode function = (FunctionNode) node;
+                for (int i = 0; i < function.getNumArguments(); i++) {
+                    stack.add(function.getArgument(i));
+                }
+            }
+        }
+        Collections.reverse(nodes);
+        return nodes;
+    }
+
+    private static Node pop(List<Node> stack) {
+        return stack.remove(stack.size() - 1);
+    }
+}
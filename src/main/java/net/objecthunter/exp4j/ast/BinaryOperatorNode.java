@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * The application of an operator taking two operands
+ */
+public final class BinaryOperatorNode extends Node {
+
+    private final Operator operator;
+
+    private final Node left;
+
+    private final Node right;
+
+    private final int hash;
+
+    /**
+     * Create a new instance
+     * @param operator the operator, has to take two operands
+     * @param left the left operand
+     * @param right the right operand
+     */
+    public BinaryOperatorNode(Operator operator, Node left, Node right) {
+        if (operator.getNumOperands() != 2) {
+            throw new IllegalArgumentException("The operator '" + operator.getSymbol() + "' is not binary");
+        }
+        if (left == null || right == null) {
+            throw new IllegalArgumentException("The operands can not be null");
+        }
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+        this.hash = 31 * (31 * System.identityHashCode(operator) + left.hashCode()) + right.hashCode();
+    }
+
+    /**
+     * @return the operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the left operand
+     */
+    public Node getLeft() {
+        return left;
+    }
+
+    /**
+     * @return the right operand
+     */
+    public Node getRight() {
+        return right;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BinaryOperatorNode && equalTrees(this, (Node) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
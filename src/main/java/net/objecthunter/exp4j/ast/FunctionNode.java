@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.objecthunter.exp4j.function.Function;
+
+/**
+ * The call of a function
+ */
+public final class FunctionNode extends Node {
+
+    private final Function function;
+
+    private final Node[] arguments;
+
+    private final int hash;
+
+    /**
+     * Create a new instance
+     * @param function the function
+     * @param arguments the arguments, their number has to match the function's number of arguments
+     */
+    public FunctionNode(Function function, Node... arguments) {
+        if (function.getNumArguments() != arguments.length) {
+            throw new IllegalArgumentException("The function '" + function.getName() + "' takes " +
+                    function.getNumArguments() + " arguments but got " + arguments.length);
+        }
+        for (Node argument : arguments) {
+            if (argument == null) {
+                throw new IllegalArgumentException("The arguments can not be null");
+            }
+        }
+        this.function = function;
+        this.arguments = arguments.clone();
+        this.hash = 31 * System.identityHashCode(function) + Arrays.hashCode(this.arguments);
+    }
+
+    /**
+     * @return the function
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the number of arguments
+     */
+    public int getNumArguments() {
+        return arguments.length;
+    }
+
+    /**
+     * @param index the index of the argument
+     * @return the argument
+     */
+    public Node getArgument(int index) {
+        return arguments[index];
+    }
+
+    /**
+     * @return an unmodifiable list of the arguments
+     */
+    public List<Node> getArguments() {
+        return Collections.unmodifiableList(Arrays.asList(arguments));
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FunctionNode && equalTrees(this, (Node) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * Writes a tree in infix notation, adding only the parentheses needed to preserve the structure. The tree is written
+ * without recursion: the parts still to be written, either nodes or text, are kept on a stack
+ */
+final class InfixWriter implements NodeVisitor<Void> {
+
+    private final StringBuilder out;
+
+    /* the parts still to be written, the next one on top */
+    private final List<Object> pending = new ArrayList<Object>();
+
+    private InfixWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    static void write(Node node, StringBuilder out) {
+        final InfixWriter writer = new InfixWriter(out);
+        writer.pending.add(node);
+        while (!writer.pending.isEmpty()) {
+            final Object part = writer.pending.remove(writer.pending.size() - 1);
+            if (part instanceof Node) {
+                ((Node) part).accept(writer);
+            } else {
+                out.append((String) part);
+            }
+        }
+    }
+
+    @Override
+    public Void visit(NumberNode node) {
+        final double value = node.getValue();
+        if (Double.isNaN(value)) {
+            /* there is no literal for NaN */
+            out.append("log(-1)");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "1e999" : "(-1e999)");
+        } else if (value < 0 || (value == 0d && 1 / value < 0)) {
+            out.append('(').append(value).append(')');
+        } else {
+            out.append(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(VariableNode node) {
+        out.append(node.getName());
+        return null;
+    }
+
+    @Override
+    public Void visit(UnaryOperatorNode node) {
+        final Operator operator = node.getOperator();
+        /* left associative unary operators are written after their operand, e.g. a factorial */
+        if (operator.isLeftAssociative()) {
+            later(operator.getSymbol());
+            laterOperand(node.getOperand(), true);
+        } else {
+            laterOperand(node.getOperand(), true);
+            out.append(operator.getSymbol());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(BinaryOperatorNode node) {
+        final Operator operator = node.getOperator();
+        /* pushed in reverse order */
+        laterOperand(node.getRight(), needsParentheses(node.getRight(), operator, operator.isLeftAssociative()));
+        later(" " + operator.getSymbol() + " ");
+        laterOperand(node.getLeft(), needsParentheses(node.getLeft(), operator, !operator.isLeftAssociative()));
+        return null;
+    }
+
+    @Override
+    public Void visit(FunctionNode node) {
+        out.append(node.getFunction().getName()).append('(');
+        later(")");
+        for (int i = node.getNumArguments() - 1; i >= 0; i--) {
+            later(node.getArgument(i));
+            if (i > 0) {
+                later(", ");
+            }
+        }
+        return null;
+    }
+
+    private void later(Object part) {
+        pending.add(part);
+    }
+
+    private void laterOperand(Node operand, boolean parentheses) {
+        if (parentheses && (operand instanceof UnaryOperatorNode || operand instanceof BinaryOperatorNode)) {
+            later(")");
+            later(operand);
+            later("(");
+        } else {
+            later(operand);
+        }
+    }
+
+    /* unary operands are always enclosed, binary ones if they bind weaker or equally on the non associative side */
+    private static boolean needsParentheses(Node operand, Operator parent, boolean parenthesizeEqual) {
+        if (operand instanceof UnaryOperatorNode) {
+            return true;
+        }
+        if (operand instanceof BinaryOperatorNode) {
+            final int precedence = ((BinaryOperatorNode) operand).getOperator().getPrecedence();
+            return precedence < parent.getPrecedence() || (parenthesizeEqual && precedence == parent.getPrecedence());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import java.util.List;
+
+/**
+ * A node of the immutable abstract syntax tree of an expression. Trees are created from the tokens produced by the
+ * {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard} via {@link AstBuilder#build(net.objecthunter.exp4j.tokenizer.Token[])}
+ * and are the common input for evaluators and compilers. Nodes are compared structurally, functions and operators by
+ * identity.
+ */
+public abstract class Node {
+
+    Node() {
+    }
+
+    /**
+     * Call the visitor method matching the type of this node
+     * @param visitor the visitor
+     * @param <T> the result type of the visitor
+     * @return the result of the visitor method
+     */
+    public abstract <T> T accept(NodeVisitor<T> visitor);
+
+    /**
+     * @return the expression represented by this tree in infix notation, which can be parsed again using the same
+     *         functions and operators
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        InfixWriter.write(this, sb);
+        return sb.toString();
+    }
+
+    /* compares the trees without recursion: since the number of operands of every node is given by its operator or
+     * function, the trees are equal if their nodes in post order match pairwise */
+    static boolean equalTrees(final Node a, final Node b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.hashCode() != b.hashCode()) {
+            return false;
+        }
+        final List<Node> left = AstBuilder.postOrder(a);
+        final List<Node> right = AstBuilder.postOrder(b);
+        if (left.size() != right.size()) {
+            return false;
+        }
+        for (int i = 0; i < left.size(); i++) {
+            if (!sameNode(left.get(i), right.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameNode(final Node a, final Node b) {
+        if (a instanceof UnaryOperatorNode) {
+            return b instanceof UnaryOperatorNode
+                    && ((UnaryOperatorNode) a).getOperator() == ((UnaryOperatorNode) b).getOperator();
+        } else if (a instanceof BinaryOperatorNode) {
+            return b instanceof BinaryOperatorNode
+                    && ((BinaryOperatorNode) a).getOperator() == ((BinaryOperatorNode) b).getOperator();
+        } else if (a instanceof FunctionNode) {
+            return b instanceof FunctionNode && ((FunctionNode) a).getFunction() == ((FunctionNode) b).getFunction();
+        }
+        /* numbers and variables */
+        return a.equals(b);
+    }
+}
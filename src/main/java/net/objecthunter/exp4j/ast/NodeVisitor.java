@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+/**
+ * A visitor for the nodes of an abstract syntax tree
+ * @param <T> the result type of the visit methods
+ */
+public interface NodeVisitor<T> {
+
+    T visit(NumberNode node);
+
+    T visit(VariableNode node);
+
+    T visit(UnaryOperatorNode node);
+
+    T visit(BinaryOperatorNode node);
+
+    T visit(FunctionNode node);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+/**
+ * A number in an expression
+ */
+public final class NumberNode extends Node {
+
+    private final double value;
+
+    /**
+     * Create a new instance
+     * @param value the value of the number
+     */
+    public NumberNode(double value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the value of the number
+     * @return the value
+     */
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NumberNode
+                && Double.doubleToLongBits(value) == Double.doubleToLongBits(((NumberNode) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        final long bits = Double.doubleToLongBits(value);
+        return (int) (bits ^ (bits >>> 32));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * The application of an operator taking a single operand
+ */
+public final class UnaryOperatorNode extends Node {
+
+    private final Operator operator;
+
+    private final Node operand;
+
+    private final int hash;
+
+    /**
+     * Create a new instance
+     * @param operator the operator, has to take one operand
+     * @param operand the operand
+     */
+    public UnaryOperatorNode(Operator operator, Node operand) {
+        if (operator.getNumOperands() != 1) {
+            throw new IllegalArgumentException("The operator '" + operator.getSymbol() + "' is not unary");
+        }
+        if (operand == null) {
+            throw new IllegalArgumentException("The operand can not be null");
+        }
+        this.operator = operator;
+        this.operand = operand;
+        this.hash = 31 * System.identityHashCode(operator) + operand.hashCode();
+    }
+
+    /**
+     * @return the operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the operand
+     */
+    public Node getOperand() {
+        return operand;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UnaryOperatorNode && equalTrees(this, (Node) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
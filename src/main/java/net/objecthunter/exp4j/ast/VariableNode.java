@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+/**
+ * A variable in an expression
+ */
+public final class VariableNode extends Node {
+
+    private final String name;
+
+    /**
+     * Create a new instance
+     * @param name the name of the variable
+     */
+    public VariableNode(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("The variable name can not be null");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the variable
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VariableNode && name.equals(((VariableNode) o).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.operator.UnaryOperator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Compiles an expression in reverse polish notation into a JVM class. The generated
+ * {@link BytecodeEvaluator#evaluate(double[])} method is straight-line code: the builtin operators are translated to
+ * the corresponding double arithmetic instructions, the builtin functions to direct calls of the {@link Math}
+ * methods, and custom functions and operators are called through the evaluator's fields.
+ */
+public final class BytecodeCompiler {
+
+    private static final String EVALUATOR = "net/objecthunter/exp4j/bytecode/BytecodeEvaluator";
+    private static final String FUNCTION = "net/objecthunter/exp4j/function/Function";
+    private static final String OPERATOR = "net/objecthunter/exp4j/operator/Operator";
+    private static final String FUNCTION1 = "net/objecthunter/exp4j/function/Function1";
+    private static final String FUNCTION2 = "net/objecthunter/exp4j/function/Function2";
+    private static final String UNARY_OPERATOR = "net/objecthunter/exp4j/operator/UnaryOperator";
+    private static final String BINARY_OPERATOR = "net/objecthunter/exp4j/operator/BinaryOperator";
+    private static final String MATH = "java/lang/Math";
+    private static final String UNARY = "(D)D";
+    private static final String BINARY = "(DD)D";
+    private static final String CONSTRUCTOR = "([L" + FUNCTION + ";[L" + OPERATOR + ";)V";
+
+    private static final AtomicLong classCounter = new AtomicLong();
+
+    /* opcodes */
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int DALOAD = 0x31;
+    private static final int AALOAD = 0x32;
+    private static final int DSTORE = 0x39;
+    private static final int DASTORE = 0x52;
+    private static final int DUP = 0x59;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int NEWARRAY = 0xbc;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+    private static final int T_DOUBLE = 7;
+
+    /* the local variable slot of the first spilled argument, 0 is "this" and 1 the variables array */
+    private static final int FIRST_SPILL_LOCAL = 2;
+
+    private final ClassFileWriter writer;
+
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    private final Map<Function, Integer> functionIndex = new IdentityHashMap<Function, Integer>();
+
+    private final Map<Operator, Integer> operatorIndex = new IdentityHashMap<Operator, Integer>();
+
+    private final List<Function> functions = new ArrayList<Function>();
+
+    private final List<Operator> operators = new ArrayList<Operator>();
+
+    private int depth = 0;
+
+    private int maxDepth = 0;
+
+    private int maxSpilled = 0;
+
+    private BytecodeCompiler(String className) {
+        this.writer = new ClassFileWriter(className, EVALUATOR);
+    }
+
+    /**
+     * Compile the tokens of an expression into a {@link BytecodeEvaluator}
+     * @param tokens the tokens of the expression in reverse polish notation
+     * @param variableSlots the index into the array passed to {@link BytecodeEvaluator#evaluate(double[])} for each
+     *                      variable used in the expression
+     * @return a new {@link BytecodeEvaluator} instance
+     * @throws IllegalArgumentException if the expression is not well-formed or too large to compile
+     */
+    public static BytecodeEvaluator compile(final Token[] tokens, final Map<String, Integer> variableSlots) {
+        final String className = "net/objecthunter/exp4j/bytecode/CompiledExpression$" + classCounter.incrementAndGet();
+        final BytecodeCompiler compiler = new BytecodeCompiler(className);
+        final byte[] classFile = compiler.generate(tokens, variableSlots);
+        final EvaluatorClassLoader loader = new EvaluatorClassLoader(BytecodeEvaluator.class.getClassLoader());
+        final Class<?> evaluatorClass = loader.define(className.replace('/', '.'), classFile);
+        try {
+            return (BytecodeEvaluator) evaluatorClass.getConstructor(Function[].class, Operator[].class)
+                    .newInstance(compiler.functions.toArray(new Function[compiler.functions.size()]),
+                            compiler.operators.toArray(new Operator[compiler.operators.size()]));
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to instantiate the compiled expression", e);
+        }
+    }
+
+    private byte[] generate(final Token[] tokens, final Map<String, Integer> variableSlots) {
+        for (final Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    op(LDC2_W);
+                    u2(writer.doubleConstant(((NumberToken) t).getValue()));
+                    push();
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) t).getName();
+                    final Integer slot = variableSlots.get(name);
+                    if (slot == null) {
+                        throw new IllegalArgumentException("No slot has been assigned to the variable '" + name + "'");
+                    }
+                    op(ALOAD_1);
+                    pushInt(slot);
+                    op(DALOAD);
+                    push();
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    generateOperator(((OperatorToken) t).getOperator());
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    generateFunction(((FunctionToken) t).getFunction());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in the expression");
+            }
+        }
+        if (depth != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        op(DRETURN);
+
+        /* a double occupies two stack entries, the extra room is for the array built when calling custom code */
+        final int maxStack = 2 * maxDepth + 6;
+        final int maxLocals = FIRST_SPILL_LOCAL + 2 * maxSpilled;
+        writer.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluate", "([D)D", maxStack, maxLocals, code.toByteArray());
+        generateConstructor();
+        return writer.toByteArray(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL | ClassFileWriter.ACC_SUPER);
+    }
+
+    private void generateConstructor() {
+        final int superConstructor = writer.methodRef(EVALUATOR, "<init>", CONSTRUCTOR);
+        final byte[] constructorCode = new byte[] {
+                (byte) ALOAD_0, (byte) ALOAD_1, (byte) ALOAD_2,
+                (byte) INVOKESPECIAL, (byte) (superConstructor >>> 8), (byte) superConstructor,
+                (byte) RETURN
+        };
+        writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", CONSTRUCTOR, 3, 3, constructorCode);
+    }
+
+    private void generateOperator(final Operator operator) {
+        final int numOperands = operator.getNumOperands();
+        if (depth < numOperands) {
+            throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+        }
+        final int builtin = Operators.getBuiltinIndex(operator);
+        if (builtin >= 0) {
+            generateBuiltinOperator(builtin);
+        } else {
+            Integer idx = operatorIndex.get(operator);
+            if (idx == null) {
+                idx = operators.size();
+                operators.add(operator);
+                operatorIndex.put(operator, idx);
+            }
+            if (operator instanceof BinaryOperator) {
+                generateFixedArityCall("operators", "[L" + OPERATOR + ";", idx, 2, BINARY_OPERATOR);
+            } else if (operator instanceof UnaryOperator) {
+                generateFixedArityCall("operators", "[L" + OPERATOR + ";", idx, 1, UNARY_OPERATOR);
+            } else {
+                generateCall("operators", "[L" + OPERATOR + ";", idx, numOperands, OPERATOR);
+            }
+        }
+        pop(numOperands);
+        push();
+    }
+
+    private void generateBuiltinOperator(final int index) {
+        switch (index) {
+            case Operators.INDEX_ADDITION:
+                op(DADD);
+                break;
+            case Operators.INDEX_UNARYPLUS:
+                /* a no-op */
+                break;
+            case Operators.INDEX_SUBTRACTION:
+                op(DSUB);
+                break;
+            case Operators.INDEX_UNARYMINUS:
+                op(DNEG);
+                break;
+            case Operators.INDEX_MULTIPLICATION:
+                op(DMUL);
+                break;
+            case Operators.INDEX_DIVISION:
+                invokeStatic(EVALUATOR, "divide", BINARY);
+                break;
+            case Operators.INDEX_MODULO:
+                invokeStatic(EVALUATOR, "modulo", BINARY);
+                break;
+            case Operators.INDEX_POWER:
+                invokeStatic(MATH, "pow", BINARY);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown builtin operator " + index);
+        }
+    }
+
+    private void generateFunction(final Function function) {
+        final int numArguments = function.getNumArguments();
+        if (depth < numArguments) {
+            throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+        }
+        final int builtin = Functions.getBuiltinIndex(function);
+        if (builtin >= 0) {
+            generateBuiltinFunction(builtin, function.getName());
+        } else {
+            Integer idx = functionIndex.get(function);
+            if (idx == null) {
+                idx = functions.size();
+                functions.add(function);
+                functionIndex.put(function, idx);
+            }
+            if (function instanceof Function1) {
+                generateFixedArityCall("functions", "[L" + FUNCTION + ";", idx, 1, FUNCTION1);
+            } else if (function instanceof Function2) {
+                generateFixedArityCall("functions", "[L" + FUNCTION + ";", idx, 2, FUNCTION2);
+            } else {
+                generateCall("functions", "[L" + FUNCTION + ";", idx, numArguments, FUNCTION);
+            }
+        }
+        pop(numArguments);
+        push();
+    }
+
+    private void generateBuiltinFunction(final int index, final String name) {
+        switch (index) {
+            case Functions.INDEX_POW:
+                invokeStatic(MATH, "pow", BINARY);
+                break;
+            case Functions.INDEX_LOG2:
+                invokeStatic(EVALUATOR, "log2", UNARY);
+                break;
+            case Functions.INDEX_SGN:
+                invokeStatic(EVALUATOR, "signum", UNARY);
+                break;
+            default:
+                /* the remaining builtins have a java.lang.Math counterpart with the same name */
+                invokeStatic(MATH, name, UNARY);
+                break;
+        }
+    }
+
+    /**
+     * Call the apply(double...) method of a custom function or operator with the topmost values of the operand stack.
+     * The values are spilled to local variables first since the argument array has to be below them on the stack.
+     */
+    private void generateCall(String field, String fieldDescriptor, int idx, int numArgs, String owner) {
+        for (int i = numArgs - 1; i >= 0; i--) {
+            localOp(DSTORE, FIRST_SPILL_LOCAL + 2 * i);
+        }
+        maxSpilled = Math.max(maxSpilled, numArgs);
+        op(ALOAD_0);
+        op(GETFIELD);
+        u2(writer.fieldRef(EVALUATOR, field, fieldDescriptor));
+        pushInt(idx);
+        op(AALOAD);
+        pushInt(numArgs);
+        op(NEWARRAY);
+        u1(T_DOUBLE);
+        for (int i = 0; i < numArgs; i++) {
+            op(DUP);
+            pushInt(i);
+            localOp(DLOAD, FIRST_SPILL_LOCAL + 2 * i);
+            op(DASTORE);
+        }
+        op(INVOKEVIRTUAL);
+        u2(writer.methodRef(owner, "apply", "([D)D"));
+    }
+
+    /**
+     * Call the apply(double) or apply(double, double) method of a {@link Function1}, {@link Function2},
+     * {@link UnaryOperator} or {@link BinaryOperator} with the topmost values of the operand stack. The values are
+     * spilled to local variables and loaded again after the receiver, which avoids allocating an argument array.
+     */
+    private void generateFixedArityCall(String field, String fieldDescriptor, int idx, int numArgs, String owner) {
+        for (int i = numArgs - 1; i >= 0; i--) {
+            localOp(DSTORE, FIRST_SPILL_LOCAL + 2 * i);
+        }
+        maxSpilled = Math.max(maxSpilled, numArgs);
+        op(ALOAD_0);
+        op(GETFIELD);
+        u2(writer.fieldRef(EVALUATOR, field, fieldDescriptor));
+        pushInt(idx);
+        op(AALOAD);
+        op(CHECKCAST);
+        u2(writer.classRef(owner));
+        for (int i = 0; i < numArgs; i++) {
+            localOp(DLOAD, FIRST_SPILL_LOCAL + 2 * i);
+        }
+        op(INVOKEVIRTUAL);
+        u2(writer.methodRef(owner, "apply", numArgs == 1 ? UNARY : BINARY));
+    }
+
+    private void invokeStatic(String owner, String name, String descriptor) {
+        op(INVOKESTATIC);
+        u2(writer.methodRef(owner, name, descriptor));
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            u2(value);
+        } else {
+            op(LDC_W);
+            u2(writer.intConstant(value));
+        }
+    }
+
+    private void localOp(int opcode, int local) {
+        if (local > 0xFF) {
+            op(WIDE);
+            op(opcode);
+            u2(local);
+        } else {
+            op(opcode);
+            u1(local);
+        }
+    }
+
+    private void push() {
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void pop(int count) {
+        depth -= count;
+    }
+
+    private void op(int opcode) {
+        code.write(opcode);
+    }
+
+    private void u1(int value) {
+        code.write(value);
+    }
+
+    private void u2(int value) {
+        code.write(value >>> 8);
+        code.write(value);
+    }
+
+    private static final class EvaluatorClassLoader extends ClassLoader {
+        EvaluatorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
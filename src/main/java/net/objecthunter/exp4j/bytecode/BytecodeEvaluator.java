@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * Base class of the classes generated by the {@link BytecodeCompiler}. An evaluator is stateless and can be used
+ * from multiple threads as long as the custom functions and operators it calls are thread safe.
+ */
+public abstract class BytecodeEvaluator {
+
+    /**
+     * The custom functions called by the generated code
+     */
+    protected final Function[] functions;
+
+    /**
+     * The custom operators called by the generated code
+     */
+    protected final Operator[] operators;
+
+    /**
+     * Create a new instance
+     * @param functions the custom functions used in the expression
+     * @param operators the custom operators used in the expression
+     */
+    protected BytecodeEvaluator(Function[] functions, Operator[] operators) {
+        this.functions = functions;
+        this.operators = operators;
+    }
+
+    /**
+     * Evaluate the expression
+     * @param variables the values of the variables indexed by the slots passed to the {@link BytecodeCompiler}
+     * @return the result of the evaluation
+     */
+    public abstract double evaluate(double[] variables);
+
+    /* The helpers below implement the builtins which need a branch, so that the generated code stays straight-line */
+
+    protected static double divide(double dividend, double divisor) {
+        if (divisor == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        return dividend / divisor;
+    }
+
+    protected static double modulo(double dividend, double divisor) {
+        if (divisor == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        return dividend % divisor;
+    }
+
+    protected static double log2(double arg) {
+        return Math.log(arg) / Math.log(2d);
+    }
+
+    protected static double signum(double arg) {
+        if (arg > 0) {
+            return 1;
+        } else if (arg < 0) {
+            return -1;
+        } else {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal writer for JVM class files. It only supports what the {@link BytecodeCompiler} needs: a constant pool,
+ * methods with a Code attribute and no fields, interfaces or other attributes.
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    /* class file version 50 is Java 6, the same as the library's target */
+    private static final int MAJOR_VERSION = 50;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+    private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+
+    private int poolCount = 1;
+
+    private int methodCount = 0;
+
+    private final int thisClass;
+
+    private final int superClass;
+
+    /**
+     * Create a new writer for a class
+     * @param className the internal name of the class e.g. "net/objecthunter/exp4j/bytecode/Foo"
+     * @param superName the internal name of the super class
+     */
+    ClassFileWriter(String className, String superName) {
+        this.thisClass = classRef(className);
+        this.superClass = classRef(superName);
+    }
+
+    int utf8(String value) {
+        final String key = "U" + value;
+        Integer idx = poolIndex.get(key);
+        if (idx == null) {
+            try {
+                pool.writeByte(CONSTANT_UTF8);
+                pool.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            idx = addEntry(key, 1);
+        }
+        return idx;
+    }
+
+    int classRef(String internalName) {
+        final String key = "C" + internalName;
+        Integer idx = poolIndex.get(key);
+        if (idx == null) {
+            final int name = utf8(internalName);
+            writeEntry(CONSTANT_CLASS, name);
+            idx = addEntry(key, 1);
+        }
+        return idx;
+    }
+
+    int intConstant(int value) {
+        final String key = "I" + value;
+        Integer idx = poolIndex.get(key);
+        if (idx == null) {
+            try {
+                pool.writeByte(CONSTANT_INTEGER);
+                pool.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            idx = addEntry(key, 1);
+        }
+        return idx;
+    }
+
+    int doubleConstant(double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        final String key = "D" + bits;
+        Integer idx = poolIndex.get(key);
+        if (idx == null) {
+            try {
+                pool.writeByte(CONSTANT_DOUBLE);
+                pool.writeLong(bits);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            /* long and double constants take up two entries in the constant pool */
+            idx = addEntry(key, 2);
+        }
+        return idx;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        final String key = "M" + tag + owner + '.' + name + descriptor;
+        Integer idx = poolIndex.get(key);
+        if (idx == null) {
+            final int ownerIdx = classRef(owner);
+            final int nameAndType = nameAndType(name, descriptor);
+            writeEntry(tag, ownerIdx, nameAndType);
+            idx = addEntry(key, 1);
+        }
+        return idx;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        final String key = "N" + name + descriptor;
+        Integer idx = poolIndex.get(key);
+        if (idx == null) {
+            final int nameIdx = utf8(name);
+            final int descIdx = utf8(descriptor);
+            writeEntry(CONSTANT_NAME_AND_TYPE, nameIdx, descIdx);
+            idx = addEntry(key, 1);
+        }
+        return idx;
+    }
+
+    private void writeEntry(int tag, int... indices) {
+        try {
+            pool.writeByte(tag);
+            for (int index : indices) {
+                pool.writeShort(index);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int addEntry(String key, int size) {
+        final int idx = poolCount;
+        poolCount += size;
+        if (poolCount > 0xFFFF) {
+            throw new IllegalArgumentException("Too many constants for a single class");
+        }
+        poolIndex.put(key, idx);
+        return idx;
+    }
+
+    /**
+     * Add a method with a Code attribute to the class
+     * @param access the access flags of the method
+     * @param name the name of the method
+     * @param descriptor the method descriptor
+     * @param maxStack the maximum depth of the operand stack
+     * @param maxLocals the number of local variable slots used
+     * @param code the bytecode of the method
+     */
+    void addMethod(int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code) {
+        if (code.length > 0xFFFF) {
+            throw new IllegalArgumentException("The code of the method '" + name + "' exceeds the JVM's 64KB limit");
+        }
+        if (maxStack > 0xFFFF || maxLocals > 0xFFFF) {
+            throw new IllegalArgumentException("The method '" + name + "' exceeds the JVM's stack or local limits");
+        }
+        final int nameIdx = utf8(name);
+        final int descIdx = utf8(descriptor);
+        final int codeIdx = utf8("Code");
+        try {
+            methods.writeShort(access);
+            methods.writeShort(nameIdx);
+            methods.writeShort(descIdx);
+            methods.writeShort(1); // attributes count
+            methods.writeShort(codeIdx);
+            methods.writeInt(12 + code.length);
+            methods.writeShort(maxStack);
+            methods.writeShort(maxLocals);
+            methods.writeInt(code.length);
+            methods.write(code);
+            methods.writeShort(0); // exception table length
+            methods.writeShort(0); // attributes count
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    /**
+     * Create the class file
+     * @param access the access flags of the class
+     * @return the bytes of the class file
+     */
+    byte[] toByteArray(int access) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(poolBytes.size() + methodBytes.size() + 32);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0); // attributes
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
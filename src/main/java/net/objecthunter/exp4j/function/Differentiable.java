@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * Implemented by custom {@link Function}s and {@link net.objecthunter.exp4j.operator.Operator}s which can supply
+ * their partial derivatives, so that expressions using them can be differentiated
+ */
+public interface Differentiable {
+
+    /**
+     * Get the partial derivative with respect to one of the arguments
+     * @param argument the index of the argument or operand
+     * @return a function taking the same arguments as the differentiated function or operator, which computes the
+     *         partial derivative with respect to the given argument
+     */
+    Function getPartialDerivative(int argument);
+}
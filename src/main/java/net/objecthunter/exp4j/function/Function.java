@@ -25,6 +25,8 @@ public abstract class Function {
 
     protected final int numArguments;
 
+    protected final boolean deterministic;
+
     /**
      * Create a new Function with a given name and number of arguments
      * 
@@ -32,6 +34,19 @@ public abstract class Function {
      * @param numArguments the number of arguments the function takes
      */
     public Function(String name, int numArguments) {
+        this(name, numArguments, false);
+    }
+
+    /**
+     * Create a new Function with a given name and number of arguments
+     * 
+     * @param name the name of the Function
+     * @param numArguments the number of arguments the function takes
+     * @param deterministic set to true if the function always returns the same result for the same arguments and has
+     *                      no side effects. Calls of deterministic functions with constant arguments are evaluated
+     *                      once when the expression is built
+     */
+    public Function(String name, int numArguments, boolean deterministic) {
         if (numArguments < 0) {
             throw new IllegalArgumentException("The number of function arguments can not be less than 0 for '" +
                     name + "'");
@@ -41,7 +56,7 @@ public abstract class Function {
         }
         this.name = name;
         this.numArguments = numArguments;
-
+        this.deterministic = deterministic;
     }
 
     /**
@@ -71,6 +86,15 @@ public abstract class Function {
         return numArguments;
     }
 
+    /**
+     * Check if the function is deterministic i.e. it always returns the same result for the same arguments
+     * 
+     * @return true if the function is deterministic, false otherwise
+     */
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
     /**
      * Method that does the actual calculation of the function value given the arguments
      * 
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * A {@link Function} taking a single argument. The evaluators call {@link #apply(double)} directly with the argument
+ * instead of collecting it into an array first.
+ */
+public abstract class Function1 extends Function {
+
+    /**
+     * Create a new Function with a given name that takes a single argument
+     *
+     * @param name the name of the Function
+     */
+    public Function1(String name) {
+        this(name, false);
+    }
+
+    /**
+     * Create a new Function with a given name that takes a single argument
+     *
+     * @param name the name of the Function
+     * @param deterministic set to true if the function always returns the same result for the same argument and has
+     *                      no side effects
+     * @see Function#Function(String, int, boolean)
+     */
+    public Function1(String name, boolean deterministic) {
+        super(name, 1, deterministic);
+    }
+
+    /**
+     * Method that does the actual calculation of the function value given the argument
+     *
+     * @param arg the argument of the function
+     * @return the result of the function evaluation
+     */
+    public abstract double apply(double arg);
+
+    @Override
+    public final double apply(double... args) {
+        return apply(args[0]);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * A {@link Function} taking two arguments. The evaluators call {@link #apply(double, double)} directly with the
+ * arguments instead of collecting them into an array first.
+ */
+public abstract class Function2 extends Function {
+
+    /**
+     * Create a new Function with a given name that takes two arguments
+     *
+     * @param name the name of the Function
+     */
+    public Function2(String name) {
+        this(name, false);
+    }
+
+    /**
+     * Create a new Function with a given name that takes two arguments
+     *
+     * @param name the name of the Function
+     * @param deterministic set to true if the function always returns the same result for the same arguments and has
+     *                      no side effects
+     * @see Function#Function(String, int, boolean)
+     */
+    public Function2(String name, boolean deterministic) {
+        super(name, 2, deterministic);
+    }
+
+    /**
+     * Method that does the actual calculation of the function value given the arguments
+     *
+     * @param arg1 the first argument of the function
+     * @param arg2 the second argument of the function
+     * @return the result of the function evaluation
+     */
+    public abstract double apply(double arg1, double arg2);
+
+    @Override
+    public final double apply(double... args) {
+        return apply(args[0], args[1]);
+    }
+}
@@ -19,164 +19,168 @@ package net.objecthunter.exp4j.function;
  * Class representing the builtin functions available for use in expressions
  */
 public final class Functions {
-    private static final int INDEX_SIN = 0;
-    private static final int INDEX_COS = 1;
-    private static final int INDEX_TAN = 2;
-    private static final int INDEX_LOG = 3;
-    private static final int INDEX_LOG1P = 4;
-    private static final int INDEX_ABS = 5;
-    private static final int INDEX_ACOS = 6;
-    private static final int INDEX_ASIN = 7;
-    private static final int INDEX_ATAN = 8;
-    private static final int INDEX_CBRT = 9;
-    private static final int INDEX_CEIL = 10;
-    private static final int INDEX_FLOOR = 11;
-    private static final int INDEX_SINH = 12;
-    private static final int INDEX_SQRT = 13;
-    private static final int INDEX_TANH = 14;
-    private static final int INDEX_COSH = 15;
-    private static final int INDEX_POW = 16;
-    private static final int INDEX_EXP = 17;
-    private static final int INDEX_EXPM1 = 18;
-    private static final int INDEX_LOG10 = 19;
-    private static final int INDEX_LOG2 = 20;
-    private static final int INDEX_SGN = 21;
+    /* the indices identify the builtin functions, e.g. to dispatch on them in evaluators, see #getBuiltinIndex */
+    public static final int INDEX_SIN = 0;
+    public static final int INDEX_COS = 1;
+    public static final int INDEX_TAN = 2;
+    public static final int INDEX_LOG = 3;
+    public static final int INDEX_LOG1P = 4;
+    public static final int INDEX_ABS = 5;
+    public static final int INDEX_ACOS = 6;
+    public static final int INDEX_ASIN = 7;
+    public static final int INDEX_ATAN = 8;
+    public static final int INDEX_CBRT = 9;
+    public static final int INDEX_CEIL = 10;
+    public static final int INDEX_FLOOR = 11;
+    public static final int INDEX_SINH = 12;
+    public static final int INDEX_SQRT = 13;
+    public static final int INDEX_TANH = 14;
+    public static final int INDEX_COSH = 15;
+    public static final int INDEX_POW = 16;
+    public static final int INDEX_EXP = 17;
+    public static final int INDEX_EXPM1 = 18;
+    public static final int INDEX_LOG10 = 19;
+    public static final int INDEX_LOG2 = 20;
+    public static final int INDEX_SGN = 21;
 
-    private static final Function[] builtinFunctions = new Function[22];
+    /** the number of builtin functions, their indices range from 0 to this number minus one */
+    public static final int NUM_BUILTIN_FUNCTIONS = 22;
+
+    private static final Function[] builtinFunctions = new Function[NUM_BUILTIN_FUNCTIONS];
 
     static {
-        builtinFunctions[INDEX_SIN] = new Function("sin") {
+        builtinFunctions[INDEX_SIN] = new Function1("sin", true) {
             @Override
-            public double apply(double... args) {
-                return Math.sin(args[0]);
+            public double apply(double arg) {
+                return Math.sin(arg);
             }
         };
-        builtinFunctions[INDEX_COS] = new Function("cos") {
+        builtinFunctions[INDEX_COS] = new Function1("cos", true) {
             @Override
-            public double apply(double... args) {
-                return Math.cos(args[0]);
+            public double apply(double arg) {
+                return Math.cos(arg);
             }
         };
-        builtinFunctions[INDEX_TAN] = new Function("tan") {
+        builtinFunctions[INDEX_TAN] = new Function1("tan", true) {
             @Override
-            public double apply(double... args) {
-                return Math.tan(args[0]);
+            public double apply(double arg) {
+                return Math.tan(arg);
             }
         };
-        builtinFunctions[INDEX_LOG] = new Function("log") {
+        builtinFunctions[INDEX_LOG] = new Function1("log", true) {
             @Override
-            public double apply(double... args) {
-                return Math.log(args[0]);
+            public double apply(double arg) {
+                return Math.log(arg);
             }
         };
-        builtinFunctions[INDEX_LOG2] = new Function("log2") {
+        builtinFunctions[INDEX_LOG2] = new Function1("log2", true) {
             @Override
-            public double apply(double... args) {
-                return Math.log(args[0]) / Math.log(2d);
+            public double apply(double arg) {
+                return Math.log(arg) / Math.log(2d);
             }
         };
-        builtinFunctions[INDEX_LOG10] = new Function("log10") {
+        builtinFunctions[INDEX_LOG10] = new Function1("log10", true) {
             @Override
-            public double apply(double... args) {
-                return Math.log10(args[0]);
+            public double apply(double arg) {
+                return Math.log10(arg);
             }
         };
-        builtinFunctions[INDEX_LOG1P] = new Function("log1p") {
+        builtinFunctions[INDEX_LOG1P] = new Function1("log1p", true) {
             @Override
-            public double apply(double... args) {
-                return Math.log1p(args[0]);
+            public double apply(double arg) {
+                return Math.log1p(arg);
             }
         };
-        builtinFunctions[INDEX_ABS] = new Function("abs") {
+        builtinFunctions[INDEX_ABS] = new Function1("abs", true) {
             @Override
-            public double apply(double... args) {
-                return Math.abs(args[0]);
+            public double apply(double arg) {
+                return Math.abs(arg);
             }
         };
-        builtinFunctions[INDEX_ACOS] = new Function("acos") {
+        builtinFunctions[INDEX_ACOS] = new Function1("acos", true) {
             @Override
-            public double apply(double... args) {
-                return Math.acos(args[0]);
+            public double apply(double arg) {
+                return Math.acos(arg);
             }
         };
-        builtinFunctions[INDEX_ASIN] = new Function("asin") {
+        builtinFunctions[INDEX_ASIN] = new Function1("asin", true) {
             @Override
-            public double apply(double... args) {
-                return Math.asin(args[0]);
+            public double apply(double arg) {
+                return Math.asin(arg);
             }
         };
-        builtinFunctions[INDEX_ATAN] = new Function("atan") {
+        builtinFunctions[INDEX_ATAN] = new Function1("atan", true) {
             @Override
-            public double apply(double... args) {
-                return Math.atan(args[0]);
+            public double apply(double arg) {
+                return Math.atan(arg);
             }
         };
-        builtinFunctions[INDEX_CBRT] = new Function("cbrt") {
+        builtinFunctions[INDEX_CBRT] = new Function1("cbrt", true) {
             @Override
-            public double apply(double... args) {
-                return Math.cbrt(args[0]);
+            public double apply(double arg) {
+                return Math.cbrt(arg);
             }
         };
-        builtinFunctions[INDEX_FLOOR] = new Function("floor") {
+        builtinFunctions[INDEX_FLOOR] = new Function1("floor", true) {
             @Override
-            public double apply(double... args) {
-                return Math.floor(args[0]);
+            public double apply(double arg) {
+                return Math.floor(arg);
             }
         };
-        builtinFunctions[INDEX_SINH] = new Function("sinh") {
+        builtinFunctions[INDEX_SINH] = new Function1("sinh", true) {
             @Override
-            public double apply(double... args) {
-                return Math.sinh(args[0]);
+            public double apply(double arg) {
+                return Math.sinh(arg);
             }
         };
-        builtinFunctions[INDEX_SQRT] = new Function("sqrt") {
+        builtinFunctions[INDEX_SQRT] = new Function1("sqrt", true) {
             @Override
-            public double apply(double... args) {
-                return Math.sqrt(args[0]);
+            public double apply(double arg) {
+                return Math.sqrt(arg);
             }
         };
-        builtinFunctions[INDEX_TANH] = new Function("tanh") {
+        builtinFunctions[INDEX_TANH] = new Function1("tanh", true) {
             @Override
-            public double apply(double... args) {
-                return Math.tanh(args[0]);
+            public double apply(double arg) {
+                return Math.tanh(arg);
             }
         };
-        builtinFunctions[INDEX_COSH] = new Function("cosh") {
+        builtinFunctions[INDEX_COSH] = new Function1("cosh", true) {
             @Override
-            public double apply(double... args) {
-                return Math.cosh(args[0]);
+            public double apply(double arg) {
+                return Math.cosh(arg);
             }
         };
-        builtinFunctions[INDEX_CEIL] = new Function("ceil") {
+        builtinFunctions[INDEX_CEIL] = new Function1("ceil", true) {
             @Override
-            public double apply(double... args) {
-                return Math.ceil(args[0]);
+            public double apply(double arg) {
+                return Math.ceil(arg);
             }
         };
-        builtinFunctions[INDEX_POW] = new Function("pow", 2) {
+        builtinFunctions[INDEX_POW] = new Function2("pow", true) {
             @Override
-            public double apply(double... args) {
-                return Math.pow(args[0], args[1]);
+            public double apply(double arg1, double arg2) {
+                return Math.pow(arg1, arg2);
             }
         };
-        builtinFunctions[INDEX_EXP] = new Function("exp", 1) {
+        builtinFunctions[INDEX_EXP] = new Function1("exp", true) {
             @Override
-            public double apply(double... args) {
-                return Math.exp(args[0]);
+            public double apply(double arg) {
+                return Math.exp(arg);
             }
         };
-        builtinFunctions[INDEX_EXPM1] = new Function("expm1", 1) {
+        builtinFunctions[INDEX_EXPM1] = new Function1("expm1", true) {
             @Override
-            public double apply(double... args) {
-                return Math.expm1(args[0]);
+            public double apply(double arg) {
+                return Math.expm1(arg);
             }
         };
-        builtinFunctions[INDEX_SGN] = new Function("signum", 1) {
+        builtinFunctions[INDEX_SGN] = new Function1("signum", true) {
             @Override
-            public double apply(double... args) {
-                if (args[0] > 0) {
+            public double apply(double arg) {
+                if (arg > 0) {
                     return 1;
-                } else if (args[0] < 0) {
+                } else if (arg < 0) {
                     return -1;
                 } else {
                     return 0;
@@ -241,6 +245,21 @@ public final class Functions {
         }
     }
 
+    /**
+     * Get the index of a builtin function
+     * @param function the function
+     * @return the index of the function, e.g. {@link #INDEX_SIN}, or -1 if it is not one of the builtin functions.
+     *         Functions are compared by identity
+     */
+    public static int getBuiltinIndex(final Function function) {
+        for (int i = 0; i < builtinFunctions.length; i++) {
+            if (builtinFunctions[i] == function) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * @return an array of builtin functions
      */
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.metrics;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.function.Function;
+
+/**
+ * Receives notifications about building and evaluating expressions, e.g. for collecting metrics like
+ * {@link EvaluationMetrics}. A listener is set via {@link net.objecthunter.exp4j.ExpressionBuilder#listener} or
+ * {@link Expression#setListener(EvaluationListener)}. All methods do nothing by default, so implementations only
+ * override the notifications they are interested in. Expressions without a listener use {@link #NONE}, whose empty
+ * methods are removed by the JIT compiler.
+ * <p>
+ * Listeners are called on the threads building and evaluating the expressions, so they have to be thread safe if
+ * expressions are used concurrently, and they should return quickly.
+ */
+public abstract class EvaluationListener {
+
+    /**
+     * The listener ignoring all notifications
+     */
+    public static final EvaluationListener NONE = new EvaluationListener() {
+    };
+
+    /**
+     * Called after an expression string has been parsed and the {@link Expression} has been built
+     * @param expression the expression string
+     * @param nanos the time it took to parse and build the expression in nanoseconds
+     */
+    public void built(String expression, long nanos) {
+    }
+
+    /**
+     * Called if an expression string could not be parsed or built
+     * @param expression the expression string
+     * @param e the exception thrown by the builder
+     */
+    public void buildFailed(String expression, RuntimeException e) {
+    }
+
+    /**
+     * Called after an expression has been evaluated
+     * @param expression the evaluated expression
+     * @param count the number of evaluations, the number of rows for the evaluation of batches
+     */
+    public void evaluated(Expression expression, int count) {
+    }
+
+    /**
+     * Called if the evaluation of an expression failed
+     * @param expression the expression
+     * @param e the exception thrown by the evaluation
+     */
+    public void evaluationFailed(Expression expression, RuntimeException e) {
+    }
+
+    /**
+     * Called on every invocation of a custom function by an expression built with the listener
+     * @param function the custom function
+     */
+    public void functionInvoked(Function function) {
+    }
+}
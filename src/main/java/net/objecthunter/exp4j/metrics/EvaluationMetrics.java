@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.function.Function;
+
+/**
+ * A thread safe {@link EvaluationListener} counting evaluations, errors and invocations of custom functions and
+ * recording a histogram of the build times. The metrics can be read directly or via JMX after registering the
+ * instance with {@link #register(String)}.
+ */
+public class EvaluationMetrics extends EvaluationListener implements EvaluationMetricsMBean {
+
+    private final AtomicLong evaluations = new AtomicLong();
+
+    private final AtomicLong evaluationErrors = new AtomicLong();
+
+    private final AtomicLong builds = new AtomicLong();
+
+    private final AtomicLong buildErrors = new AtomicLong();
+
+    private final AtomicLong buildNanos = new AtomicLong();
+
+    /* power of two buckets of the build times */
+    private final AtomicLongArray buildTimes = new AtomicLongArray(64);
+
+    private final ConcurrentMap<String, AtomicLong> invocations = new ConcurrentHashMap<String, AtomicLong>();
+
+    @Override
+    public void built(final String expression, final long nanos) {
+        builds.incrementAndGet();
+        buildNanos.addAndGet(nanos);
+        buildTimes.incrementAndGet(Math.min(63, 64 - Long.numberOfLeadingZeros(Math.max(0L, nanos))));
+    }
+
+    @Override
+    public void buildFailed(final String expression, final RuntimeException e) {
+        buildErrors.incrementAndGet();
+    }
+
+    @Override
+    public void evaluated(final Expression expression, final int count) {
+        evaluations.addAndGet(count);
+    }
+
+    @Override
+    public void evaluationFailed(final Expression expression, final RuntimeException e) {
+        evaluationErrors.incrementAndGet();
+    }
+
+    @Override
+    public void functionInvoked(final Function function) {
+        AtomicLong count = invocations.get(function.getName());
+        if (count == null) {
+            final AtomicLong created = new AtomicLong();
+            count = invocations.putIfAbsent(function.getName(), created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Register the metrics with the platform MBean server
+     * @param objectName the name of the MBean, e.g. "net.objecthunter.exp4j:type=EvaluationMetrics"
+     * @return the name the MBean has been registered with
+     * @throws JMException if the name is invalid or already registered
+     */
+    public ObjectName register(final String objectName) throws JMException {
+        final ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public long getEvaluationCount() {
+        return evaluations.get();
+    }
+
+    @Override
+    public long getEvaluationErrorCount() {
+        return evaluationErrors.get();
+    }
+
+    @Override
+    public long getBuildCount() {
+        return builds.get();
+    }
+
+    @Override
+    public long getBuildErrorCount() {
+        return buildErrors.get();
+    }
+
+    @Override
+    public long getBuildTimeNanos() {
+        return buildNanos.get();
+    }
+
+    @Override
+    public long[] getBuildTimeHistogram() {
+        final long[] histogram = new long[buildTimes.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = buildTimes.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public Map<String, Long> getFunctionInvocationCounts() {
+        final Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : invocations.entrySet()) {
+            counts.put(e.getKey(), e.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        evaluations.set(0L);
+        evaluationErrors.set(0L);
+        builds.set(0L);
+        buildErrors.set(0L);
+        buildNanos.set(0L);
+        for (int i = 0; i < buildTimes.length(); i++) {
+            buildTimes.set(i, 0L);
+        }
+        invocations.clear();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link EvaluationMetrics}
+ */
+public interface EvaluationMetricsMBean {
+
+    /**
+     * @return the number of evaluations, counting every row of batch evaluations
+     */
+    long getEvaluationCount();
+
+    /**
+     * @return the number of evaluations which threw an exception
+     */
+    long getEvaluationErrorCount();
+
+    /**
+     * @return the number of expressions built
+     */
+    long getBuildCount();
+
+    /**
+     * @return the number of expression strings which could not be built
+     */
+    long getBuildErrorCount();
+
+    /**
+     * @return the total time spent on parsing and building expressions in nanoseconds
+     */
+    long getBuildTimeNanos();
+
+    /**
+     * @return the number of builds per duration, element i counting the builds which took at least 2^(i-1) and
+     *         less than 2^i nanoseconds
+     */
+    long[] getBuildTimeHistogram();
+
+    /**
+     * @return the number of invocations of the custom functions mapped by the function names
+     */
+    Map<String, Long> getFunctionInvocationCounts();
+
+    /**
+     * Reset all counters to zero
+     */
+    void reset();
+}
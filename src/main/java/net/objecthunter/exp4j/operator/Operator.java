@@ -61,6 +61,7 @@ public abstract class Operator {
     protected final boolean leftAssociative;
     protected final String symbol;
     protected final int precedence;
+    protected final boolean deterministic;
 
     /**
      * Create a new operator for use in expressions
@@ -71,11 +72,27 @@ public abstract class Operator {
      */
     public Operator(String symbol, int numberOfOperands, boolean leftAssociative,
                     int precedence) {
+        this(symbol, numberOfOperands, leftAssociative, precedence, false);
+    }
+
+    /**
+     * Create a new operator for use in expressions
+     * @param symbol the symbol of the operator
+     * @param numberOfOperands the number of operands the operator takes (1 or 2)
+     * @param leftAssociative set to true if the operator is left associative, false if it is right associative
+     * @param precedence the precedence value of the operator
+     * @param deterministic set to true if the operator always returns the same result for the same operands and has
+     *                      no side effects. Operations on constant operands are then evaluated once when the
+     *                      expression is built
+     */
+    public Operator(String symbol, int numberOfOperands, boolean leftAssociative,
+                    int precedence, boolean deterministic) {
         super();
         this.numOperands = numberOfOperands;
         this.leftAssociative = leftAssociative;
         this.symbol = symbol;
         this.precedence = precedence;
+        this.deterministic = deterministic;
     }
 
     /**
@@ -108,6 +125,14 @@ public abstract class Operator {
         return precedence;
     }
 
+    /**
+     * Check if the operator is deterministic i.e. it always returns the same result for the same operands
+     * @return true if the operator is deterministic, false otherwise
+     */
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
     /**
      * Apply the operation on the given operands
      * @param args the operands for the operation
@@ -16,70 +16,74 @@
 package net.objecthunter.exp4j.operator;
 
 public final class Operators {
-    private static final int INDEX_ADDITION = 0;
-    private static final int INDEX_SUBTRACTION = 1;
-    private static final int INDEX_MUTLIPLICATION = 2;
-    private static final int INDEX_DIVISION = 3;
-    private static final int INDEX_POWER = 4;
-    private static final int INDEX_MODULO = 5;
-    private static final int INDEX_UNARYMINUS = 6;
-    private static final int INDEX_UNARYPLUS = 7;
+    /* the indices identify the builtin operators, e.g. to dispatch on them in evaluators, see #getBuiltinIndex */
+    public static final int INDEX_ADDITION = 0;
+    public static final int INDEX_SUBTRACTION = 1;
+    public static final int INDEX_MULTIPLICATION = 2;
+    public static final int INDEX_DIVISION = 3;
+    public static final int INDEX_POWER = 4;
+    public static final int INDEX_MODULO = 5;
+    public static final int INDEX_UNARYMINUS = 6;
+    public static final int INDEX_UNARYPLUS = 7;
 
-    private static final Operator[] builtinOperators = new Operator[8];
+    /** the number of builtin operators, their indices range from 0 to this number minus one */
+    public static final int NUM_BUILTIN_OPERATORS = 8;
+
+    private static final Operator[] builtinOperators = new Operator[NUM_BUILTIN_OPERATORS];
 
     static {
-        builtinOperators[INDEX_ADDITION]= new Operator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
+        builtinOperators[INDEX_ADDITION]= new BinaryOperator("+", true, Operator.PRECEDENCE_ADDITION, true) {
             @Override
-            public double apply(final double... args) {
-                return args[0] + args[1];
+            public double apply(final double left, final double right) {
+                return left + right;
             }
         };
-        builtinOperators[INDEX_SUBTRACTION]= new Operator("-", 2, true, Operator.PRECEDENCE_ADDITION) {
+        builtinOperators[INDEX_SUBTRACTION]= new BinaryOperator("-", true, Operator.PRECEDENCE_ADDITION, true) {
             @Override
-            public double apply(final double... args) {
-                return args[0] - args[1];
+            public double apply(final double left, final double right) {
+                return left - right;
             }
         };
-        builtinOperators[INDEX_UNARYMINUS]= new Operator("-", 1, false, Operator.PRECEDENCE_UNARY_MINUS) {
+        builtinOperators[INDEX_UNARYMINUS]= new UnaryOperator("-", false, Operator.PRECEDENCE_UNARY_MINUS, true) {
             @Override
-            public double apply(final double... args) {
-                return -args[0];
+            public double apply(final double arg) {
+                return -arg;
             }
         };
-        builtinOperators[INDEX_UNARYPLUS]= new Operator("+", 1, false, Operator.PRECEDENCE_UNARY_PLUS) {
+        builtinOperators[INDEX_UNARYPLUS]= new UnaryOperator("+", false, Operator.PRECEDENCE_UNARY_PLUS, true) {
             @Override
-            public double apply(final double... args) {
-                return args[0];
+            public double apply(final double arg) {
+                return arg;
             }
         };
-        builtinOperators[INDEX_MUTLIPLICATION]= new Operator("*", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
+        builtinOperators[INDEX_MULTIPLICATION]= new BinaryOperator("*", true, Operator.PRECEDENCE_MULTIPLICATION, true) {
             @Override
-            public double apply(final double... args) {
-                return args[0] * args[1];
+            public double apply(final double left, final double right) {
+                return left * right;
             }
         };
-        builtinOperators[INDEX_DIVISION]= new Operator("/", 2, true, Operator.PRECEDENCE_DIVISION) {
+        builtinOperators[INDEX_DIVISION]= new BinaryOperator("/", true, Operator.PRECEDENCE_DIVISION, true) {
             @Override
-            public double apply(final double... args) {
-                if (args[1] == 0d) {
+            public double apply(final double left, final double right) {
+                if (right == 0d) {
                     throw new ArithmeticException("Division by zero!");
                 }
-                return args[0] / args[1];
+                return left / right;
             }
         };
-        builtinOperators[INDEX_POWER]= new Operator("^", 2, false, Operator.PRECEDENCE_POWER) {
+        builtinOperators[INDEX_POWER]= new BinaryOperator("^", false, Operator.PRECEDENCE_POWER, true) {
             @Override
-            public double apply(final double... args) {
-                return Math.pow(args[0], args[1]);
+            public double apply(final double left, final double right) {
+                return Math.pow(left, right);
             }
         };
-        builtinOperators[INDEX_MODULO]= new Operator("%", 2, true, Operator.PRECEDENCE_MODULO) {
+        builtinOperators[INDEX_MODULO]= new BinaryOperator("%", true, Operator.PRECEDENCE_MODULO, true) {
             @Override
-            public double apply(final double... args) {
-                if (args[1] == 0d) {
+            public double apply(final double left, final double right) {
+                if (right == 0d) {
                     throw new ArithmeticException("Division by zero!");
                 }
-                return args[0] % args[1];
+                return left % right;
             }
         };
     }
@@ -99,7 +103,7 @@ public final class Operators {
                     return builtinOperators[INDEX_UNARYMINUS];
                 }
             case '*':
-                return builtinOperators[INDEX_MUTLIPLICATION];
+                return builtinOperators[INDEX_MULTIPLICATION];
             case '/':
                 return builtinOperators[INDEX_DIVISION];
             case '^':
@@ -111,6 +115,21 @@ public final class Operators {
         }
     }
 
+    /**
+     * Get the index of a builtin operator
+     * @param operator the operator
+     * @return the index of the operator, e.g. {@link #INDEX_ADDITION}, or -1 if it is not one of the builtin
+     *         operators. Operators are compared by identity
+     */
+    public static int getBuiltinIndex(final Operator operator) {
+        for (int i = 0; i < builtinOperators.length; i++) {
+            if (builtinOperators[i] == operator) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * @return an array of builtin operators
      */
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.operator;
+
+/**
+ * An {@link Operator} taking a single operand. The evaluators call {@link #apply(double)} directly with the operand
+ * instead of collecting it into an array first.
+ */
+public abstract class UnaryOperator extends Operator {
+
+    /**
+     * Create a new unary operator for use in expressions
+     * @param symbol the symbol of the operator
+     * @param leftAssociative set to true if the operator is left associative, false if it is right associative
+     * @param precedence the precedence value of the operator
+     */
+    public UnaryOperator(String symbol, boolean leftAssociative, int precedence) {
+        this(symbol, leftAssociative, precedence, false);
+    }
+
+    /**
+     * Create a new unary operator for use in expressions
+     * @param symbol the symbol of the operator
+     * @param leftAssociative set to true if the operator is left associative, false if it is right associative
+     * @param precedence the precedence value of the operator
+     * @param deterministic set to true if the operator always returns the same result for the same operand and has
+     *                      no side effects
+     * @see Operator#Operator(String, int, boolean, int, boolean)
+     */
+    public UnaryOperator(String symbol, boolean leftAssociative, int precedence, boolean deterministic) {
+        super(symbol, 1, leftAssociative, precedence, deterministic);
+    }
+
+    /**
+     * Apply the operation on the given operand
+     * @param arg the operand for the operation
+     * @return the calculated result of the operation
+     */
+    public abstract double apply(double arg);
+
+    @Override
+    public final double apply(double... args) {
+        return apply(args[0]);
+    }
+}
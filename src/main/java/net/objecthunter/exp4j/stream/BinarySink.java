@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link RowSink} writing rows of 8 byte IEEE 754 doubles without a header, the format read by
+ * {@link BinarySource}. The values are collected in a direct buffer which is written through a {@link FileChannel}
+ * when full.
+ */
+public final class BinarySink implements RowSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    private int numColumns = -1;
+
+    /**
+     * Create a big endian binary file
+     * @param file the file to write, an existing file is overwritten
+     * @throws IOException if the file can not be opened
+     */
+    public BinarySink(File file) throws IOException {
+        this(file, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Create a binary file
+     * @param file the file to write, an existing file is overwritten
+     * @param order the byte order of the values
+     * @throws IOException if the file can not be opened
+     */
+    public BinarySink(File file, ByteOrder order) throws IOException {
+        this.channel = new FileOutputStream(file).getChannel();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+    }
+
+    @Override
+    public void begin(String[] columnNames) throws IOException {
+        this.numColumns = columnNames.length;
+    }
+
+    @Override
+    public void write(double[][] block, int rows) throws IOException {
+        if (block.length != numColumns) {
+            throw new IllegalArgumentException("Expected " + numColumns + " columns but got " + block.length);
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < block.length; col++) {
+                if (buffer.remaining() < 8) {
+                    flush();
+                }
+                buffer.putDouble(block[col][row]);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
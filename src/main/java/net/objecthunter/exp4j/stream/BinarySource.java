@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link RowSource} reading a binary file of rows of 8 byte IEEE 754 doubles without a header, i.e. the format
+ * written by {@link BinarySink} or by {@link java.io.DataOutputStream#writeDouble(double)}. The file is memory mapped
+ * in windows of whole rows, so large files are read without copying them through the heap.
+ */
+public final class BinarySource implements RowSource {
+
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final String[] columnNames;
+
+    private final ByteOrder order;
+
+    private final long numRows;
+
+    private final long rowsPerWindow;
+
+    private long row = 0;
+
+    private DoubleBuffer window;
+
+    /**
+     * Open a big endian binary file
+     * @param file the file to read
+     * @param columnNames the names of the columns, determines the number of values per row
+     * @throws IOException if the file can not be opened
+     */
+    public BinarySource(File file, String... columnNames) throws IOException {
+        this(file, ByteOrder.BIG_ENDIAN, columnNames);
+    }
+
+    /**
+     * Open a binary file
+     * @param file the file to read
+     * @param order the byte order of the values
+     * @param columnNames the names of the columns, determines the number of values per row
+     * @throws IOException if the file can not be opened
+     */
+    public BinarySource(File file, ByteOrder order, String... columnNames) throws IOException {
+        if (columnNames.length == 0) {
+            throw new IllegalArgumentException("At least one column is needed");
+        }
+        this.columnNames = columnNames.clone();
+        this.order = order;
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        final long rowSize = 8L * columnNames.length;
+        final long size = channel.size();
+        if (size % rowSize != 0) {
+            this.file.close();
+            throw new IllegalArgumentException("The file size " + size + " is not a multiple of the row size " + rowSize);
+        }
+        this.numRows = size / rowSize;
+        this.rowsPerWindow = Math.max(1, WINDOW_SIZE / rowSize);
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    @Override
+    public int read(double[][] block) throws IOException {
+        if (block.length != columnNames.length) {
+            throw new IllegalArgumentException("Expected " + columnNames.length + " columns but got " + block.length);
+        }
+        final int capacity = block[0].length;
+        int rows = 0;
+        while (rows < capacity && row < numRows) {
+            if (window == null || !window.hasRemaining()) {
+                map();
+            }
+            final int count = Math.min(capacity - rows, window.remaining() / block.length);
+            for (int i = 0; i < count; i++) {
+                for (int col = 0; col < block.length; col++) {
+                    block[col][rows + i] = window.get();
+                }
+            }
+            rows += count;
+            row += count;
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        /* the mapped windows are released by the garbage collector */
+        window = null;
+        file.close();
+    }
+
+    private void map() throws IOException {
+        final long rowSize = 8L * columnNames.length;
+        final long rows = Math.min(rowsPerWindow, numRows - row);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, row * rowSize, rows * rowSize)
+                .order(order)
+                .asDoubleBuffer();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link RowSink} writing a CSV file with a header line. The values are formatted into a reused buffer which is
+ * written through a {@link FileChannel} when full.
+ */
+public final class CsvSink implements RowSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final char delimiter;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final StringBuilder value = new StringBuilder(32);
+
+    private int numColumns = -1;
+
+    /**
+     * Create a comma separated file
+     * @param file the file to write, an existing file is overwritten
+     * @throws IOException if the file can not be opened
+     */
+    public CsvSink(File file) throws IOException {
+        this(file, ',');
+    }
+
+    /**
+     * Create a delimiter separated file
+     * @param file the file to write, an existing file is overwritten
+     * @param delimiter the char separating the values, has to be an ASCII char
+     * @throws IOException if the file can not be opened
+     */
+    public CsvSink(File file, char delimiter) throws IOException {
+        if (delimiter > 127) {
+            throw new IllegalArgumentException("The delimiter has to be an ASCII char");
+        }
+        this.delimiter = delimiter;
+        this.channel = new FileOutputStream(file).getChannel();
+    }
+
+    @Override
+    public void begin(String[] columnNames) throws IOException {
+        this.numColumns = columnNames.length;
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i > 0) {
+                put((byte) delimiter);
+            }
+            final byte[] name = columnNames[i].getBytes("UTF-8");
+            for (byte b : name) {
+                put(b);
+            }
+        }
+        put((byte) '\n');
+    }
+
+    @Override
+    public void write(double[][] block, int rows) throws IOException {
+        if (block.length != numColumns) {
+            throw new IllegalArgumentException("Expected " + numColumns + " columns but got " + block.length);
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < block.length; col++) {
+                if (col > 0) {
+                    put((byte) delimiter);
+                }
+                value.setLength(0);
+                value.append(block[col][row]);
+                for (int i = 0; i < value.length(); i++) {
+                    put((byte) value.charAt(i));
+                }
+            }
+            put((byte) '\n');
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link RowSource} reading a CSV file with a header line naming the columns. The file is read in chunks through a
+ * {@link FileChannel} and the numbers are parsed directly from the bytes, so that no String is created per value.
+ * Empty values are read as NaN.
+ */
+public final class CsvSource implements RowSource {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1d;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+        }
+    }
+
+    private final FileChannel channel;
+
+    private final byte delimiter;
+
+    private final String[] columnNames;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private boolean eof = false;
+
+    /* the number of the current line for error messages */
+    private long line = 0;
+
+    /**
+     * Open a comma separated file
+     * @param file the file to read
+     * @throws IOException if the file can not be opened or the header can not be read
+     */
+    public CsvSource(File file) throws IOException {
+        this(file, ',');
+    }
+
+    /**
+     * Open a delimiter separated file
+     * @param file the file to read
+     * @param delimiter the char separating the values, has to be an ASCII char
+     * @throws IOException if the file can not be opened or the header can not be read
+     */
+    public CsvSource(File file, char delimiter) throws IOException {
+        if (delimiter > 127) {
+            throw new IllegalArgumentException("The delimiter has to be an ASCII char");
+        }
+        this.delimiter = (byte) delimiter;
+        this.channel = new FileInputStream(file).getChannel();
+        this.buffer.flip();
+        try {
+            this.columnNames = readHeader();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    @Override
+    public int read(double[][] block) throws IOException {
+        if (block.length != columnNames.length) {
+            throw new IllegalArgumentException("Expected " + columnNames.length + " columns but got " + block.length);
+        }
+        final int capacity = block.length > 0 ? block[0].length : 0;
+        int rows = 0;
+        int end;
+        while (rows < capacity && (end = nextLine()) != -1) {
+            final byte[] bytes = buffer.array();
+            int start = buffer.position();
+            /* drop the carriage return of windows line endings */
+            final int lineEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+            if (lineEnd > start) {
+                for (int col = 0; col < block.length; col++) {
+                    int cellEnd = start;
+                    while (cellEnd < lineEnd && bytes[cellEnd] != delimiter) {
+                        cellEnd++;
+                    }
+                    if (cellEnd == lineEnd && col < block.length - 1) {
+                        throw new IllegalArgumentException("Line " + line + " has " + (col + 1) +
+                                " values but there are " + block.length + " columns");
+                    }
+                    block[col][rows] = parseDouble(bytes, start, cellEnd);
+                    start = cellEnd + 1;
+                }
+                if (start <= lineEnd) {
+                    throw new IllegalArgumentException("Line " + line + " has more than " + block.length + " values");
+                }
+                rows++;
+            }
+            buffer.position(Math.min(end + 1, buffer.limit()));
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String[] readHeader() throws IOException {
+        final int end = nextLine();
+        if (end == -1) {
+            throw new IllegalArgumentException("The CSV file does not have a header line");
+        }
+        final byte[] bytes = buffer.array();
+        int start = buffer.position();
+        final int lineEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+        final List<String> names = new ArrayList<String>();
+        while (start <= lineEnd) {
+            int cellEnd = start;
+            while (cellEnd < lineEnd && bytes[cellEnd] != delimiter) {
+                cellEnd++;
+            }
+            String name = new String(bytes, start, cellEnd - start, "UTF-8").trim();
+            if (name.length() > 1 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+                name = name.substring(1, name.length() - 1);
+            }
+            names.add(name);
+            start = cellEnd + 1;
+        }
+        buffer.position(Math.min(end + 1, buffer.limit()));
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Make sure the buffer contains the whole next line starting at its position
+     * @return the index of the line's terminating newline or the end of the data if the last line is not terminated,
+     *         -1 if there are no more lines
+     */
+    private int nextLine() throws IOException {
+        int scan = buffer.position();
+        while (true) {
+            final byte[] bytes = buffer.array();
+            for (; scan < buffer.limit(); scan++) {
+                if (bytes[scan] == '\n') {
+                    line++;
+                    return scan;
+                }
+            }
+            if (eof) {
+                if (buffer.position() < buffer.limit()) {
+                    line++;
+                    return buffer.limit();
+                }
+                return -1;
+            }
+            /* move the incomplete line to the start and read the next chunk */
+            scan -= buffer.position();
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            if (channel.read(buffer) == -1) {
+                eof = true;
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Parse a number from ASCII bytes. Numbers with at most 15 to 16 significant digits and a small exponent are
+     * converted exactly with a single multiplication or division, everything else is delegated to
+     * {@link Double#parseDouble(String)}.
+     */
+    static double parseDouble(final byte[] bytes, final int from, final int to) {
+        int start = from;
+        int end = to;
+        while (start < end && bytes[start] <= ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return Double.NaN;
+        }
+        int i = start;
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int numDigits = 0;
+        boolean exact = true;
+        boolean dot = false;
+        for (; i < end; i++) {
+            final byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                numDigits++;
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (dot) {
+                        exponent--;
+                    }
+                } else {
+                    /* the remaining digits do not fit, let the JDK deal with the rounding */
+                    exact = false;
+                    if (!dot) {
+                        exponent++;
+                    }
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end && numDigits > 0 && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exp = 0;
+            final int expStart = i;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (exp < 100000) {
+                    exp = exp * 10 + (bytes[i] - '0');
+                }
+            }
+            if (i == expStart) {
+                return parseSlow(bytes, start, end);
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+        if (i != end || numDigits == 0 || !exact || exponent < -22 || exponent > 22) {
+            return parseSlow(bytes, start, end);
+        }
+        /* both the mantissa and the power of ten are exact doubles, so a single operation rounds correctly */
+        final double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(final byte[] bytes, final int start, final int end) {
+        final char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (bytes[start + i] & 0xff);
+        }
+        try {
+            return Double.parseDouble(new String(chars));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unable to parse the value '" + new String(chars) + "'");
+        }
+    }
+}
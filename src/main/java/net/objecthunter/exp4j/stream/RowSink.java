@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for rows of double values which are written block wise from column arrays
+ */
+public interface RowSink extends Closeable {
+
+    /**
+     * Called once before the first block is written
+     * @param columnNames the names of the columns in the order of the column arrays passed to {@link #write}
+     * @throws IOException if the output can not be written
+     */
+    void begin(String[] columnNames) throws IOException;
+
+    /**
+     * Write a block of rows
+     * @param block the column arrays
+     * @param rows the number of rows to write from the start of each column array
+     * @throws IOException if the output can not be written
+     */
+    void write(double[][] block, int rows) throws IOException;
+}
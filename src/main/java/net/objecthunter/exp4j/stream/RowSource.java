@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of rows of double values which are read block wise into column arrays
+ */
+public interface RowSource extends Closeable {
+
+    /**
+     * Get the names of the columns
+     * @return the column names in the order of the columns
+     */
+    String[] getColumnNames();
+
+    /**
+     * Read the next rows into the given block
+     * @param block the column arrays, one for every column name. All arrays have the same length which is the maximum
+     *              number of rows to read
+     * @return the number of rows read, 0 if the end of the input has been reached
+     * @throws IOException if the input can not be read
+     */
+    int read(double[][] block) throws IOException;
+}
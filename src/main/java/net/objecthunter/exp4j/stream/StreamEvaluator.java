@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.objecthunter.exp4j.Expression;
+
+/**
+ * Evaluates a set of {@link Expression}s for every row of a {@link RowSource} and writes the results to a
+ * {@link RowSink}. The input columns are mapped to the expressions' variables by name once, after which the rows are
+ * processed in blocks using {@link Expression#evaluate(double[][], double[])}, so that no per row objects are
+ * created. Variables which have no input column use the values set on the expression.
+ */
+public final class StreamEvaluator {
+
+    /**
+     * The default number of rows in a block
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final String[] outputNames;
+
+    private final Expression[] expressions;
+
+    private final int blockSize;
+
+    /**
+     * Create a new StreamEvaluator using the default block size
+     * @param outputs the expressions mapped by the name of the output column they are written to, the iteration order
+     *                determines the order of the output columns
+     */
+    public StreamEvaluator(Map<String, Expression> outputs) {
+        this(outputs, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new StreamEvaluator
+     * @param outputs the expressions mapped by the name of the output column they are written to, the iteration order
+     *                determines the order of the output columns
+     * @param blockSize the number of rows read, evaluated and written at a time
+     */
+    public StreamEvaluator(Map<String, Expression> outputs, int blockSize) {
+        if (outputs.isEmpty()) {
+            throw new IllegalArgumentException("At least one expression is needed");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size has to be greater than 0");
+        }
+        final Map<String, Expression> copy = new LinkedHashMap<String, Expression>(outputs);
+        this.outputNames = copy.keySet().toArray(new String[copy.size()]);
+        this.expressions = copy.values().toArray(new Expression[copy.size()]);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Evaluate the expressions for all rows of the source. The source and the sink are not closed.
+     * @param source the input rows
+     * @param sink the receiver of the results, one column per expression
+     * @return the number of rows processed
+     * @throws IOException if reading or writing fails
+     */
+    public long evaluate(RowSource source, RowSink sink) throws IOException {
+        final String[] columnNames = source.getColumnNames();
+        final double[][] in = new double[columnNames.length][blockSize];
+        final double[][] out = new double[expressions.length][blockSize];
+        final double[][][] slotColumns = new double[expressions.length][][];
+        for (int i = 0; i < expressions.length; i++) {
+            slotColumns[i] = mapColumns(expressions[i], columnNames, in);
+        }
+        sink.begin(outputNames.clone());
+        long count = 0;
+        int rows;
+        while ((rows = source.read(in)) > 0) {
+            for (int i = 0; i < expressions.length; i++) {
+                /* the number of rows evaluated is given by the length of the result array */
+                if (out[i].length != rows) {
+                    out[i] = new double[rows];
+                }
+                expressions[i].evaluate(slotColumns[i], out[i]);
+            }
+            sink.write(out, rows);
+            count += rows;
+        }
+        return count;
+    }
+
+    /**
+     * Evaluate the expressions for all rows of a CSV file and write the results to another CSV file
+     * @param input the input file, its header line names the columns
+     * @param output the output file
+     * @return the number of rows processed
+     * @throws IOException if reading or writing fails
+     * @see CsvSource
+     * @see CsvSink
+     */
+    public long evaluateCsv(File input, File output) throws IOException {
+        final CsvSource source = new CsvSource(input);
+        try {
+            final CsvSink sink = new CsvSink(output);
+            try {
+                return evaluate(source, sink);
+            } finally {
+                sink.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /* maps the input columns to the slots of the expression's variables */
+    private static double[][] mapColumns(Expression expression, String[] columnNames, double[][] in) {
+        int numSlots = 0;
+        for (String name : expression.getVariableNames()) {
+            numSlots = Math.max(numSlots, expression.slotOf(name) + 1);
+        }
+        final double[][] columns = new double[numSlots][];
+        for (int i = 0; i < columnNames.length; i++) {
+            if (expression.getVariableNames().contains(columnNames[i])) {
+                columns[expression.slotOf(columnNames[i])] = in[i];
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.tokenizer;
+
+/**
+ * A trie mapping names to values which is walked one char at a time, so that the {@link Tokenizer} can find the
+ * longest known name at a position of the expression without creating a String for every prefix.
+ * @param <V> the type of the values
+ */
+final class CharTrie<V> {
+
+    private static final char[] NO_CHARS = new char[0];
+
+    private final Node<V> root = new Node<V>();
+
+    /**
+     * Add a name to the trie, an existing value for the name is replaced
+     * @param name the name
+     * @param value the value
+     */
+    void put(final String name, final V value) {
+        Node<V> node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.getOrAdd(name.charAt(i));
+        }
+        node.value = value;
+    }
+
+    /**
+     * @return the node of the empty prefix which is the starting point of a lookup
+     */
+    Node<V> root() {
+        return root;
+    }
+
+    static final class Node<V> {
+
+        /* the chars of the children in ascending order */
+        private char[] chars = NO_CHARS;
+
+        private Object[] children;
+
+        private V value;
+
+        /**
+         * @return the value of the name ending at this node or null if the node is only a prefix
+         */
+        V value() {
+            return value;
+        }
+
+        /**
+         * @param ch the next char of the name
+         * @return the node of the prefix extended by ch or null if no name starts with that prefix
+         */
+        @SuppressWarnings("unchecked")
+        Node<V> next(final char ch) {
+            final int idx = indexOf(ch);
+            return idx < 0 ? null : (Node<V>) children[idx];
+        }
+
+        @SuppressWarnings("unchecked")
+        private Node<V> getOrAdd(final char ch) {
+            int idx = indexOf(ch);
+            if (idx >= 0) {
+                return (Node<V>) children[idx];
+            }
+            idx = -(idx + 1);
+            final int size = chars.length;
+            final char[] newChars = new char[size + 1];
+            final Object[] newChildren = new Object[size + 1];
+            System.arraycopy(chars, 0, newChars, 0, idx);
+            System.arraycopy(chars, idx, newChars, idx + 1, size - idx);
+            if (size > 0) {
+                System.arraycopy(children, 0, newChildren, 0, idx);
+                System.arraycopy(children, idx, newChildren, idx + 1, size - idx);
+            }
+            final Node<V> child = new Node<V>();
+            newChars[idx] = ch;
+            newChildren[idx] = child;
+            this.chars = newChars;
+            this.children = newChildren;
+            return child;
+        }
+
+        /* binary search returning -(insertion point) - 1 if the char is missing, like Arrays.binarySearch */
+        private int indexOf(final char ch) {
+            int low = 0;
+            int high = chars.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final char c = chars[mid];
+                if (c < ch) {
+                    low = mid + 1;
+                } else if (c > ch) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
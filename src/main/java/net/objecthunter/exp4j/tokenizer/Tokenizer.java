@@ -29,11 +29,19 @@ public class Tokenizer {
 
     private final int expressionLength;
 
-    private final Map<String, Function> userFunctions;
+    /* tokens are immutable, so a resolved name is mapped to a shared token instance */
+    private static final CharTrie<Token> BUILTIN_FUNCTIONS = new CharTrie<Token>();
 
-    private final Map<String, Operator> userOperators;
+    static {
+        for (Function f : Functions.getBuiltinFunctions()) {
+            BUILTIN_FUNCTIONS.put(f.getName(), new FunctionToken(f));
+        }
+    }
+
+    /* the user functions and the variables, a variable takes precedence over a function with the same name */
+    private final CharTrie<Token> userNames = new CharTrie<Token>();
 
-    private final Set<String> variableNames;
+    private final CharTrie<Operator> userOperators;
 
     private int pos = 0;
 
@@ -43,9 +51,24 @@ public class Tokenizer {
             final Map<String, Operator> userOperators, final Set<String> variableNames) {
         this.expression = expression.trim().toCharArray();
         this.expressionLength = this.expression.length;
-        this.userFunctions = userFunctions;
-        this.userOperators = userOperators;
-        this.variableNames = variableNames;
+        if (userFunctions != null) {
+            for (Map.Entry<String, Function> f : userFunctions.entrySet()) {
+                this.userNames.put(f.getKey(), new FunctionToken(f.getValue()));
+            }
+        }
+        if (variableNames != null) {
+            for (String name : variableNames) {
+                this.userNames.put(name, new VariableToken(name));
+            }
+        }
+        if (userOperators != null && !userOperators.isEmpty()) {
+            this.userOperators = new CharTrie<Operator>();
+            for (Map.Entry<String, Operator> op : userOperators.entrySet()) {
+                this.userOperators.put(op.getKey(), op.getValue());
+            }
+        } else {
+            this.userOperators = null;
+        }
     }
 
     public boolean hasNext() {
@@ -135,28 +158,26 @@ public class Tokenizer {
 
     private Token parseFunctionOrVariable() {
         final int offset = this.pos;
-        int lastValidLen = 1;
+        /* walk both tries along the name and remember the longest match */
+        CharTrie.Node<Token> user = userNames.root();
+        CharTrie.Node<Token> builtin = BUILTIN_FUNCTIONS.root();
         Token lastValidToken = null;
-        int len = 1;
-        if (isEndOfExpression(offset)) {
-            this.pos++;
-        }
-        while (!isEndOfExpression(offset + len - 1) &&
-                (isAlphabetic(expression[offset + len - 1]) ||
-                        Character.isDigit(expression[offset + len - 1]) ||
-                        expression[offset + len - 1] == '_')) {
-            String name = new String(expression, offset, len);
-            if (variableNames != null && variableNames.contains(name)) {
+        int lastValidLen = 0;
+        int len = 0;
+        while ((user != null || builtin != null) && !isEndOfExpression(offset + len) &&
+                (isAlphabetic(expression[offset + len]) ||
+                        Character.isDigit(expression[offset + len]) ||
+                        expression[offset + len] == '_')) {
+            final char ch = expression[offset + len++];
+            user = user != null ? user.next(ch) : null;
+            builtin = builtin != null ? builtin.next(ch) : null;
+            if (user != null && user.value() != null) {
+                lastValidToken = user.value();
+                lastValidLen = len;
+            } else if (builtin != null && builtin.value() != null) {
+                lastValidToken = builtin.value();
                 lastValidLen = len;
-                lastValidToken = new VariableToken(name);
-            } else {
-                final Function f = getFunction(name);
-                if (f != null) {
-                    lastValidLen = len;
-                    lastValidToken = new FunctionToken(f);
-                }
             }
-            len++;
         }
         if (lastValidToken == null) {
             throw new IllegalArgumentException("Unable to parse variable or function starting at pos " + pos + " in expression '" + new String(expression) + "'");
@@ -166,58 +187,34 @@ public class Tokenizer {
         return lastToken;
     }
 
-    private Function getFunction(String name) {
-        Function f = null;
-        if (this.userFunctions != null) {
-            f = this.userFunctions.get(name);
-        }
-        if (f == null) {
-            f = Functions.getBuiltinFunction(name);
-        }
-        return f;
-    }
-
     private Token parseOperatorToken(char firstChar) {
         final int offset = this.pos;
-        int len = 1;
-        final StringBuilder symbol = new StringBuilder();
         Operator lastValid = null;
-        symbol.append(firstChar);
-
-        while (!isEndOfExpression(offset + len)  && Operator.isAllowedOperatorChar(expression[offset + len])) {
-            symbol.append(expression[offset + len++]);
-        }
-
-        while (symbol.length() > 0) {
-            Operator op = this.getOperator(symbol.toString());
-            if (op == null) {
-                symbol.setLength(symbol.length() - 1);
-            }else{
-                lastValid = op;
-                break;
+        int lastValidLen = 0;
+        /* the longest user defined operator wins, then the single char builtin operators */
+        CharTrie.Node<Operator> node = userOperators != null ? userOperators.root() : null;
+        int len = 0;
+        while (node != null && !isEndOfExpression(offset + len) && Operator.isAllowedOperatorChar(expression[offset + len])) {
+            node = node.next(expression[offset + len++]);
+            if (node != null && node.value() != null) {
+                lastValid = node.value();
+                lastValidLen = len;
             }
         }
-
-        pos += symbol.length();
-        lastToken = new OperatorToken(lastValid);
-        return lastToken;
-    }
-
-    private Operator getOperator(String symbol) {
-        Operator op = null;
-        if (this.userOperators != null) {
-            op = this.userOperators.get(symbol);
-        }
-        if (op == null && symbol.length() == 1) {
+        if (lastValid == null) {
             final int argc =
                     (lastToken == null ||
                     lastToken.getType() == Token.TOKEN_OPERATOR ||
                     lastToken.getType() == Token.TOKEN_PARENTHESES_OPEN ||
                     lastToken.getType() == Token.TOKEN_SEPARATOR)
                             ? 1 : 2;
-            op = Operators.getBuiltinOperator(symbol.charAt(0), argc);
+            lastValid = Operators.getBuiltinOperator(firstChar, argc);
+            lastValidLen = lastValid != null ? 1 : 0;
         }
-        return op;
+
+        pos += lastValidLen;
+        lastToken = new OperatorToken(lastValid);
+        return lastToken;
     }
 
     private Token parseNumberToken(final char firstChar) {
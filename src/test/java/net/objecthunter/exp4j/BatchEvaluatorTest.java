@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+
+import org.junit.Test;
+
+public class BatchEvaluatorTest {
+
+    @Test
+    public void testEvaluateColumns() throws Exception {
+        String[] expressions = new String[] {
+                "3 * sin(y) - 2 / (x - 2)",
+                "-x^2 + +y % 3",
+                "log(x) - y * (sqrt(x^cos(y)))",
+                "abs(-x) + atan(x) + cbrt(x) + ceil(y) + floor(y) + signum(x - y)",
+                "sinh(y) + cosh(y) + tanh(y) + tan(x) + log10(x) + log2(x) + log1p(x)",
+                "exp(y) + expm1(y) + pow(x, y) + pi * e"
+        };
+        Random rnd = new Random(42);
+        int rows = 2 * BatchEvaluator.BLOCK_SIZE + 17;
+        double[] xs = new double[rows];
+        double[] ys = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            xs[i] = 2.5 + rnd.nextDouble() * 10;
+            ys[i] = rnd.nextDouble() * 3;
+        }
+        for (String expression : expressions) {
+            Expression e = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build();
+            int x = e.slotOf("x");
+            int y = e.slotOf("y");
+            double[][] columns = new double[Math.max(x, y) + 1][];
+            columns[x] = xs;
+            columns[y] = ys;
+            double[] out = new double[rows];
+            e.evaluate(columns, out);
+            for (int i = 0; i < rows; i++) {
+                e.setVariable("x", xs[i]).setVariable("y", ys[i]);
+                assertEquals(expression, e.evaluate(), out[i], 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testEvaluateColumnsByName() throws Exception {
+        Function max = new Function("max", 2) {
+            @Override
+            public double apply(double... args) {
+                return Math.max(args[0], args[1]);
+            }
+        };
+        Expression e = new ExpressionBuilder("max(x, y) * z")
+                .variables("x", "y", "z")
+                .function(max)
+                .build()
+                .setVariable("z", 2d);
+        Map<String, double[]> columns = new HashMap<String, double[]>();
+        columns.put("x", new double[] {1d, 5d, 3d});
+        columns.put("y", new double[] {4d, 2d, 3d});
+        double[] out = new double[3];
+        e.evaluate(columns, out);
+        assertEquals(8d, out[0], 0d);
+        assertEquals(10d, out[1], 0d);
+        assertEquals(6d, out[2], 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateColumnsMissingVariable() throws Exception {
+        Expression e = new ExpressionBuilder("x * y")
+                .variables("x", "y")
+                .build();
+        Map<String, double[]> columns = new HashMap<String, double[]>();
+        columns.put("x", new double[] {1d, 5d, 3d});
+        e.evaluate(columns, new double[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateColumnsTooShort() throws Exception {
+        Expression e = new ExpressionBuilder("x * 2")
+                .variables("x")
+                .build();
+        Map<String, double[]> columns = new HashMap<String, double[]>();
+        columns.put("x", new double[] {1d, 5d});
+        e.evaluate(columns, new double[3]);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testEvaluateColumnsDivisionByZero() throws Exception {
+        Expression e = new ExpressionBuilder("1 / x")
+                .variables("x")
+                .build();
+        Map<String, double[]> columns = new HashMap<String, double[]>();
+        columns.put("x", new double[] {1d, 0d});
+        e.evaluate(columns, new double[2]);
+    }
+
+    @Test
+    public void testEvaluateParallel() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        Expression e = new ExpressionBuilder("3 * sin(y) - 2 / (x - 2) + z")
+                .variables("x", "y", "z")
+                .build()
+                .setVariable("z", 7);
+        int rows = 200003;
+        Random rnd = new Random(17);
+        double[][] columns = new double[e.getVariableNames().size()][];
+        columns[e.slotOf("x")] = new double[rows];
+        columns[e.slotOf("y")] = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            columns[e.slotOf("x")][i] = rnd.nextDouble() * 100;
+            columns[e.slotOf("y")][i] = rnd.nextDouble() * 100;
+        }
+        double[] expected = new double[rows];
+        e.evaluate(columns, expected);
+        double[] actual = new double[rows];
+        e.evaluateParallel(columns, actual, exec);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(expected[i], actual[i], 0d);
+        }
+        exec.shutdown();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testEvaluateParallelDivisionByZero() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            Expression e = new ExpressionBuilder("1 / x")
+                    .variables("x")
+                    .build();
+            double[] xs = new double[100000];
+            Arrays.fill(xs, 1d);
+            xs[77777] = 0d;
+            double[][] slotColumns = new double[e.getVariableNames().size()][];
+            slotColumns[e.slotOf("x")] = xs;
+            e.evaluateParallel(slotColumns, new double[xs.length], exec);
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test
+    public void testBuffersAreReused() throws Exception {
+        Function sum = new Function("sum", 5) {
+            @Override
+            public double apply(double... args) {
+                return args[0] + args[1] + args[2] + args[3] + args[4];
+            }
+        };
+        Expression e = new ExpressionBuilder("sum(x, 1, 2, 3, 4) * 2")
+                .variables("x")
+                .function(sum)
+                .build();
+        EvaluationContext context = e.newContext();
+        double[][] columns = new double[][] {new double[] {1, 2, 3}};
+        double[] out = new double[3];
+        e.evaluate(context, columns, out);
+        double[][] blocks = context.getBlocks(1);
+        double[] args = context.getArray(5);
+        e.evaluate(context, columns, out);
+        assertSame(blocks, context.getBlocks(1));
+        assertSame(args, context.getArray(5));
+        assertEquals(26d, out[2], 0d);
+    }
+
+    @Test
+    public void testMaxDepth() throws Exception {
+        Set<String> variables = Collections.singleton("x");
+        Map<String, Function> functions = Collections.emptyMap();
+        Map<String, Operator> operators = Collections.emptyMap();
+        assertEquals(1, BatchEvaluator.compile(ShuntingYard.convertToRPN("x", functions, operators, variables))
+                .getMaxDepth());
+        assertEquals(4, BatchEvaluator.compile(ShuntingYard.convertToRPN("1 + 2 * (3 - x)", functions, operators,
+                variables)).getMaxDepth());
+        assertEquals(2, BatchEvaluator.compile(ShuntingYard.convertToRPN("1 + 2 + 3 + x", functions, operators,
+                variables)).getMaxDepth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedExpression() throws Exception {
+        Expression e = new ExpressionBuilder("sin(x, 2)")
+                .variables("x")
+                .build();
+        e.evaluate(new double[][] {new double[2]}, new double[2]);
+    }
+}
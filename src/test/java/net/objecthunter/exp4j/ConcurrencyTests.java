@@ -17,11 +17,15 @@ package net.objecthunter.exp4j;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ConcurrencyTests {
 
@@ -59,4 +63,87 @@ public class ConcurrencyTests {
             assertEquals(correct2[i], (Double) results2[i].get(), 0d);
         }
     }
+
+    @Test
+    public void testSharedExpressionWithContexts() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        final Expression e = new ExpressionBuilder("sin(x) * y - x / (y + 1)")
+                .variables("x", "y")
+                .build();
+        final int x = e.slotOf("x");
+        final int y = e.slotOf("y");
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            results.add(exec.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    EvaluationContext ctx = e.newContext();
+                    for (int i = 0; i < 100000; i++) {
+                        double xv = i + offset;
+                        double yv = offset;
+                        ctx.setVariable(x, xv).setVariable(y, yv);
+                        if (e.evaluate(ctx) != Math.sin(xv) * yv - xv / (yv + 1)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        exec.shutdown();
+    }
+
+    @Test
+    public void testEvaluateAsyncUsesSnapshot() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        Expression e = new ExpressionBuilder("2x")
+                .variables("x")
+                .build();
+        int numTests = 1000;
+        List<Future<Double>> results = new ArrayList<Future<Double>>();
+        for (int i = 0; i < numTests; i++) {
+            results.add(e.setVariable("x", i).evaluateAsync(exec));
+        }
+        for (int i = 0; i < numTests; i++) {
+            assertEquals(2d * i, results.get(i).get(), 0d);
+        }
+        exec.shutdown();
+    }
+
+    @Test
+    public void testBatchEvaluateAsync() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        Expression e = new ExpressionBuilder("x * y + 1")
+                .variables("x", "y")
+                .build();
+        final int rows = 5000;
+        final double[] xs = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            xs[i] = i;
+        }
+        final double[][] columns = new double[e.getVariableNames().size()][];
+        columns[e.slotOf("x")] = xs;
+        List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+        for (int batch = 0; batch < 16; batch++) {
+            results.add(e.setVariable("y", batch).evaluateAsync(exec, columns, new double[rows]));
+        }
+        for (int batch = 0; batch < 16; batch++) {
+            final double[] out = results.get(batch).get();
+            for (int i = 0; i < rows; i++) {
+                assertEquals(i * batch + 1d, out[i], 0d);
+            }
+        }
+        exec.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContextOfOtherExpression() throws Exception {
+        Expression e1 = new ExpressionBuilder("2x").variables("x").build();
+        Expression e2 = new ExpressionBuilder("2x").variables("x").build();
+        e2.evaluate(e1.newContext().setVariable("x", 1d));
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import net.objecthunter.exp4j.constant.Constants;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+import org.junit.Test;
+
+public class ConstantFolderTest {
+
+    private static Token[] fold(String expression, Map<String, Function> functions, String... variables) {
+        Map<String, Double> constants = Constants.getBuiltinConstants();
+        HashSet<String> names = new HashSet<String>(constants.keySet());
+        Collections.addAll(names, variables);
+        Token[] tokens = ShuntingYard.convertToRPN(expression, functions, Collections.<String, Operator>emptyMap(), names);
+        return ConstantFolder.fold(tokens, constants);
+    }
+
+    private static Token[] fold(String expression, String... variables) {
+        return fold(expression, Collections.<String, Function>emptyMap(), variables);
+    }
+
+    @Test
+    public void testFoldNumbers() throws Exception {
+        Token[] tokens = fold("2 * 3 + sqrt(16) - 2^3");
+        assertEquals(1, tokens.length);
+        assertEquals(2d, ((NumberToken) tokens[0]).getValue(), 0d);
+    }
+
+    @Test
+    public void testFoldConstants() throws Exception {
+        Token[] tokens = fold("2*pi/360*x", "x");
+        assertEquals(3, tokens.length);
+        assertEquals(2 * Math.PI / 360, ((NumberToken) tokens[0]).getValue(), 0d);
+        assertEquals(Token.TOKEN_VARIABLE, tokens[1].getType());
+        assertEquals(Token.TOKEN_OPERATOR, tokens[2].getType());
+    }
+
+    @Test
+    public void testFoldFunctionArguments() throws Exception {
+        Token[] tokens = fold("sqrt(2)*y + pow(x, 1+1)", "x", "y");
+        assertEquals(7, tokens.length);
+        assertEquals(Math.sqrt(2), ((NumberToken) tokens[0]).getValue(), 0d);
+        assertEquals(2d, ((NumberToken) tokens[4]).getValue(), 0d);
+    }
+
+    @Test
+    public void testRemoveIdentities() throws Exception {
+        assertEquals(1, fold("x*1", "x").length);
+        assertEquals(1, fold("1*x", "x").length);
+        assertEquals(1, fold("x/1", "x").length);
+        assertEquals(1, fold("x+(-0)", "x").length);
+        assertEquals(1, fold("(-0)+x", "x").length);
+        assertEquals(1, fold("x-0", "x").length);
+        assertEquals(3, fold("1*(1*(x+y))", "x", "y").length);
+        assertEquals(1, fold("+x", "x").length);
+        assertEquals(3, fold("(x+y)*(3-2)", "x", "y").length);
+        assertEquals(3, fold("0-x", "x").length);
+        assertEquals(3, fold("x+0", "x").length);
+        assertEquals(3, fold("0+x", "x").length);
+        assertEquals(3, fold("x-(-0)", "x").length);
+        assertEquals(3, fold("1/x", "x").length);
+    }
+
+    @Test
+    public void testSignedZeroIsKept() throws Exception {
+        String[] expressions = {"x+0", "0+x", "x-(-0)", "(x+0)^(-1)", "1*(1*x+0)"};
+        for (String expression : expressions) {
+            double folded = new ExpressionBuilder(expression).variable("x").build().setVariable("x", -0d).evaluate();
+            Token[] tokens = ShuntingYard.convertToRPN(expression, Collections.<String, Function>emptyMap(),
+                    Collections.<String, Operator>emptyMap(), Collections.singleton("x"));
+            double unfolded = new Expression(tokens).setVariable("x", -0d).evaluate();
+            assertEquals(expression, Double.doubleToRawLongBits(unfolded), Double.doubleToRawLongBits(folded));
+        }
+        assertEquals(Double.POSITIVE_INFINITY,
+                new ExpressionBuilder("(x+0)^(-1)").variable("x").build().setVariable("x", -0d).evaluate(), 0d);
+        assertEquals(Double.NEGATIVE_INFINITY,
+                new ExpressionBuilder("(x+(-0))^(-1)").variable("x").build().setVariable("x", -0d).evaluate(), 0d);
+    }
+
+    @Test
+    public void testKeepDivisionByZero() throws Exception {
+        assertEquals(3, fold("1/0").length);
+    }
+
+    @Test
+    public void testKeepInvalidExpression() throws Exception {
+        assertEquals(4, fold("2*3*").length);
+    }
+
+    @Test
+    public void testFoldDeterministicFunctionsOnly() throws Exception {
+        Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("twice", new Function("twice", 1, true) {
+            @Override
+            public double apply(double... args) {
+                return 2 * args[0];
+            }
+        });
+        functions.put("rnd", new Function("rnd", 1) {
+            @Override
+            public double apply(double... args) {
+                return Math.random() * args[0];
+            }
+        });
+        assertEquals(1, fold("twice(3)", functions).length);
+        assertEquals(2, fold("rnd(3)", functions).length);
+    }
+
+    @Test
+    public void testDeclaredConstantsAreNotFolded() throws Exception {
+        Expression e = new ExpressionBuilder("2pi")
+                .variable("pi")
+                .foldConstants(true)
+                .build()
+                .setVariable("pi", 1d);
+        assertEquals(2d, e.evaluate(), 0d);
+        e = new ExpressionBuilder("2pi")
+                .foldConstants(true)
+                .build();
+        assertEquals(2 * Math.PI, e.evaluate(), 0d);
+        assertEquals(1, e.getTokens().length);
+    }
+
+    @Test
+    public void testConstantsOverridableByDefault() throws Exception {
+        Expression e = new ExpressionBuilder("2 * 3 * pi")
+                .build();
+        assertEquals(3, e.getTokens().length);
+        assertEquals(6 * Math.PI, e.evaluate(), 0d);
+        e.setVariable("pi", 1d);
+        assertEquals(6d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testFoldedExpressionEvaluates() throws Exception {
+        Expression e = new ExpressionBuilder("(x - 0) * 1 + sin(pi/2) * e^0 + +y")
+                .variables("x", "y")
+                .build()
+                .setVariable("x", 3d)
+                .setVariable("y", 2d);
+        assertEquals(6d, e.evaluate(), 0d);
+        assertTrue(e.validate().isValid());
+    }
+}
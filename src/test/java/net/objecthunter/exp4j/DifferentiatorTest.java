@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+
+import org.junit.Test;
+
+public class DifferentiatorTest {
+
+    private static final String[] EXPRESSIONS = {
+            "3*x^2 + 2*x - 7", "x*y + y/x", "sin(x)*cos(y)", "tan(x/3)", "exp(x) * log(x)", "log10(x) + log2(x)",
+            "log1p(x) + expm1(x)", "sqrt(x*y) + cbrt(x)", "abs(x - 2)", "asin(x/4) + acos(x/5) + atan(x)",
+            "sinh(x) + cosh(x) + tanh(x)", "x^y", "2^x", "pow(x, 3)", "-x^3 + +y", "x % 3", "(x+1)/(x-1)",
+            "floor(x) + ceil(y) + signum(x)", "pi * x + e"
+    };
+
+    private static double centralDifference(String expression, String variable, double x, double y) {
+        final Expression e = new ExpressionBuilder(expression).variables("x", "y").build();
+        final double h = 1e-6;
+        final double xh = variable.equals("x") ? h : 0d;
+        final double yh = variable.equals("y") ? h : 0d;
+        final double upper = e.setVariable("x", x + xh).setVariable("y", y + yh).evaluate();
+        final double lower = e.setVariable("x", x - xh).setVariable("y", y - yh).evaluate();
+        return (upper - lower) / (2 * h);
+    }
+
+    @Test
+    public void testAgainstFiniteDifferences() throws Exception {
+        final double[][] points = {{1.3, 0.7}, {2.6, 1.9}, {0.4, 2.2}};
+        for (String expression : EXPRESSIONS) {
+            for (String variable : new String[] {"x", "y"}) {
+                final Expression derivative = new ExpressionBuilder(expression).variables("x", "y").build()
+                        .derivative(variable);
+                for (double[] p : points) {
+                    final double expected = centralDifference(expression, variable, p[0], p[1]);
+                    final double actual = derivative.setVariable("x", p[0]).setVariable("y", p[1]).evaluate();
+                    assertEquals(expression + " d/d" + variable + " at " + p[0] + "," + p[1], expected, actual,
+                            1e-5 * Math.max(1d, Math.abs(expected)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSimplification() throws Exception {
+        Expression e = new ExpressionBuilder("3*x^2 + 2*x - 7").variables("x").build();
+        assertEquals("3.0 * (2.0 * x) + 2.0", e.derivative("x").toAst().toString());
+        e = new ExpressionBuilder("y * sin(x)").variables("x", "y").build();
+        assertEquals("y * cos(x)", e.derivative("x").toAst().toString());
+        assertEquals("sin(x)", e.derivative("y").toAst().toString());
+        e = new ExpressionBuilder("x + 1").variables("x", "y").build();
+        assertEquals("0.0", e.derivative("y").toAst().toString());
+    }
+
+    @Test
+    public void testVariableValuesAreCopied() throws Exception {
+        final Expression e = new ExpressionBuilder("x^2 * y").variables("x", "y").build()
+                .setVariable("x", 3)
+                .setVariable("y", 2);
+        assertEquals(12d, e.derivative("x").evaluate(), 0d);
+        assertEquals(9d, e.derivative("y").evaluate(), 0d);
+    }
+
+    @Test
+    public void testGradient() throws Exception {
+        final Expression e = new ExpressionBuilder("x^2 * y + z").variables("x", "y", "z", "unused").build()
+                .setVariable("x", 3)
+                .setVariable("y", 2)
+                .setVariable("z", 5);
+        final Map<String, Expression> gradient = e.gradient();
+        assertEquals(3, gradient.size());
+        assertEquals(12d, gradient.get("x").evaluate(), 0d);
+        assertEquals(9d, gradient.get("y").evaluate(), 0d);
+        assertEquals(1d, gradient.get("z").evaluate(), 0d);
+    }
+
+    @Test
+    public void testCompiledDerivative() throws Exception {
+        final Expression e = new ExpressionBuilder("x * exp(x)").variables("x").compile().setVariable("x", 1);
+        assertEquals(2 * Math.E, e.derivative("x").evaluate(), 1e-12);
+    }
+
+    private static final class Hypot extends Function2 implements Differentiable {
+        Hypot() {
+            super("hypot");
+        }
+
+        @Override
+        public double apply(double a, double b) {
+            return Math.hypot(a, b);
+        }
+
+        @Override
+        public Function getPartialDerivative(final int argument) {
+            return new Function2("dhypot" + argument) {
+                @Override
+                public double apply(double a, double b) {
+                    return (argument == 0 ? a : b) / Math.hypot(a, b);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testDifferentiableFunction() throws Exception {
+        final Expression e = new ExpressionBuilder("hypot(x, 2*x + y)").function(new Hypot()).variables("x", "y")
+                .build()
+                .setVariable("x", 1.5)
+                .setVariable("y", -0.5);
+        final double r = Math.hypot(1.5, 2.5);
+        assertEquals((1.5 + 2 * 2.5) / r, e.derivative("x").evaluate(), 1e-12);
+        assertEquals(2.5 / r, e.derivative("y").evaluate(), 1e-12);
+    }
+
+    @Test
+    public void testNonDifferentiableFunctionOfConstants() throws Exception {
+        final Function twice = new Function1("twice") {
+            @Override
+            public double apply(double a) {
+                return 2 * a;
+            }
+        };
+        final Expression e = new ExpressionBuilder("twice(y) * x").function(twice).variables("x", "y").build()
+                .setVariable("y", 4);
+        assertEquals(8d, e.derivative("x").evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonDifferentiableFunction() throws Exception {
+        final Function twice = new Function1("twice") {
+            @Override
+            public double apply(double a) {
+                return 2 * a;
+            }
+        };
+        new ExpressionBuilder("twice(x)").function(twice).variables("x").build().derivative("x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVariable() throws Exception {
+        new ExpressionBuilder("x^2").variables("x").build().derivative("y");
+    }
+}
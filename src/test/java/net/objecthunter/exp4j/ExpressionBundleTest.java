@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+import org.junit.Test;
+
+public class ExpressionBundleTest {
+
+    private static final Function TWICE = new Function("twice") {
+        @Override
+        public double apply(double... args) {
+            return 2d * args[0];
+        }
+    };
+
+    private static byte[] bundle(int size) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExpressionBundleWriter writer = new ExpressionBundleWriter(bytes);
+        /* written in an order different from the index's */
+        for (int i = size - 1; i >= 0; i--) {
+            writer.write("f" + i, new ExpressionBuilder("twice(x) + " + i).variables("x").function(TWICE).build());
+        }
+        writer.write("ü", new ExpressionBuilder("x * y").variables("y", "x").compile());
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        ExpressionBundle bundle = new ExpressionBundle(ByteBuffer.wrap(bundle(1000)),
+                Collections.singletonList(TWICE), Collections.<Operator>emptyList());
+        assertEquals(1001, bundle.size());
+        assertEquals(0, bundle.getLoadedCount());
+        assertEquals(2d * 3d + 417d, bundle.get("f417").setVariable("x", 3d).evaluate(), 0d);
+        assertEquals(2d * 3d, bundle.get("f0").setVariable("x", 3d).evaluate(), 0d);
+        assertEquals(2d * 3d + 999d, bundle.get("f999").setVariable("x", 3d).evaluate(), 0d);
+        assertEquals(6d, bundle.get("ü").setVariable("x", 2d).setVariable("y", 3d).evaluate(), 0d);
+        assertEquals(4, bundle.getLoadedCount());
+        assertTrue(bundle.contains("f1"));
+        assertFalse(bundle.contains("f1000"));
+        assertFalse(bundle.contains(""));
+        assertEquals(4, bundle.getLoadedCount());
+    }
+
+    @Test
+    public void testIndependentInstances() throws Exception {
+        ExpressionBundle bundle = new ExpressionBundle(ByteBuffer.wrap(bundle(3)),
+                Collections.singletonList(TWICE), Collections.<Operator>emptyList());
+        Expression a = bundle.get("f1").setVariable("x", 1d);
+        Expression b = bundle.get("f1").setVariable("x", 2d);
+        assertNotSame(a, b);
+        assertEquals(1, bundle.getLoadedCount());
+        assertEquals(3d, a.evaluate(), 0d);
+        assertEquals(5d, b.evaluate(), 0d);
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        File file = File.createTempFile("exp4j", ".bundle");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bundle(100));
+        out.close();
+        ExpressionBundle bundle = ExpressionBundle.open(file, Collections.singletonList(TWICE),
+                Collections.<Operator>emptyList());
+        assertEquals(101, bundle.size());
+        assertEquals(2d + 42d, bundle.get("f42").setVariable("x", 1d).evaluate(), 0d);
+    }
+
+    @Test
+    public void testEmptyBundle() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ExpressionBundleWriter(bytes).close();
+        ExpressionBundle bundle = new ExpressionBundle(ByteBuffer.wrap(bytes.toByteArray()));
+        assertEquals(0, bundle.size());
+        assertFalse(bundle.contains("f"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownId() throws Exception {
+        new ExpressionBundle(ByteBuffer.wrap(bundle(3)), Collections.singletonList(TWICE),
+                Collections.<Operator>emptyList()).get("f3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() throws Exception {
+        ExpressionBundleWriter writer = new ExpressionBundleWriter(new ByteArrayOutputStream());
+        writer.write("a", new ExpressionBuilder("1").build());
+        writer.write("a", new ExpressionBuilder("2").build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingTrailer() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExpressionWriter writer = new ExpressionWriter(bytes);
+        writer.write(new ExpressionBuilder("1").build());
+        writer.close();
+        new ExpressionBundle(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testCorruptIndex() throws Exception {
+        final byte[] data = bundle(3);
+        final int index = (int) ByteBuffer.wrap(data).getLong(data.length - ExpressionBundleWriter.TRAILER_SIZE);
+        /* sizes overflowing the index arithmetic or exceeding the data */
+        for (int size : new int[] {-1, Integer.MAX_VALUE, Integer.MAX_VALUE / 4, 1000}) {
+            final byte[] corrupt = data.clone();
+            ByteBuffer.wrap(corrupt).putInt(index, size);
+            try {
+                new ExpressionBundle(ByteBuffer.wrap(corrupt), Collections.singletonList(TWICE),
+                        Collections.<Operator>emptyList());
+                fail("Bundle size " + size + " accepted");
+            } catch (IllegalArgumentException expected) {
+                /* expected */
+            }
+        }
+        /* a key offset pointing outside of the keys */
+        for (int offset : new int[] {-100, Integer.MAX_VALUE}) {
+            final byte[] corrupt = data.clone();
+            ByteBuffer.wrap(corrupt).putInt(index + 4 + 4 * 2, offset);
+            final ExpressionBundle bundle = new ExpressionBundle(ByteBuffer.wrap(corrupt),
+                    Collections.singletonList(TWICE), Collections.<Operator>emptyList());
+            try {
+                bundle.get("f1");
+                fail("Key offset " + offset + " accepted");
+            } catch (IllegalArgumentException expected) {
+                /* expected */
+            }
+        }
+    }
+}
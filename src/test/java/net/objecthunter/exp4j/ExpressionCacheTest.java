@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.objecthunter.exp4j.function.Function;
+
+import org.junit.Test;
+
+public class ExpressionCacheTest {
+
+    @Test
+    public void testCacheHit() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        Expression e1 = cache.get(new ExpressionBuilder("2x + y").variables("x", "y"))
+                .setVariable("x", 1d)
+                .setVariable("y", 2d);
+        Expression e2 = cache.get(new ExpressionBuilder("2x + y").variables("y", "x"))
+                .setVariable("x", 3d)
+                .setVariable("y", 4d);
+        assertEquals(4d, e1.evaluate(), 0d);
+        assertEquals(10d, e2.evaluate(), 0d);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+        assertEquals(0.5d, cache.getHitRate(), 0d);
+    }
+
+    @Test
+    public void testCacheKeyIncludesConfiguration() throws Exception {
+        Function f1 = new Function("f") {
+            @Override
+            public double apply(double... args) {
+                return args[0];
+            }
+        };
+        Function f2 = new Function("f") {
+            @Override
+            public double apply(double... args) {
+                return -args[0];
+            }
+        };
+        ExpressionCache cache = new ExpressionCache(10);
+        assertEquals(2d, cache.get(new ExpressionBuilder("f(2)").function(f1)).evaluate(), 0d);
+        assertEquals(-2d, cache.get(new ExpressionBuilder("f(2)").function(f2)).evaluate(), 0d);
+        cache.get(new ExpressionBuilder("f(2)").function(f1).variable("x"));
+        cache.getCompiled(new ExpressionBuilder("f(2)").function(f1));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4, cache.size());
+        assertEquals(2d, cache.getCompiled(new ExpressionBuilder("f(2)").function(f1)).evaluate(), 0d);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        ExpressionCache cache = new ExpressionCache(2);
+        cache.get(new ExpressionBuilder("1+1"));
+        cache.get(new ExpressionBuilder("2+2"));
+        cache.get(new ExpressionBuilder("1+1"));
+        cache.get(new ExpressionBuilder("3+3"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        /* "2+2" was the least recently used one */
+        cache.get(new ExpressionBuilder("1+1"));
+        assertEquals(2, cache.getHitCount());
+        cache.get(new ExpressionBuilder("2+2"));
+        assertEquals(2, cache.getHitCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSegmentedCacheIsBounded() throws Exception {
+        ExpressionCache cache = new ExpressionCache(100);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + 1d, cache.get(new ExpressionBuilder(i + "+1")).evaluate(), 0d);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+        assertEquals(1000, cache.getMissCount());
+        /* the most recently used expression is still cached */
+        cache.get(new ExpressionBuilder("999+1"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        final ExpressionCache cache = new ExpressionCache(64);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        final int n = (i + offset) % 100;
+                        Expression e = cache.get(new ExpressionBuilder("x + " + n).variable("x"))
+                                .setVariable("x", offset);
+                        if (e.evaluate() != offset + n) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(8000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.size() <= 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() throws Exception {
+        new ExpressionCache(0);
+    }
+}
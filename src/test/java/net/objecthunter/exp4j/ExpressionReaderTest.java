@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+import org.junit.Test;
+
+public class ExpressionReaderTest {
+
+    private static final Function AVG = new Function("avg", 2) {
+        @Override
+        public double apply(double... args) {
+            return (args[0] + args[1]) / 2d;
+        }
+    };
+
+    private static final Operator FACTORIAL = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+        @Override
+        public double apply(double... args) {
+            double result = 1d;
+            for (int i = 2; i <= (int) args[0]; i++) {
+                result *= i;
+            }
+            return result;
+        }
+    };
+
+    private static List<Expression> expressions() {
+        return Arrays.asList(
+                new ExpressionBuilder("3 * sin(y) - 2 / (x - 2) + pi").variables("x", "y").build(),
+                new ExpressionBuilder("-x^2 % 3 + avg(x, 4)!").variables("x").function(AVG).operator(FACTORIAL).build(),
+                new ExpressionBuilder("2.5e-3 * b + a / 2.5e-3").variables("b", "a").compile(),
+                new ExpressionBuilder("(x + 1) * (x + 1) + sqrt(x + 1)").variables("x")
+                        .eliminateCommonSubexpressions(true).build(),
+                /* nothing repeats, but the request is kept */
+                new ExpressionBuilder("x * 2 + 1").variables("x").eliminateCommonSubexpressions(true).build());
+    }
+
+    private static byte[] write(List<Expression> expressions) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExpressionWriter writer = new ExpressionWriter(bytes);
+        try {
+            for (Expression e : expressions) {
+                writer.write(e);
+            }
+        } finally {
+            writer.close();
+        }
+        assertEquals(bytes.size(), writer.getPosition());
+        return bytes.toByteArray();
+    }
+
+    private static void assertSameExpressions(List<Expression> expected, ExpressionReader reader) {
+        for (Expression e : expected) {
+            assertTrue(reader.hasNext());
+            Expression read = reader.next();
+            assertArrayEquals(e.getSlotNames(), read.getSlotNames());
+            assertEquals(e.isCompiled(), read.isCompiled());
+            assertEquals(e.isEliminatingCommonSubexpressions(), read.isEliminatingCommonSubexpressions());
+            for (double v = -3d; v < 3d; v += 0.7) {
+                for (String name : e.getSlotNames()) {
+                    if (!name.equals("pi") && !name.equals("e") && !name.equals("φ")) {
+                        e.setVariable(name, v * name.length() + 1);
+                        read.setVariable(name, v * name.length() + 1);
+                    }
+                }
+                assertEquals(e.evaluate(), read.evaluate(), 0d);
+            }
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testEliminationFlagWithoutRepeats() throws Exception {
+        List<Expression> expressions = expressions();
+        Expression last = expressions.get(expressions.size() - 1);
+        assertTrue(last.isEliminatingCommonSubexpressions());
+        assertTrue(new Expression(last).isEliminatingCommonSubexpressions());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Expression> expressions = expressions();
+        byte[] data = write(expressions);
+        ExpressionReader reader = new ExpressionReader(ByteBuffer.wrap(data), Collections.singletonList(AVG),
+                Collections.singletonList(FACTORIAL));
+        assertSameExpressions(expressions, reader);
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        List<Expression> expressions = expressions();
+        File file = File.createTempFile("exp4j", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(write(expressions));
+        out.close();
+        ExpressionReader reader = ExpressionReader.open(file, Collections.singletonList(AVG),
+                Collections.singletonList(FACTORIAL));
+        assertSameExpressions(expressions, reader);
+    }
+
+    @Test
+    public void testConstantPool() throws Exception {
+        Expression e = new ExpressionBuilder("2 * x + 2 * y + 2").variables("x", "y").build();
+        Expression other = new ExpressionBuilder("3 * x + 4 * y + 5").variables("x", "y").build();
+        /* the repeated number is stored once */
+        assertEquals(write(Arrays.asList(other)).length - 2 * 8, write(Arrays.asList(e)).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidHeader() throws Exception {
+        new ExpressionReader(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 0, 1}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFunction() throws Exception {
+        byte[] data = write(expressions());
+        ExpressionReader reader = new ExpressionReader(ByteBuffer.wrap(data));
+        reader.next();
+        reader.next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() throws Exception {
+        byte[] data = write(expressions());
+        ExpressionReader reader = new ExpressionReader(ByteBuffer.wrap(Arrays.copyOf(data, data.length - 3)),
+                Collections.singletonList(AVG), Collections.singletonList(FACTORIAL));
+        while (reader.hasNext()) {
+            reader.next();
+        }
+    }
+
+    @Test
+    public void testCorruptCounts() throws Exception {
+        ExpressionReader reader = new ExpressionReader(ByteBuffer.wrap(write(expressions())),
+                Collections.singletonList(AVG), Collections.singletonList(FACTORIAL));
+        /* flags, no variables, no custom functions and a bad number of constants */
+        for (int count : new int[] {-1, 2, Integer.MAX_VALUE}) {
+            ByteBuffer record = ByteBuffer.allocate(16);
+            record.put((byte) 0).putShort((short) 0).putShort((short) 0).putInt(count).flip();
+            try {
+                reader.read(record);
+                fail("Number of constants " + count + " accepted");
+            } catch (IllegalArgumentException expected) {
+                /* expected */
+            }
+        }
+        /* no constants, no references and a bad number of tokens */
+        for (int count : new int[] {-1, 2, Integer.MAX_VALUE}) {
+            ByteBuffer record = ByteBuffer.allocate(16);
+            record.put((byte) 0).putShort((short) 0).putShort((short) 0).putInt(0).putShort((short) 0).putInt(count)
+                    .flip();
+            try {
+                reader.read(record);
+                fail("Number of tokens " + count + " accepted");
+            } catch (IllegalArgumentException expected) {
+                /* expected */
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function2;
+
+import org.junit.Test;
+
+public class ExpressionSetTest {
+
+    @Test
+    public void testEvaluate() throws Exception {
+        String[] expressions = {
+                "s * exp(-r * t) * sqrt(t)",
+                "k * exp(-r * t)",
+                "sqrt(t) * sigma + exp(-r * t)",
+                "pi * r"
+        };
+        ExpressionSet set = new ExpressionBuilder(expressions[0])
+                .variables("s", "r", "t", "k", "sigma")
+                .buildAll(expressions[1], expressions[2], expressions[3]);
+        assertEquals(4, set.size());
+        Random rnd = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            double s = rnd.nextDouble() * 100, r = rnd.nextDouble() / 10, t = rnd.nextDouble() * 5,
+                    k = rnd.nextDouble() * 100, sigma = rnd.nextDouble();
+            set.setVariable("s", s).setVariable("r", r).setVariable("t", t).setVariable("k", k)
+                    .setVariable("sigma", sigma);
+            double[] results = set.evaluate();
+            for (int j = 0; j < expressions.length; j++) {
+                Expression e = new ExpressionBuilder(expressions[j])
+                        .variables("s", "r", "t", "k", "sigma")
+                        .build()
+                        .setVariable("s", s).setVariable("r", r).setVariable("t", t).setVariable("k", k)
+                        .setVariable("sigma", sigma);
+                assertEquals(expressions[j], e.evaluate(), results[j], 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSubexpressions() throws Exception {
+        ExpressionSet set = new ExpressionBuilder("exp(-r * t) * a")
+                .variables("r", "t", "a", "b")
+                .buildAll("exp(-r * t) * b", "exp(-r * t)");
+        /* r, t, -r, -r * t, exp, a, * a, b, * b */
+        assertEquals(9, set.getNodeCount());
+        set.setVariable("r", 0.5).setVariable("t", 2).setVariable("a", 2).setVariable("b", 3);
+        double[] results = set.evaluate(new double[3]);
+        assertEquals(2 * Math.exp(-1), results[0], 0d);
+        assertEquals(3 * Math.exp(-1), results[1], 0d);
+        assertEquals(Math.exp(-1), results[2], 0d);
+    }
+
+    @Test
+    public void testNonDeterministicFunctionsAreNotShared() throws Exception {
+        Function next = new Function("next", 0) {
+            private double count = 0;
+
+            @Override
+            public double apply(double... args) {
+                return ++count;
+            }
+        };
+        ExpressionSet set = new ExpressionBuilder("next()")
+                .function(next)
+                .buildAll("next()");
+        assertEquals(2, set.getNodeCount());
+        double[] results = set.evaluate();
+        assertTrue(results[0] != results[1]);
+    }
+
+    @Test
+    public void testDeterministicFunctionsAreShared() throws Exception {
+        Function2 max = new Function2("max", true) {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return Math.max(arg1, arg2);
+            }
+        };
+        ExpressionSet set = new ExpressionBuilder("max(x, y) + 1")
+                .variables("x", "y")
+                .function(max)
+                .buildAll("max(x, y) * 2");
+        /* x, y, max, 1, +, 2, * */
+        assertEquals(7, set.getNodeCount());
+        set.setVariable("x", 3).setVariable("y", 4);
+        assertEquals(5d, set.evaluate()[0], 0d);
+        assertEquals(8d, set.evaluate()[1], 0d);
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        ExpressionSet set = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildAll("x * 2")
+                .setVariable("x", 1);
+        ExpressionSet copy = new ExpressionSet(set).setVariable("x", 2);
+        assertEquals(2d, set.evaluate()[0], 0d);
+        assertEquals(3d, copy.evaluate()[0], 0d);
+        assertEquals(4d, copy.evaluate()[1], 0d);
+    }
+
+    @Test
+    public void testContext() throws Exception {
+        ExpressionSet set = new ExpressionBuilder("x + pi")
+                .variables("x")
+                .buildAll("x * 2")
+                .setVariable("x", 1);
+        EvaluationContext context = set.newContext().setVariable("x", 2);
+        double[] out = set.evaluate(context, new double[2]);
+        assertEquals(2 + Math.PI, out[0], 0d);
+        assertEquals(4d, out[1], 0d);
+        assertEquals(2d, set.evaluate()[1], 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContextOfOtherSet() throws Exception {
+        ExpressionSet set = new ExpressionBuilder("x").variables("x").buildAll("x");
+        EvaluationContext context = new ExpressionBuilder("x").variables("x").buildAll("x").newContext();
+        set.evaluate(context.setVariable("x", 1), new double[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() throws Exception {
+        new ExpressionBuilder("x + 1")
+                .variables("x", "y")
+                .buildAll("y")
+                .setVariable("x", 1)
+                .evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidExpression() throws Exception {
+        new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildAll("x +");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyExpression() throws Exception {
+        new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildAll(" ");
+    }
+}
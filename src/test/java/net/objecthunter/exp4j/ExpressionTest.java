@@ -16,9 +16,16 @@
 package net.objecthunter.exp4j;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
 import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.operator.UnaryOperator;
 import net.objecthunter.exp4j.tokenizer.FunctionToken;
 import net.objecthunter.exp4j.tokenizer.NumberToken;
 import net.objecthunter.exp4j.tokenizer.OperatorToken;
@@ -27,6 +34,9 @@ import net.objecthunter.exp4j.tokenizer.Token;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -53,6 +63,48 @@ public class ExpressionTest {
         assertEquals(0d, exp.evaluate(), 0d);
     }
 
+    @Test
+    public void testSetVariableBySlot() throws Exception {
+        Expression exp = new ExpressionBuilder("x * y - x")
+                .variables("x", "y")
+                .build();
+        int x = exp.slotOf("x");
+        int y = exp.slotOf("y");
+        exp.setVariable(x, 3d).setVariable(y, 4d);
+        assertEquals(9d, exp.evaluate(), 0d);
+        exp.setVariable("y", 2d);
+        assertEquals(3d, exp.evaluate(), 0d);
+        exp.setVariable(x, -1d);
+        assertEquals(-1d, exp.evaluate(), 0d);
+    }
+
+    @Test
+    public void testSlotOfConstant() throws Exception {
+        Expression exp = new ExpressionBuilder("2pi")
+                .build();
+        exp.setVariable(exp.slotOf("pi"), 1d);
+        assertEquals(2d, exp.evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlotOfUnknownVariable() throws Exception {
+        new ExpressionBuilder("2x")
+                .variable("x")
+                .build()
+                .slotOf("y");
+    }
+
+    @Test
+    public void testCopyHasOwnVariables() throws Exception {
+        Expression exp = new ExpressionBuilder("x^2")
+                .variable("x")
+                .build()
+                .setVariable("x", 3d);
+        Expression copy = new Expression(exp).setVariable("x", 4d);
+        assertEquals(9d, exp.evaluate(), 0d);
+        assertEquals(16d, copy.evaluate(), 0d);
+    }
+
     @Test
     @Ignore
     // If Expression should be threads safe this test must pass
@@ -77,4 +129,148 @@ public class ExpressionTest {
             });
         }
     }
+
+    @Test
+    public void testFixedArityFunctionsAndOperators() throws Exception {
+        Function1 twice = new Function1("twice") {
+            @Override
+            public double apply(double arg) {
+                return 2 * arg;
+            }
+        };
+        Function2 hypot = new Function2("hypot", true) {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return Math.hypot(arg1, arg2);
+            }
+        };
+        Function sum3 = new Function("sum3", 3) {
+            @Override
+            public double apply(double... args) {
+                return args[0] + args[1] + args[2];
+            }
+        };
+        BinaryOperator minus = new BinaryOperator("<>", true, Operator.PRECEDENCE_ADDITION) {
+            @Override
+            public double apply(double left, double right) {
+                return left - right;
+            }
+        };
+        UnaryOperator factorial = new UnaryOperator("!", true, Operator.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double arg) {
+                double result = 1;
+                for (int i = 2; i <= arg; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        String expression = "twice(hypot(x, y)) <> sum3(x, y, 1) + x!";
+        double expected = 2 * Math.hypot(3, 4) - (3 + 4 + 1) + 6;
+        Expression interpreted = new ExpressionBuilder(expression)
+                .variables("x", "y")
+                .functions(twice, hypot, sum3)
+                .operator(minus, factorial)
+                .build()
+                .setVariable("x", 3)
+                .setVariable("y", 4);
+        Expression compiled = new ExpressionBuilder(expression)
+                .variables("x", "y")
+                .functions(twice, hypot, sum3)
+                .operator(minus, factorial)
+                .compile()
+                .setVariable("x", 3)
+                .setVariable("y", 4);
+        assertEquals(expected, interpreted.evaluate(), 0d);
+        assertEquals(expected, compiled.evaluate(), 0d);
+        /* the array based apply method delegates to the fixed arity one */
+        assertEquals(6d, twice.apply(new double[] {3d}), 0d);
+        assertEquals(-1d, minus.apply(new double[] {3d, 4d}), 0d);
+        double[][] columns = new double[Math.max(interpreted.slotOf("x"), interpreted.slotOf("y")) + 1][];
+        columns[interpreted.slotOf("x")] = new double[] {3d, 4d};
+        columns[interpreted.slotOf("y")] = new double[] {4d, 3d};
+        double[] out = new double[2];
+        interpreted.evaluate(columns, out);
+        assertEquals(expected, out[0], 0d);
+        assertEquals(2 * Math.hypot(4, 3) - (4 + 3 + 1) + 24, out[1], 0d);
+    }
+
+    @Test
+    public void testCommonSubexpressionElimination() throws Exception {
+        final int[] calls = new int[2];
+        Function1 pure = new Function1("pure", true) {
+            @Override
+            public double apply(double arg) {
+                calls[0]++;
+                return arg * arg;
+            }
+        };
+        Function1 impure = new Function1("impure") {
+            @Override
+            public double apply(double arg) {
+                calls[1]++;
+                return arg * arg;
+            }
+        };
+        String expression = "pure((x - mu) / sigma) + pure((x - mu) / sigma) * impure(x) - impure(x) + (x - mu) / sigma";
+        Expression plain = new ExpressionBuilder(expression)
+                .variables("x", "mu", "sigma")
+                .functions(pure, impure)
+                .build();
+        Expression cse = new ExpressionBuilder(expression)
+                .variables("x", "mu", "sigma")
+                .functions(pure, impure)
+                .eliminateCommonSubexpressions(true)
+                .build();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            double x = rnd.nextDouble(), mu = rnd.nextDouble(), sigma = 0.1 + rnd.nextDouble();
+            plain.setVariable("x", x).setVariable("mu", mu).setVariable("sigma", sigma);
+            cse.setVariable("x", x).setVariable("mu", mu).setVariable("sigma", sigma);
+            assertEquals(plain.evaluate(), cse.evaluate(), 0d);
+        }
+        calls[0] = 0;
+        calls[1] = 0;
+        cse.evaluate();
+        assertEquals(1, calls[0]);
+        /* calls of functions which are not deterministic are not merged */
+        assertEquals(2, calls[1]);
+        calls[0] = 0;
+        cse.evaluate(cse.newContext());
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void testCommonSubexpressionEliminationReusesArguments() throws Exception {
+        final List<double[]> seen = new ArrayList<double[]>();
+        Function avg = new Function("avg", 3, true) {
+            @Override
+            public double apply(double... args) {
+                seen.add(args);
+                return (args[0] + args[1] + args[2]) / 3d;
+            }
+        };
+        Expression e = new ExpressionBuilder("avg(x, 2x, 3x) + avg(x, 2x, 3x) * x")
+                .variables("x")
+                .function(avg)
+                .eliminateCommonSubexpressions(true)
+                .build()
+                .setVariable("x", 1d);
+        assertEquals(4d, e.evaluate(), 0d);
+        assertEquals(4d, e.evaluate(), 0d);
+        assertEquals(2, seen.size());
+        assertSame(seen.get(0), seen.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCommonSubexpressionEliminationInvalidExpression() throws Exception {
+        Expression e = new ExpressionBuilder("sin(x, x)")
+                .variables("x")
+                .eliminateCommonSubexpressions(true)
+                .build()
+                .setVariable("x", 1d);
+        assertEquals(false, e.validate().isValid());
+        e.evaluate();
+    }
 }
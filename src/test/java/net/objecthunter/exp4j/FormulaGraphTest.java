@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FormulaGraphTest {
+
+    private static Expression formula(String expression, String... variables) {
+        return new ExpressionBuilder(expression).variables(variables).build();
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        FormulaGraph graph = new FormulaGraph()
+                /* defined before the formulas it refers to */
+                .define("total", formula("net + tax", "net", "tax"))
+                .define("tax", formula("net * rate", "net", "rate"))
+                .define("net", formula("price * quantity", "price", "quantity"))
+                .setVariable("price", 10)
+                .setVariable("quantity", 3)
+                .setVariable("rate", 0.5);
+        assertEquals(45d, graph.getValue("total"), 0d);
+        assertEquals(15d, graph.getValue("tax"), 0d);
+        assertEquals(30d, graph.getValue("net"), 0d);
+        List<String> order = graph.getEvaluationOrder();
+        assertEquals(Arrays.asList("net", "tax", "total"), order);
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        FormulaGraph graph = new FormulaGraph()
+                .define("a", formula("x * 2", "x"))
+                .define("b", formula("y + 1", "y"))
+                .define("c", formula("a + b", "a", "b"))
+                .define("d", formula("floor(a / 100)", "a"))
+                .define("e", formula("d * 10", "d"))
+                .setVariable("x", 1)
+                .setVariable("y", 1);
+        assertEquals(5, graph.update());
+        assertEquals(0, graph.update());
+
+        /* only b and c depend on y */
+        graph.setVariable("y", 2);
+        assertEquals(2, graph.update());
+        assertEquals(5d, graph.getValue("c"), 0d);
+
+        /* the same value does not mark anything */
+        graph.setVariable("y", 2);
+        assertEquals(0, graph.update());
+
+        /* d does not change, so e is not recomputed */
+        graph.setVariable("x", 3);
+        assertEquals(3, graph.update());
+        assertEquals(0d, graph.getValue("e"), 0d);
+
+        graph.setVariable("x", 60);
+        assertEquals(4, graph.update());
+        assertEquals(10d, graph.getValue("e"), 0d);
+    }
+
+    @Test
+    public void testRedefine() throws Exception {
+        FormulaGraph graph = new FormulaGraph()
+                .define("a", formula("x + 1", "x"))
+                .define("b", formula("a * 2", "a"))
+                .setVariable("x", 1);
+        assertEquals(4d, graph.getValue("b"), 0d);
+        graph.define("a", formula("x + 2", "x"));
+        assertEquals(6d, graph.getValue("b"), 0d);
+        graph.remove("a");
+        graph.setVariable("a", 5);
+        assertEquals(10d, graph.getValue("b"), 0d);
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        FormulaGraph graph = new FormulaGraph()
+                .define("a", formula("b + 1", "b"))
+                .define("b", formula("c + 1", "c"));
+        try {
+            graph.define("c", formula("a + 1", "a"));
+            fail("Cycle not detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Circular reference c -> a -> b -> c", e.getMessage());
+        }
+        /* the graph is unchanged */
+        assertEquals(2, graph.getFormulaNames().size());
+        graph.setVariable("c", 1);
+        assertEquals(3d, graph.getValue("a"), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelfReference() throws Exception {
+        new FormulaGraph().define("a", formula("a + 1", "a"));
+    }
+
+    @Test
+    public void testMissingInput() throws Exception {
+        FormulaGraph graph = new FormulaGraph()
+                .define("a", formula("x + y", "x", "y"))
+                .define("b", formula("a * 2", "a"))
+                .setVariable("x", 1);
+        try {
+            graph.update();
+            fail("Missing input not detected");
+        } catch (IllegalArgumentException expected) {
+            /* the formulas stay pending */
+        }
+        graph.setVariable("y", 2);
+        assertEquals(2, graph.update());
+        assertEquals(6d, graph.getValue("b"), 0d);
+    }
+
+    @Test
+    public void testInputAndFormulaNames() throws Exception {
+        FormulaGraph graph = new FormulaGraph().define("a", formula("x", "x"));
+        try {
+            graph.setVariable("a", 1);
+            fail("Formula value set as input");
+        } catch (IllegalArgumentException expected) {
+            /* expected */
+        }
+        graph.setVariable("x", 1);
+        try {
+            graph.define("x", formula("2"));
+            fail("Input redefined as a formula");
+        } catch (IllegalArgumentException expected) {
+            /* expected */
+        }
+        assertTrue(graph.getFormulaNames().contains("a"));
+    }
+
+    @Test
+    public void testExpressionNotModified() throws Exception {
+        Expression e = formula("x + 1", "x").setVariable("x", 5);
+        FormulaGraph graph = new FormulaGraph().define("a", e).setVariable("x", 1);
+        assertEquals(2d, graph.getValue("a"), 0d);
+        assertEquals(6d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testChain() throws Exception {
+        FormulaGraph graph = new FormulaGraph().define("f0", formula("x", "x"));
+        for (int i = 1; i < 2000; i++) {
+            graph.define("f" + i, formula("f" + (i - 1) + " + 1", "f" + (i - 1)));
+        }
+        graph.setVariable("x", 1);
+        assertEquals(2000d, graph.getValue("f1999"), 0d);
+    }
+
+    @Test
+    public void testLongChainDefinedBackwards() throws Exception {
+        /* every formula refers to one defined later, so ordering and cycle checks walk the whole chain */
+        final int n = 10000;
+        FormulaGraph graph = new FormulaGraph();
+        for (int i = n - 1; i > 0; i--) {
+            graph.define("f" + i, formula("f" + (i - 1) + " + 1", "f" + (i - 1)));
+        }
+        graph.define("f0", formula("x", "x")).setVariable("x", 1);
+        assertEquals((double) n, graph.getValue("f" + (n - 1)), 0d);
+        assertEquals("f0", graph.getEvaluationOrder().get(0));
+        try {
+            graph.define("f0", formula("f" + (n - 1), "f" + (n - 1)));
+            fail("Cycle not detected");
+        } catch (IllegalArgumentException expected) {
+            /* expected */
+        }
+        graph.setVariable("x", 2);
+        assertEquals(n, graph.update());
+        assertEquals(n + 1d, graph.getValue("f" + (n - 1)), 0d);
+    }
+}
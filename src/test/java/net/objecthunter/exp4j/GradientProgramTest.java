@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.operator.BinaryOperator;
+import net.objecthunter.exp4j.operator.Operator;
+
+import org.junit.Test;
+
+public class GradientProgramTest {
+
+    private static final String[] EXPRESSIONS = {
+            "3*x^2 + 2*x*y - 7", "x*y + y/x", "sin(x)*cos(y)", "tan(x/3)", "exp(x) * log(y)", "log10(x) + log2(y)",
+            "log1p(x) + expm1(y)", "sqrt(x*y) + cbrt(x)", "abs(x - 2)", "asin(x/4) + acos(y/5) + atan(x)",
+            "sinh(x) + cosh(y) + tanh(x*y)", "x^y", "2^x", "pow(x, y)", "-x^3 + +y", "x % 3 + 7 % y",
+            "(x+1)/(y-1)", "floor(x) + ceil(y) * signum(x)", "pi * x + e", "x*x*x*y*y"
+    };
+
+    @Test
+    public void testAgainstSymbolicDerivatives() throws Exception {
+        final double[][] points = {{1.3, 0.7}, {2.6, 1.9}, {0.4, 2.2}};
+        for (String expression : EXPRESSIONS) {
+            final Expression e = new ExpressionBuilder(expression).variables("x", "y").build();
+            final Expression dx = e.derivative("x");
+            final Expression dy = e.derivative("y");
+            final double[] gradient = new double[e.getVariableNames().size()];
+            for (double[] p : points) {
+                e.setVariable("x", p[0]).setVariable("y", p[1]);
+                dx.setVariable("x", p[0]).setVariable("y", p[1]);
+                dy.setVariable("x", p[0]).setVariable("y", p[1]);
+                assertEquals(expression, e.evaluate(), e.evaluateWithGradient(gradient), 0d);
+                assertEquals(expression + " d/dx", dx.evaluate(), gradient[e.slotOf("x")], 1e-12);
+                assertEquals(expression + " d/dy", dy.evaluate(), gradient[e.slotOf("y")], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testReverseModeAgainstSymbolicDerivatives() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            /* a third variable switches to reverse mode */
+            final String withZ = "(" + expression + ") * z + z";
+            final Expression e = new ExpressionBuilder(withZ).variables("x", "y", "z").build()
+                    .setVariable("x", 1.7)
+                    .setVariable("y", 0.6)
+                    .setVariable("z", -1.2);
+            final double[] gradient = new double[e.getVariableNames().size()];
+            assertEquals(withZ, e.evaluate(), e.evaluateWithGradient(gradient), 0d);
+            for (String variable : new String[] {"x", "y", "z"}) {
+                assertEquals(withZ + " d/d" + variable, e.derivative(variable).evaluate(),
+                        gradient[e.slotOf(variable)], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testManyVariables() throws Exception {
+        /* sum of x_i^2 * x_(i+1) over 150 variables */
+        final int n = 150;
+        final String[] names = new String[n];
+        final StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            names[i] = "x" + i;
+        }
+        for (int i = 0; i < n - 1; i++) {
+            if (i > 0) {
+                expression.append(" + ");
+            }
+            expression.append(names[i]).append("^2 * ").append(names[i + 1]);
+        }
+        final Expression e = new ExpressionBuilder(expression.toString()).variables(names).build();
+        final double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = 1d + i / 100d;
+            e.setVariable(names[i], x[i]);
+        }
+        final double[] gradient = new double[e.getVariableNames().size()];
+        for (int repeat = 0; repeat < 3; repeat++) {
+            e.evaluateWithGradient(gradient);
+            for (int i = 0; i < n; i++) {
+                double expected = 0d;
+                if (i < n - 1) {
+                    expected += 2 * x[i] * x[i + 1];
+                }
+                if (i > 0) {
+                    expected += x[i - 1] * x[i - 1];
+                }
+                assertEquals(names[i], expected, gradient[e.slotOf(names[i])], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testUnusedVariablesAndConstants() throws Exception {
+        final Expression e = new ExpressionBuilder("2 * x + 3").variables("x", "y").build().setVariable("x", 4);
+        final double[] gradient = new double[e.getVariableNames().size()];
+        Arrays.fill(gradient, 42d);
+        assertEquals(11d, e.evaluateWithGradient(gradient), 0d);
+        for (int slot = 0; slot < gradient.length; slot++) {
+            assertEquals(slot == e.slotOf("x") ? 2d : 0d, gradient[slot], 0d);
+        }
+        final Expression c = new ExpressionBuilder("2 * 3").variables("x").build();
+        assertEquals(6d, c.evaluateWithGradient(new double[c.getVariableNames().size()]), 0d);
+    }
+
+    @Test
+    public void testRepeatedEvaluation() throws Exception {
+        final Expression e = new ExpressionBuilder("x^2 * y").variables("x", "y").build();
+        final int x = e.slotOf("x");
+        final int y = e.slotOf("y");
+        final double[] gradient = new double[e.getVariableNames().size()];
+        for (int i = 0; i < 100; i++) {
+            e.setVariable(x, i).setVariable(y, 3);
+            assertEquals(3d * i * i, e.evaluateWithGradient(gradient), 0d);
+            assertEquals(6d * i, gradient[x], 0d);
+            assertEquals((double) i * i, gradient[y], 0d);
+        }
+    }
+
+    @Test
+    public void testDifferentiableCustomFunctionAndOperator() throws Exception {
+        final Function square = new Square();
+        final Operator times = new Times();
+        final Expression e = new ExpressionBuilder("square(x) ** y").function(square).operator(times)
+                .variables("x", "y").build()
+                .setVariable("x", 3)
+                .setVariable("y", 5);
+        final double[] gradient = new double[e.getVariableNames().size()];
+        assertEquals(45d, e.evaluateWithGradient(gradient), 0d);
+        assertEquals(30d, gradient[e.slotOf("x")], 0d);
+        assertEquals(9d, gradient[e.slotOf("y")], 0d);
+
+        /* the same in reverse mode */
+        final Expression r = new ExpressionBuilder("square(x) ** y + z").function(square).operator(times)
+                .variables("x", "y", "z").build()
+                .setVariable("x", 3)
+                .setVariable("y", 5)
+                .setVariable("z", 1);
+        final double[] reverse = new double[r.getVariableNames().size()];
+        assertEquals(46d, r.evaluateWithGradient(reverse), 0d);
+        assertEquals(30d, reverse[r.slotOf("x")], 0d);
+        assertEquals(9d, reverse[r.slotOf("y")], 0d);
+        assertEquals(1d, reverse[r.slotOf("z")], 0d);
+    }
+
+    @Test
+    public void testNonDifferentiableFunctionOfConstants() throws Exception {
+        final Function twice = new Function1("twice") {
+            @Override
+            public double apply(double a) {
+                return 2 * a;
+            }
+        };
+        final Expression e = new ExpressionBuilder("twice(3) * x").function(twice).variables("x").build()
+                .setVariable("x", 2);
+        final double[] gradient = new double[e.getVariableNames().size()];
+        assertEquals(12d, e.evaluateWithGradient(gradient), 0d);
+        assertEquals(6d, gradient[e.slotOf("x")], 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonDifferentiableFunction() throws Exception {
+        final Function twice = new Function1("twice") {
+            @Override
+            public double apply(double a) {
+                return 2 * a;
+            }
+        };
+        final Expression e = new ExpressionBuilder("twice(x)").function(twice).variables("x").build()
+                .setVariable("x", 2);
+        e.evaluateWithGradient(new double[e.getVariableNames().size()]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGradientTooSmall() throws Exception {
+        new ExpressionBuilder("x").variables("x").build().setVariable("x", 1).evaluateWithGradient(new double[1]);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        final Expression e = new ExpressionBuilder("1 / x").variables("x").build().setVariable("x", 0);
+        e.evaluateWithGradient(new double[e.getVariableNames().size()]);
+    }
+
+    private static final class Square extends Function1 implements Differentiable {
+        Square() {
+            super("square");
+        }
+
+        @Override
+        public double apply(double a) {
+            return a * a;
+        }
+
+        @Override
+        public Function getPartialDerivative(int argument) {
+            return new Function1("dsquare") {
+                @Override
+                public double apply(double a) {
+                    return 2 * a;
+                }
+            };
+        }
+    }
+
+    private static final class Times extends BinaryOperator implements Differentiable {
+        Times() {
+            super("**", true, Operator.PRECEDENCE_MULTIPLICATION);
+        }
+
+        @Override
+        public double apply(double a, double b) {
+            return a * b;
+        }
+
+        @Override
+        public Function getPartialDerivative(final int argument) {
+            return new Function2("dtimes" + argument) {
+                @Override
+                public double apply(double a, double b) {
+                    return argument == 0 ? b : a;
+                }
+            };
+        }
+    }
+}
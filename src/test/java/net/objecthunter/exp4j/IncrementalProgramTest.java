@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import net.objecthunter.exp4j.function.Function1;
+
+import org.junit.Test;
+
+public class IncrementalProgramTest {
+
+    /* counts its invocations, so tests can tell which sub expressions have been recomputed */
+    private static final class Counting extends Function1 {
+        int calls;
+
+        Counting(String name, boolean deterministic) {
+            super(name, deterministic);
+        }
+
+        @Override
+        public double apply(double arg) {
+            calls++;
+            return arg;
+        }
+    }
+
+    @Test
+    public void testRecomputesChangedPaths() throws Exception {
+        Counting f = new Counting("f", true);
+        Counting g = new Counting("g", true);
+        Expression e = new ExpressionBuilder("f(a * 2) + g(b + c) * g(c)")
+                .variables("a", "b", "c")
+                .function(f)
+                .function(g)
+                .incremental(true)
+                .build();
+        e.setVariable("a", 1).setVariable("b", 2).setVariable("c", 3);
+        assertEquals(2d + 5d * 3d, e.evaluate(), 0d);
+        assertEquals(1, f.calls);
+        assertEquals(2, g.calls);
+
+        e.setVariable("a", 4);
+        assertEquals(8d + 5d * 3d, e.evaluate(), 0d);
+        assertEquals(2, f.calls);
+        assertEquals(2, g.calls);
+
+        e.setVariable("b", 5);
+        assertEquals(8d + 8d * 3d, e.evaluate(), 0d);
+        assertEquals(2, f.calls);
+        assertEquals(3, g.calls);
+
+        e.setVariable("c", 1);
+        assertEquals(8d + 6d * 1d, e.evaluate(), 0d);
+        assertEquals(2, f.calls);
+        assertEquals(5, g.calls);
+
+        /* nothing changed */
+        assertEquals(14d, e.evaluate(), 0d);
+        assertEquals(2, f.calls);
+        assertEquals(5, g.calls);
+    }
+
+    @Test
+    public void testSameValueDoesNotInvalidate() throws Exception {
+        Counting f = new Counting("f", true);
+        Expression e = new ExpressionBuilder("f(x) + y")
+                .variables("x", "y")
+                .function(f)
+                .incremental(true)
+                .build();
+        e.setVariable("x", 2).setVariable("y", 1);
+        assertEquals(3d, e.evaluate(), 0d);
+        e.setVariable("x", 2).setVariable("y", 7);
+        assertEquals(9d, e.evaluate(), 0d);
+        assertEquals(1, f.calls);
+        /* a different zero is a different value */
+        e.setVariable("x", 0d);
+        e.evaluate();
+        e.setVariable("x", -0d);
+        e.evaluate();
+        assertEquals(3, f.calls);
+    }
+
+    @Test
+    public void testNonDeterministicFunction() throws Exception {
+        Counting f = new Counting("f", false);
+        Counting g = new Counting("g", true);
+        Expression e = new ExpressionBuilder("g(f(x) + 1) + g(y)")
+                .variables("x", "y")
+                .function(f)
+                .function(g)
+                .incremental(true)
+                .build();
+        e.setVariable("x", 1).setVariable("y", 2);
+        assertEquals(4d, e.evaluate(), 0d);
+        assertEquals(4d, e.evaluate(), 0d);
+        assertEquals(2, f.calls);
+        /* g(f(x) + 1) is recomputed every time, g(y) only once */
+        assertEquals(3, g.calls);
+    }
+
+    @Test
+    public void testContexts() throws Exception {
+        Counting f = new Counting("f", true);
+        Expression e = new ExpressionBuilder("f(x) * y")
+                .variables("x", "y")
+                .function(f)
+                .incremental(true)
+                .build();
+        e.setVariable("x", 2).setVariable("y", 3);
+        EvaluationContext context = e.newContext();
+        assertEquals(6d, e.evaluate(), 0d);
+        context.setVariable("x", 5);
+        assertEquals(15d, e.evaluate(context), 0d);
+        assertEquals(6d, e.evaluate(), 0d);
+        context.setVariable("y", 1);
+        assertEquals(5d, e.evaluate(context), 0d);
+        assertEquals(2, f.calls);
+    }
+
+    @Test
+    public void testDivisionByZero() throws Exception {
+        Expression e = new ExpressionBuilder("1 / (x - 1) + y")
+                .variables("x", "y")
+                .incremental(true)
+                .build();
+        e.setVariable("x", 2).setVariable("y", 1);
+        assertEquals(2d, e.evaluate(), 0d);
+        e.setVariable("x", 1).setVariable("y", 2);
+        try {
+            e.evaluate();
+            fail("Division by zero not detected");
+        } catch (ArithmeticException expected) {
+            /* the instructions after the failing one are still stale */
+        }
+        e.setVariable("x", 3);
+        assertEquals(2.5d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testSameResults() throws Exception {
+        String[] expressions = new String[] {
+                "3 * sin(y) - 2 / (x - 2)",
+                "-x^2 + +y % 3 - z",
+                "log(x) - y * (sqrt(x^cos(y))) + z * z",
+                "pow(x, 2) + x * y * z - pi",
+                "+x"
+        };
+        Random rnd = new Random(17);
+        for (String expression : expressions) {
+            Expression plain = new ExpressionBuilder(expression).variables("x", "y", "z").build();
+            Expression incremental = new ExpressionBuilder(expression).variables("x", "y", "z").incremental(true)
+                    .build();
+            assertTrue(incremental.isIncremental());
+            String[] names = {"x", "y", "z"};
+            for (String name : names) {
+                plain.setVariable(name, 3d);
+                incremental.setVariable(name, 3d);
+            }
+            for (int i = 0; i < 200; i++) {
+                String name = names[rnd.nextInt(names.length)];
+                double value = 2.5d + rnd.nextInt(4);
+                plain.setVariable(name, value);
+                incremental.setVariable(name, value);
+                assertEquals(expression, plain.evaluate(), incremental.evaluate(), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedExpression() throws Exception {
+        Expression e = new ExpressionBuilder("sin(x, 2)").variables("x").incremental(true).build();
+        assertFalse(e.isIncremental());
+        assertFalse(e.validate(false).isValid());
+    }
+}
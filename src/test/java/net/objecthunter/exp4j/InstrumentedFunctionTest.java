@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.metrics.EvaluationMetrics;
+
+import org.junit.Test;
+
+public class InstrumentedFunctionTest {
+
+    @Test
+    public void testWrapKeepsArity() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Function unary = InstrumentedFunction.wrap(new Function1("neg", true) {
+            @Override
+            public double apply(double arg) {
+                return -arg;
+            }
+        }, metrics);
+        Function binary = InstrumentedFunction.wrap(new Function2("sub", true) {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return arg1 - arg2;
+            }
+        }, metrics);
+        assertTrue(unary instanceof Function1);
+        assertTrue(binary instanceof Function2);
+        assertTrue(unary.isDeterministic());
+        assertEquals("neg", unary.getName());
+        assertEquals(-2d, ((Function1) unary).apply(2d), 0d);
+        assertEquals(1d, ((Function2) binary).apply(3d, 2d), 0d);
+        assertEquals(1L, metrics.getFunctionInvocationCounts().get("neg").longValue());
+        assertEquals(1L, metrics.getFunctionInvocationCounts().get("sub").longValue());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+
+import org.junit.Test;
+
+public class IntervalEvaluatorTest {
+
+    private static final String[] BINARY = {"+", "-", "*", "/", "^", "%"};
+
+    private static final String[] FUNCTIONS = {"sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+            "abs", "log", "log10", "log2", "log1p", "exp", "expm1", "sqrt", "cbrt", "floor", "ceil", "signum"};
+
+    private static String randomExpression(Random rnd, int depth) {
+        if (depth == 0 || rnd.nextInt(4) == 0) {
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    return "x";
+                case 1:
+                    return "y";
+                case 2:
+                    return String.valueOf(rnd.nextInt(7) - 3);
+                default:
+                    return String.valueOf(rnd.nextDouble() * 4 - 2);
+            }
+        }
+        switch (rnd.nextInt(4)) {
+            case 0:
+                return FUNCTIONS[rnd.nextInt(FUNCTIONS.length)] + "(" + randomExpression(rnd, depth - 1) + ")";
+            case 1:
+                return "-(" + randomExpression(rnd, depth - 1) + ")";
+            default:
+                return "(" + randomExpression(rnd, depth - 1) + " " + BINARY[rnd.nextInt(BINARY.length)] + " "
+                        + randomExpression(rnd, depth - 1) + ")";
+        }
+    }
+
+    private static Map<String, Interval> ranges(double xl, double xu, double yl, double yu) {
+        final Map<String, Interval> ranges = new HashMap<String, Interval>();
+        ranges.put("x", Interval.of(xl, xu));
+        ranges.put("y", Interval.of(yl, yu));
+        return ranges;
+    }
+
+    @Test
+    public void testContainsSampledValues() throws Exception {
+        final Random rnd = new Random(4711);
+        for (int i = 0; i < 2000; i++) {
+            final String expression = randomExpression(rnd, 4);
+            final Expression e = new ExpressionBuilder(expression).variables("x", "y").build();
+            final double xl = rnd.nextDouble() * 10 - 5;
+            final double xu = xl + rnd.nextDouble() * 3;
+            final double yl = rnd.nextDouble() * 10 - 5;
+            final double yu = yl + rnd.nextDouble() * 3;
+            final Interval range = e.evaluateRange(ranges(xl, xu, yl, yu));
+            for (int j = 0; j < 50; j++) {
+                final double x = j == 0 ? xl : j == 1 ? xu : xl + rnd.nextDouble() * (xu - xl);
+                final double y = j == 0 ? yl : j == 1 ? yu : yl + rnd.nextDouble() * (yu - yl);
+                final double value;
+                try {
+                    value = e.setVariable("x", x).setVariable("y", y).evaluate();
+                } catch (ArithmeticException ex) {
+                    continue;
+                }
+                if (!Double.isNaN(value)) {
+                    assertTrue(expression + " at " + x + ", " + y + " = " + value + " not in " + range,
+                            range.contains(value));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMonotonicityAndPeriodicity() throws Exception {
+        final Expression e = new ExpressionBuilder("sin(x)").variables("x").build();
+        Interval r = e.evaluateRange(ranges(0, Math.PI, 0, 0));
+        assertEquals(1d, r.getUpper(), 0d);
+        assertEquals(0d, r.getLower(), 1e-15);
+        r = e.evaluateRange(ranges(0.1, 0.2, 0, 0));
+        assertEquals(Math.sin(0.1), r.getLower(), 1e-15);
+        assertEquals(Math.sin(0.2), r.getUpper(), 1e-15);
+        r = e.evaluateRange(ranges(-100, 100, 0, 0));
+        assertEquals(Interval.of(-1, 1), r);
+
+        r = new ExpressionBuilder("x^2").variables("x").build().evaluateRange(ranges(-1, 2, 0, 0));
+        assertEquals(0d, r.getLower(), 1e-15);
+        assertEquals(4d, r.getUpper(), 1e-14);
+        r = new ExpressionBuilder("x^3").variables("x").build().evaluateRange(ranges(-2, 1, 0, 0));
+        assertEquals(-8d, r.getLower(), 1e-14);
+        assertEquals(1d, r.getUpper(), 1e-14);
+        r = new ExpressionBuilder("cosh(x) + abs(y)").variables("x", "y").build().evaluateRange(ranges(-1, 2, -3, 1));
+        assertEquals(1d, r.getLower(), 1e-14);
+        assertEquals(Math.cosh(2) + 3, r.getUpper(), 1e-14);
+    }
+
+    @Test
+    public void testDomains() throws Exception {
+        assertTrue(new ExpressionBuilder("log(x)").variables("x").build().evaluateRange(ranges(-2, -1, 0, 0))
+                .isEmpty());
+        final Interval r = new ExpressionBuilder("sqrt(x)").variables("x").build().evaluateRange(ranges(-4, 4, 0, 0));
+        assertEquals(0d, r.getLower(), 1e-15);
+        assertEquals(2d, r.getUpper(), 1e-15);
+        assertEquals(Interval.ENTIRE, new ExpressionBuilder("1 / x").variables("x").build()
+                .evaluateRange(ranges(-1, 1, 0, 0)));
+    }
+
+    @Test
+    public void testPointVariablesAndCustomFunctions() throws Exception {
+        final Function twice = new Function1("twice", true) {
+            @Override
+            public double apply(double a) {
+                return 2 * a;
+            }
+        };
+        final Expression e = new ExpressionBuilder("twice(y) + x").function(twice).variables("x", "y").build()
+                .setVariable("y", 3);
+        final Map<String, Interval> ranges = new HashMap<String, Interval>();
+        ranges.put("x", Interval.of(1, 2));
+        final Interval r = e.evaluateRange(ranges);
+        assertTrue(r.contains(7d) && r.contains(8d));
+        assertFalse(r.contains(6.9) || r.contains(8.1));
+        ranges.put("y", Interval.of(1, 2));
+        assertEquals(Interval.ENTIRE, e.evaluateRange(ranges));
+    }
+
+    @Test
+    public void testSlotArrays() throws Exception {
+        final Expression e = new ExpressionBuilder("x * y").variables("x", "y").build();
+        final double[] lower = new double[e.getVariableNames().size()];
+        final double[] upper = new double[lower.length];
+        lower[e.slotOf("x")] = -2;
+        upper[e.slotOf("x")] = 3;
+        lower[e.slotOf("y")] = 1;
+        upper[e.slotOf("y")] = 4;
+        final Interval r = e.evaluateRange(lower, upper);
+        assertEquals(-8d, r.getLower(), 1e-14);
+        assertEquals(12d, r.getUpper(), 1e-14);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() throws Exception {
+        new ExpressionBuilder("x * y").variables("x", "y").build()
+                .evaluateRange(new HashMap<String, Interval>());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval() throws Exception {
+        Interval.of(2, 1);
+    }
+}
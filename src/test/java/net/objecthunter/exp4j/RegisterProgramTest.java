@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Random;
+
+import net.objecthunter.exp4j.ast.BinaryOperatorNode;
+import net.objecthunter.exp4j.ast.FunctionNode;
+import net.objecthunter.exp4j.ast.Node;
+import net.objecthunter.exp4j.ast.VariableNode;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import org.junit.Test;
+
+public class RegisterProgramTest {
+
+    private static final String[] BINARY = {"+", "-", "*", "/", "^"};
+
+    private static final String[] FUNCTIONS = {"sin", "cos", "exp", "atan", "abs", "sqrt"};
+
+    /* builds a random expression over x and y */
+    private static String randomExpression(Random rnd, int depth) {
+        if (depth == 0 || rnd.nextInt(4) == 0) {
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    return "x";
+                case 1:
+                    return "y";
+                default:
+                    return String.valueOf(1 + rnd.nextInt(5));
+            }
+        }
+        switch (rnd.nextInt(4)) {
+            case 0:
+                return FUNCTIONS[rnd.nextInt(FUNCTIONS.length)] + "(" + randomExpression(rnd, depth - 1) + ")";
+            case 1:
+                return "-(" + randomExpression(rnd, depth - 1) + ")";
+            default:
+                return "(" + randomExpression(rnd, depth - 1) + " " + BINARY[rnd.nextInt(BINARY.length)] + " "
+                        + randomExpression(rnd, depth - 1) + ")";
+        }
+    }
+
+    /* a division by zero is mapped to NaN so that it can be compared */
+    private static double evaluate(Expression e) {
+        try {
+            return e.evaluate();
+        } catch (ArithmeticException ex) {
+            return Double.NaN;
+        }
+    }
+
+    @Test
+    public void testRandomExpressions() throws Exception {
+        Random rnd = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            String expression = randomExpression(rnd, 6);
+            Expression interpreted = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build()
+                    .setVariable("x", 0.75)
+                    .setVariable("y", 1.25);
+            Expression compiled = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .compile()
+                    .setVariable("x", 0.75)
+                    .setVariable("y", 1.25);
+            assertEquals(expression, evaluate(compiled), evaluate(interpreted), 0d);
+        }
+    }
+
+    @Test
+    public void testRegisterReuse() throws Exception {
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 1; i <= 200; i++) {
+            expression.append(i % 2 == 0 ? " + " : " * ").append("(x - ").append(i).append(')');
+        }
+        Expression e = new ExpressionBuilder(expression.toString())
+                .variables("x")
+                .build()
+                .setVariable("x", 2);
+        Expression compiled = new ExpressionBuilder(expression.toString())
+                .variables("x")
+                .compile()
+                .setVariable("x", 2);
+        assertEquals(compiled.evaluate(), e.evaluate(), 0d);
+        /* a long chain only needs a couple of temporaries besides the 200 constants and the variable */
+        RegisterProgram program = RegisterProgram.compile(e.toAst(), Collections.singletonMap("x", 0));
+        assertTrue(program.getNumRegisters() < 201 + 5);
+        assertEquals(compiled.evaluate(), program.evaluate(new double[] {2d}, e.newContext()), 0d);
+    }
+
+    @Test
+    public void testVeryLongExpression() throws Exception {
+        /* the trees are processed without recursion, so their depth is not limited by the stack */
+        int terms = 100000;
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 1; i < terms; i++) {
+            expression.append(" + x");
+        }
+        Expression e = new ExpressionBuilder(expression.toString())
+                .variable("x")
+                .build()
+                .setVariable("x", 1);
+        assertEquals(terms, e.evaluate(), 0d);
+        assertEquals(terms, e.derivative("x").evaluate(), 0d);
+        assertEquals(e.toAst(), new ExpressionBuilder(e.toAst().toString()).variable("x").build().toAst());
+        assertEquals(terms, new ExpressionBuilder(expression.toString())
+                .variable("x")
+                .incremental(true)
+                .build()
+                .setVariable("x", 1)
+                .evaluate(), 0d);
+    }
+
+    @Test
+    public void testDeeplyNestedExpression() throws Exception {
+        int depth = 20000;
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            expression.append("sin(");
+        }
+        expression.append('x');
+        for (int i = 0; i < depth; i++) {
+            expression.append(')');
+        }
+        Expression e = new ExpressionBuilder(expression.toString())
+                .variable("x")
+                .build()
+                .setVariable("x", 0.5);
+        double expected = 0.5;
+        for (int i = 0; i < depth; i++) {
+            expected = Math.sin(expected);
+        }
+        assertEquals(expected, e.evaluate(), 0d);
+        assertEquals(expression.toString(), e.toAst().toString());
+    }
+
+    @Test
+    public void testSharedNodesAreComputedOnce() throws Exception {
+        final int[] calls = new int[1];
+        Function1 counted = new Function1("counted") {
+            @Override
+            public double apply(double arg) {
+                calls[0]++;
+                return arg;
+            }
+        };
+        Operator add = Operators.getBuiltinOperator('+', 2);
+        /* 40 levels of doubling, which would be 2^40 leaves if the shared nodes were expanded */
+        Node node = new FunctionNode(counted, new VariableNode("x"));
+        for (int i = 0; i < 40; i++) {
+            node = new BinaryOperatorNode(add, node, node);
+        }
+        RegisterProgram program = RegisterProgram.compile(node, Collections.singletonMap("x", 0));
+        EvaluationContext context = new ExpressionBuilder("x").variable("x").build().newContext();
+        assertEquals(Math.pow(2, 40) * 3, program.evaluate(new double[] {3d}, context), 0d);
+        assertEquals(1, calls[0]);
+        assertTrue(program.getNumRegisters() <= 4);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        new ExpressionBuilder("1 / (x - 1)")
+                .variables("x")
+                .build()
+                .setVariable("x", 1)
+                .evaluate();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+import org.junit.Test;
+
+public class AstBuilderTest {
+
+    private static final Map<String, Function> NO_FUNCTIONS = Collections.emptyMap();
+
+    private static final Map<String, Operator> NO_OPERATORS = Collections.emptyMap();
+
+    private static Node parse(String expression, String... variables) {
+        Set<String> names = new HashSet<String>(Arrays.asList(variables));
+        return AstBuilder.build(ShuntingYard.convertToRPN(expression, NO_FUNCTIONS, NO_OPERATORS, names));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        Node root = parse("2 * sin(x) - -y", "x", "y");
+        assertTrue(root instanceof BinaryOperatorNode);
+        BinaryOperatorNode minus = (BinaryOperatorNode) root;
+        assertSame(Operators.getBuiltinOperator('-', 2), minus.getOperator());
+        BinaryOperatorNode times = (BinaryOperatorNode) minus.getLeft();
+        assertEquals(new NumberNode(2d), times.getLeft());
+        FunctionNode sin = (FunctionNode) times.getRight();
+        assertSame(Functions.getBuiltinFunction("sin"), sin.getFunction());
+        assertEquals(new VariableNode("x"), sin.getArgument(0));
+        UnaryOperatorNode negate = (UnaryOperatorNode) minus.getRight();
+        assertEquals(new VariableNode("y"), negate.getOperand());
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        assertEquals(parse("pow(x, 2) + 1", "x"), parse("pow(x,2)+1", "x"));
+        assertEquals(parse("pow(x, 2) + 1", "x").hashCode(), parse("pow(x,2)+1", "x").hashCode());
+        assertTrue(!parse("x - 1", "x").equals(parse("1 - x", "x")));
+    }
+
+    @Test
+    public void testToTokens() throws Exception {
+        Set<String> names = new HashSet<String>(Arrays.asList("x", "y"));
+        Token[] tokens = ShuntingYard.convertToRPN("3 * (x - y) ^ 2 / log(y)", NO_FUNCTIONS, NO_OPERATORS, names);
+        Node root = AstBuilder.build(tokens);
+        assertEquals(root, AstBuilder.build(AstBuilder.toTokens(root)));
+        assertEquals(tokens.length, AstBuilder.toTokens(root).length);
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        String[] expressions = {
+                "x - (y - 1)",
+                "(x - y) - 1",
+                "2 ^ 3 ^ x",
+                "(2 ^ 3) ^ x",
+                "-x ^ 2",
+                "(-x) ^ 2",
+                "x * -2",
+                "x / (y * 2)",
+                "pow(x, -y) % 3 + atan(x / y)",
+                "1e-5 * x + 1.5e10"
+        };
+        for (String expression : expressions) {
+            Node root = parse(expression, "x", "y");
+            assertEquals(expression, root, parse(root.toString(), "x", "y"));
+        }
+        assertEquals("x - (y - 1.0)", parse("x - (y - 1)", "x", "y").toString());
+        assertEquals("x - y - 1.0", parse("(x - y) - 1", "x", "y").toString());
+    }
+
+    @Test
+    public void testExpressionToAst() throws Exception {
+        Expression e = new ExpressionBuilder("x * (1 + 2)")
+                .variables("x")
+                .build();
+        /* the tree is built from the folded tokens */
+        assertEquals(parse("x * 3", "x"), e.toAst());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformed() throws Exception {
+        new ExpressionBuilder("sin(x, y)")
+                .variables("x", "y")
+                .build()
+                .toAst();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.junit.Test;
+
+public class BytecodeCompilerTest {
+
+    @Test
+    public void testCompileTokens() throws Exception {
+        Token[] tokens = new Token[] {
+                new VariableToken("x"),
+                new NumberToken(2d),
+                new OperatorToken(Operators.getBuiltinOperator('*', 2)),
+                new FunctionToken(Functions.getBuiltinFunction("sqrt"))
+        };
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        slots.put("x", 0);
+        BytecodeEvaluator evaluator = BytecodeCompiler.compile(tokens, slots);
+        assertEquals(4d, evaluator.evaluate(new double[] {8d}), 0d);
+        assertEquals(Math.sqrt(3d), evaluator.evaluate(new double[] {1.5d}), 0d);
+    }
+
+    @Test
+    public void testCompileBuiltins() throws Exception {
+        String[] expressions = new String[] {
+                "3 * sin(y) - 2 / (x - 2)",
+                "-x^2 + +y % 3",
+                "log(x) - y * (sqrt(x^cos(y)))",
+                "abs(-x) + acos(y/4) + asin(y/4) + atan(x) + cbrt(x) + ceil(y) + floor(y)",
+                "sinh(y) + cosh(y) + tanh(y) + tan(x) + log10(x) + log2(x) + log1p(x)",
+                "exp(y) + expm1(y) + pow(x, y) + signum(-y) + signum(0) + pi * e"
+        };
+        for (String expression : expressions) {
+            Expression interpreted = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build()
+                    .setVariable("x", 2.3)
+                    .setVariable("y", 3.14);
+            Expression compiled = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .compile()
+                    .setVariable("x", 2.3)
+                    .setVariable("y", 3.14);
+            assertEquals(expression, interpreted.evaluate(), compiled.evaluate(), 0d);
+        }
+    }
+
+    @Test
+    public void testCompileCustomFunctionsAndOperators() throws Exception {
+        Function avg = new Function("avg", 4) {
+            @Override
+            public double apply(double... args) {
+                return (args[0] + args[1] + args[2] + args[3]) / 4d;
+            }
+        };
+        Function two = new Function("two", 0) {
+            @Override
+            public double apply(double... args) {
+                return 2d;
+            }
+        };
+        Operator factorial = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                double result = 1;
+                for (int i = 2; i <= (int) args[0]; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        Operator gt = new Operator(">", 2, true, Operator.PRECEDENCE_ADDITION - 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0] > args[1] ? 1d : 0d;
+            }
+        };
+        Expression e = new ExpressionBuilder("avg(1, x, 3!, two()) > 2 + avg(x, x, x, x)")
+                .variable("x")
+                .functions(avg, two)
+                .operator(factorial, gt)
+                .compile();
+        assertEquals(1d, e.setVariable("x", 0d).evaluate(), 0d);
+        assertEquals(0d, e.setVariable("x", 5d).evaluate(), 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testCompileDivisionByZero() throws Exception {
+        new ExpressionBuilder("1/x")
+                .variable("x")
+                .compile()
+                .setVariable("x", 0d)
+                .evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileVariableNotSet() throws Exception {
+        new ExpressionBuilder("1/x")
+                .variable("x")
+                .compile()
+                .evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileInvalidExpression() throws Exception {
+        new ExpressionBuilder("x-y*")
+                .variables("x", "y")
+                .compile();
+    }
+
+    @Test
+    public void testCompileLongExpression() throws Exception {
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 0; i < 2000; i++) {
+            expression.append(i % 2 == 0 ? "+" : "-").append("sin(x*").append(i).append(')');
+        }
+        double x = 0.5d;
+        Expression interpreted = new ExpressionBuilder(expression.toString())
+                .variable("x")
+                .build()
+                .setVariable("x", x);
+        Expression compiled = new ExpressionBuilder(expression.toString())
+                .variable("x")
+                .compile()
+                .setVariable("x", x);
+        assertEquals(interpreted.evaluate(), compiled.evaluate(), 0d);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+
+import org.junit.Test;
+
+public class EvaluationMetricsTest {
+
+    private static final Function SQUARE = new SquareFunction();
+
+    private static final class SquareFunction extends Function implements Differentiable {
+        SquareFunction() {
+            super("square", 1);
+        }
+
+        @Override
+        public double apply(double... args) {
+            return args[0] * args[0];
+        }
+
+        @Override
+        public Function getPartialDerivative(int argument) {
+            return new Function("twice", 1) {
+                @Override
+                public double apply(double... args) {
+                    return 2d * args[0];
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testEvaluations() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Expression e = new ExpressionBuilder("square(x) / y")
+                .variables("x", "y")
+                .function(SQUARE)
+                .listener(metrics)
+                .build()
+                .setVariable("x", 3)
+                .setVariable("y", 1);
+        assertEquals(1L, metrics.getBuildCount());
+        assertEquals(9d, e.evaluate(), 0d);
+        assertEquals(9d, e.evaluate(e.newContext()), 0d);
+        /* copies report to the same listener */
+        assertEquals(9d, new Expression(e).evaluate(), 0d);
+        e.evaluate(new double[][] {new double[] {1, 2, 3}, null}, new double[3]);
+        assertEquals(6L, metrics.getEvaluationCount());
+        assertEquals(6L, metrics.getFunctionInvocationCounts().get("square").longValue());
+
+        e.setVariable("y", 0);
+        try {
+            e.evaluate();
+            fail("Division by zero not detected");
+        } catch (ArithmeticException expected) {
+            assertEquals(1L, metrics.getEvaluationErrorCount());
+        }
+        assertEquals(6L, metrics.getEvaluationCount());
+
+        metrics.reset();
+        assertEquals(0L, metrics.getEvaluationCount());
+        assertEquals(0, metrics.getFunctionInvocationCounts().size());
+    }
+
+    @Test
+    public void testParallelEvaluation() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Expression e = new ExpressionBuilder("square(x) + 1")
+                .variables("x")
+                .function(SQUARE)
+                .listener(metrics)
+                .build();
+        int rows = 100000;
+        double[] out = new double[rows];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            e.evaluateParallel(new double[][] {new double[rows]}, out, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(rows, metrics.getEvaluationCount());
+        assertEquals(rows, metrics.getFunctionInvocationCounts().get("square").longValue());
+    }
+
+    @Test
+    public void testBuilds() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        new ExpressionBuilder("2 * x").variables("x").listener(metrics).build();
+        new ExpressionBuilder("sin(x)").variables("x").listener(metrics).compile();
+        try {
+            new ExpressionBuilder("2 * y").listener(metrics).build();
+            fail("Invalid expression built");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1L, metrics.getBuildErrorCount());
+        }
+        assertEquals(2L, metrics.getBuildCount());
+        long builds = 0L;
+        for (long count : metrics.getBuildTimeHistogram()) {
+            builds += count;
+        }
+        assertEquals(2L, builds);
+    }
+
+    @Test
+    public void testInstrumentedFunctionIsDifferentiable() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Expression e = new ExpressionBuilder("square(x)")
+                .variables("x")
+                .function(SQUARE)
+                .listener(metrics)
+                .build()
+                .setVariable("x", 3);
+        assertEquals(6d, e.derivative("x").evaluate(), 0d);
+        double[] gradient = new double[e.getVariableNames().size()];
+        assertEquals(9d, e.evaluateWithGradient(gradient), 0d);
+        assertEquals(6d, gradient[e.slotOf("x")], 0d);
+    }
+
+    @Test
+    public void testArityFunctions() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Function1 half = new Function1("half") {
+            @Override
+            public double apply(double arg) {
+                return arg / 2d;
+            }
+        };
+        Function2 hypot = new Function2("hypot") {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return Math.hypot(arg1, arg2);
+            }
+        };
+        ExpressionBuilder builder = new ExpressionBuilder("half(hypot(x, 4))")
+                .variables("x")
+                .functions(half, hypot)
+                .listener(metrics);
+        assertEquals(2.5d, builder.build().setVariable("x", 3).evaluate(), 0d);
+        assertEquals(2.5d, builder.compile().setVariable("x", 3).evaluate(), 0d);
+        assertEquals(2L, metrics.getFunctionInvocationCounts().get("half").longValue());
+        assertEquals(2L, metrics.getFunctionInvocationCounts().get("hypot").longValue());
+    }
+
+    @Test
+    public void testFoldingIsNotCounted() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Function f = new Function("f", 1, true) {
+            @Override
+            public double apply(double... args) {
+                return args[0] + 1d;
+            }
+        };
+        Expression e = new ExpressionBuilder("f(2) * x + f(x)")
+                .variables("x")
+                .function(f)
+                .listener(metrics)
+                .build()
+                .setVariable("x", 2);
+        assertEquals(0, metrics.getFunctionInvocationCounts().size());
+        assertEquals(9d, e.evaluate(), 0d);
+        assertEquals(1L, metrics.getFunctionInvocationCounts().get("f").longValue());
+    }
+
+    @Test
+    public void testWithoutListener() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        Expression e = new ExpressionBuilder("square(2)").function(SQUARE).build();
+        e.evaluate();
+        e.setListener(metrics);
+        e.evaluate();
+        assertEquals(1L, metrics.getEvaluationCount());
+        /* the function has not been built with the listener */
+        assertEquals(0, metrics.getFunctionInvocationCounts().size());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        ObjectName name = metrics.register("net.objecthunter.exp4j:type=EvaluationMetrics,name=test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            new ExpressionBuilder("square(x)").variables("x").function(SQUARE).listener(metrics).build()
+                    .setVariable("x", 2).evaluate();
+            assertEquals(1L, server.getAttribute(name, "EvaluationCount"));
+            assertEquals(1L, ((Map<?, ?>) server.getAttribute(name, "FunctionInvocationCounts")).get("square"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.getEvaluationCount());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
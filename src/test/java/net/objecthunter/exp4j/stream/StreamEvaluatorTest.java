@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import org.junit.Test;
+
+public class StreamEvaluatorTest {
+
+    @Test
+    public void testCsv() throws Exception {
+        File in = createTempFile("a;x;y\r\n1;2;3\r\n\r\n4; 5 ;-6e-1\r\n7;8;\r\n9;10;11");
+        File out = File.createTempFile("exp4j", ".csv");
+        out.deleteOnExit();
+        Map<String, Expression> outputs = new LinkedHashMap<String, Expression>();
+        outputs.put("sum", new ExpressionBuilder("x + y").variables("x", "y").build());
+        outputs.put("scaled", new ExpressionBuilder("x * f").variables("x", "f").build().setVariable("f", 2));
+        CsvSource source = new CsvSource(in, ';');
+        CsvSink sink = new CsvSink(out);
+        try {
+            /* a block size of 3 makes the last block a partial one */
+            assertEquals(4, new StreamEvaluator(outputs, 3).evaluate(source, sink));
+        } finally {
+            source.close();
+            sink.close();
+        }
+        assertEquals("sum,scaled\n5.0,4.0\n4.4,10.0\nNaN,16.0\n21.0,20.0\n", readFile(out));
+    }
+
+    @Test
+    public void testCsvLongLines() throws Exception {
+        /* more than the read buffer per line */
+        StringBuilder csv = new StringBuilder();
+        int columns = 20000;
+        for (int i = 0; i < columns; i++) {
+            csv.append(i > 0 ? "," : "").append("c").append(i);
+        }
+        for (int row = 0; row < 3; row++) {
+            csv.append('\n');
+            for (int i = 0; i < columns; i++) {
+                csv.append(i > 0 ? "," : "").append(row * i);
+            }
+        }
+        File in = createTempFile(csv.toString());
+        File out = File.createTempFile("exp4j", ".csv");
+        out.deleteOnExit();
+        Map<String, Expression> outputs = new LinkedHashMap<String, Expression>();
+        outputs.put("r", new ExpressionBuilder("c19999 - c1").variables("c1", "c19999").build());
+        assertEquals(3, new StreamEvaluator(outputs).evaluateCsv(in, out));
+        assertEquals("r\n0.0\n19998.0\n39996.0\n", readFile(out));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCsvMissingValue() throws Exception {
+        File in = createTempFile("x,y\n1,2\n3\n");
+        File out = File.createTempFile("exp4j", ".csv");
+        out.deleteOnExit();
+        Map<String, Expression> outputs = new LinkedHashMap<String, Expression>();
+        outputs.put("r", new ExpressionBuilder("x + y").variables("x", "y").build());
+        new StreamEvaluator(outputs).evaluateCsv(in, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCsvInvalidNumber() throws Exception {
+        File in = createTempFile("x\n1\n1.2.3\n");
+        File out = File.createTempFile("exp4j", ".csv");
+        out.deleteOnExit();
+        Map<String, Expression> outputs = new LinkedHashMap<String, Expression>();
+        outputs.put("r", new ExpressionBuilder("x").variables("x").build());
+        new StreamEvaluator(outputs).evaluateCsv(in, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingColumn() throws Exception {
+        File in = createTempFile("x\n1\n");
+        File out = File.createTempFile("exp4j", ".csv");
+        out.deleteOnExit();
+        Map<String, Expression> outputs = new LinkedHashMap<String, Expression>();
+        outputs.put("r", new ExpressionBuilder("x + y").variables("x", "y").build());
+        new StreamEvaluator(outputs).evaluateCsv(in, out);
+    }
+
+    @Test
+    public void testParseDouble() throws Exception {
+        String[] values = {"0", "-0", "+1", "1.", ".5", "3.14159", "1e10", "1E-5", "-2.5e+3", "123456789012345678",
+                "0.1", "0.3", "9007199254740993", "1e23", "2.2250738585072014E-308", "4.9e-324", "NaN", "-Infinity",
+                "1.7976931348623157e308", "0.000000000000000000000000001"};
+        for (String value : values) {
+            byte[] bytes = (" " + value + " ").getBytes("US-ASCII");
+            assertEquals(value, Double.parseDouble(value), CsvSource.parseDouble(bytes, 0, bytes.length), 0d);
+        }
+        Random rnd = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String value = Double.toString((rnd.nextDouble() - 0.5) * Math.pow(10, rnd.nextInt(40) - 20));
+            byte[] bytes = value.getBytes("US-ASCII");
+            assertEquals(value, Double.parseDouble(value), CsvSource.parseDouble(bytes, 0, bytes.length), 0d);
+        }
+        assertTrue(Double.isNaN(CsvSource.parseDouble(new byte[] {' '}, 0, 1)));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        File in = File.createTempFile("exp4j", ".bin");
+        in.deleteOnExit();
+        Random rnd = new Random(42);
+        int rows = 1000;
+        double[] xs = new double[rows];
+        double[] ys = new double[rows];
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(in));
+        try {
+            for (int i = 0; i < rows; i++) {
+                xs[i] = rnd.nextDouble();
+                ys[i] = rnd.nextDouble();
+                dos.writeDouble(xs[i]);
+                dos.writeDouble(ys[i]);
+            }
+        } finally {
+            dos.close();
+        }
+        File out = File.createTempFile("exp4j", ".bin");
+        out.deleteOnExit();
+        Map<String, Expression> outputs = new LinkedHashMap<String, Expression>();
+        outputs.put("product", new ExpressionBuilder("x * y").variables("x", "y").build());
+        outputs.put("sin", new ExpressionBuilder("sin(y)").variables("y").build());
+        BinarySource source = new BinarySource(in, "x", "y");
+        BinarySink sink = new BinarySink(out);
+        try {
+            assertEquals(rows, new StreamEvaluator(outputs, 64).evaluate(source, sink));
+        } finally {
+            source.close();
+            sink.close();
+        }
+        double[] expected = new double[2 * rows];
+        double[] actual = new double[2 * rows];
+        DataInputStream dis = new DataInputStream(new FileInputStream(out));
+        try {
+            for (int i = 0; i < rows; i++) {
+                expected[2 * i] = xs[i] * ys[i];
+                expected[2 * i + 1] = Math.sin(ys[i]);
+                actual[2 * i] = dis.readDouble();
+                actual[2 * i + 1] = dis.readDouble();
+            }
+            assertEquals(-1, dis.read());
+        } finally {
+            dis.close();
+        }
+        assertArrayEquals(expected, actual, 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBinaryIncompleteRow() throws Exception {
+        File in = File.createTempFile("exp4j", ".bin");
+        in.deleteOnExit();
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(in));
+        try {
+            dos.writeDouble(1d);
+            dos.writeDouble(2d);
+            dos.writeDouble(3d);
+        } finally {
+            dos.close();
+        }
+        new BinarySource(in, "x", "y");
+    }
+
+    private static File createTempFile(String content) throws IOException {
+        File file = File.createTempFile("exp4j", ".csv");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder content = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            char[] buf = new char[4096];
+            int len;
+            while ((len = reader.read(buf)) != -1) {
+                content.append(buf, 0, len);
+            }
+        } finally {
+            reader.close();
+        }
+        return content.toString();
+    }
+}
@@ -551,4 +551,79 @@ public class TokenizerTest {
 
         assertFalse(tokenizer.hasNext());
     }
+
+    @Test
+    public void testLongestNameMatch() throws Exception {
+        /* 'log' is a prefix of the variable, 'log10' is a builtin function */
+        final Tokenizer tokenizer = new Tokenizer("logx*log10(x)", null, null, new HashSet<String>(Arrays.asList("logx", "x")));
+        assertVariableToken(tokenizer.nextToken(), "logx");
+        assertOperatorToken(tokenizer.nextToken(), "*", 2, Operator.PRECEDENCE_MULTIPLICATION);
+        assertFunctionToken(tokenizer.nextToken(), "log10", 1);
+        assertOpenParenthesesToken(tokenizer.nextToken());
+        assertVariableToken(tokenizer.nextToken(), "x");
+        assertCloseParenthesesToken(tokenizer.nextToken());
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test
+    public void testVariablePrecedesFunction() throws Exception {
+        Function f = new Function("foo", 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0];
+            }
+        };
+        Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("foo", f);
+        Tokenizer tokenizer = new Tokenizer("foo", functions, null, new HashSet<String>(Arrays.asList("foo")));
+        assertVariableToken(tokenizer.nextToken(), "foo");
+        tokenizer = new Tokenizer("foo(1)", functions, null, null);
+        assertFunctionToken(tokenizer.nextToken(), "foo", 1);
+    }
+
+    @Test
+    public void testAllBuiltinFunctionNames() throws Exception {
+        for (Function f : net.objecthunter.exp4j.function.Functions.getBuiltinFunctions()) {
+            final Tokenizer tokenizer = new Tokenizer(f.getName() + "(1)", null, null, null);
+            final Token t = tokenizer.nextToken();
+            assertEquals(Token.TOKEN_FUNCTION, t.getType());
+            assertSame(f, ((FunctionToken) t).getFunction());
+        }
+    }
+
+    @Test
+    public void testLongestUserOperatorMatch() throws Exception {
+        Operator le = new Operator("<=", 2, true, Operator.PRECEDENCE_ADDITION - 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0] <= args[1] ? 1d : 0d;
+            }
+        };
+        Operator lt = new Operator("<", 2, true, Operator.PRECEDENCE_ADDITION - 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0] < args[1] ? 1d : 0d;
+            }
+        };
+        Map<String, Operator> operators = new HashMap<String, Operator>();
+        operators.put("<=", le);
+        operators.put("<", lt);
+        final Tokenizer tokenizer = new Tokenizer("1<=2<-3", null, operators, null);
+        assertNumberToken(tokenizer.nextToken(), 1d);
+        assertOperatorToken(tokenizer.nextToken(), "<=", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertNumberToken(tokenizer.nextToken(), 2d);
+        assertOperatorToken(tokenizer.nextToken(), "<", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertOperatorToken(tokenizer.nextToken(), "-", 1, Operator.PRECEDENCE_UNARY_MINUS);
+        assertNumberToken(tokenizer.nextToken(), 3d);
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() throws Exception {
+        /* 'fo' matches, the trailing 'x' does not */
+        final Tokenizer tokenizer = new Tokenizer("2 * fox", null, null, new HashSet<String>(Arrays.asList("fo")));
+        while (tokenizer.hasNext()) {
+            tokenizer.nextToken();
+        }
+    }
 }